@@ -0,0 +1,63 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sf.saxon.s9api.XsltExecutable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 
+ * JMH benchmarks for how long a cold JVM takes to get the schematron rules ready for the first request.
+ * 
+ * Each fork compiles MiringAll.sch once with a new SaxonSchematronEngine, either from the XSLT the build wrote into target/classes,
+ * or from the schematron itself.
+*/
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark
+{
+    static String schematronSchema = "/org/nmdp/miring/schematron/MiringAll.sch";
+
+    @Benchmark
+    public XsltExecutable precompiledSchema() throws Exception
+    {
+        return new SaxonSchematronEngine().compileSchema(schematronSchema);
+    }
+
+    @Benchmark
+    public XsltExecutable schematronSchema() throws Exception
+    {
+        return new SaxonSchematronEngine().compileSchematron(schematronSchema);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 
+ * JMH benchmarks for each stage of a MIRING validation, and for the whole validation.
+ * 
+ * Each stage is given the same inputs the MiringValidator would give it.  The documents are the test resources,
+ * plus documents generated by copying the sample in demogood.xml.  Every benchmark method starts from the xml String,
+ * so the cost of parsing the document is part of each stage, like it is for a real request.
+ * 
+ * Run them with the benchmark profile:
+ * $ mvn -P benchmark test-compile exec:exec
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark
+{
+    static String schematronSchema = "/org/nmdp/miring/schematron/MiringAll.sch";
+
+    /**
+     * A test resource in /org/nmdp/miring/hml/, or "generated-N" for demogood.xml with its sample copied N times.
+     */
+    @Param({"MinimalMIRING.xml", "demogood.xml", "demobad.xml", "generated-100", "generated-1000"})
+    String document;
+
+    String xml;
+    String version;
+    ValidationResult[] reportResults;
+    Sample[] reportSamples;
+    HashMap<String,String> reportProperties;
+    String hmlIdRoot;
+    String hmlIdExtension;
+
+    @Setup(Level.Trial)
+    public void loadDocument() throws Exception
+    {
+        if(document.startsWith("generated-"))
+        {
+            xml = generateDocument(Integer.parseInt(document.substring("generated-".length())));
+        }
+        else
+        {
+            xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + document);
+        }
+        
+        //Warm up the schema, schematron and rule caches, so the first iteration isn't measuring them.
+        SchemaRegistry.loadBundledSchemas();
+        RuleCatalog.getInstance();
+        SaxonSchematronEngine.getInstance().getCompiledSchema(schematronSchema);
+        
+        HmlHeader header = new ParsedHml(xml).getHeader();
+        version = header.getVersion();
+        hmlIdRoot = header.getHmlIdRoot();
+        hmlIdExtension = header.getHmlIdExtension();
+        reportProperties = header.getPropertiesForReport();
+        
+        //The results for the report benchmark are the results of a real validation.
+        ValidationContext context = new ValidationContext();
+        ParsedHml hml = new ParsedHml(xml);
+        ValidationResult[] hmlResults = SchemaValidator.validate(context, hml, SchemaRegistry.getHmlSchemaFileName(version), SchemaRegistry.getMiringSchemaFileName(version));
+        ValidationResult[] tier1Results = context.getValidationErrors().toArray();
+        reportSamples = context.getSamples().toArray(new Sample[context.getSamples().size()]);
+        ValidationResult[] tier2Results = SchematronValidator.validate(context, hml, new String[] {schematronSchema});
+        reportResults = Utilities.combineArrays(tier1Results, tier2Results, hmlResults);
+    }
+
+    /**
+     * Make a larger document by copying the sample in demogood.xml.  Each copy gets its own sample id and reference-sequence id.
+     *
+     * @param sampleCount the number of samples in the generated document
+     * @return a String containing the generated xml
+     */
+    static String generateDocument(int sampleCount)
+    {
+        String template = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        int sampleStart = template.indexOf("<sample ");
+        int sampleEnd = template.lastIndexOf("</sample>") + "</sample>".length();
+        String sample = template.substring(sampleStart, sampleEnd);
+        
+        StringBuilder generated = new StringBuilder(template.length() + sample.length() * sampleCount);
+        generated.append(template, 0, sampleStart);
+        for(int i = 0; i < sampleCount; i++)
+        {
+            generated.append(sample.replace("id=\"123456789\"", "id=\"" + (100000000 + i) + "\"").replace("\"ref1\"", "\"ref" + (i + 1) + "\"")).append("\n  ");
+        }
+        generated.append(template.substring(sampleEnd));
+        return generated.toString();
+    }
+
+    @Benchmark
+    public String getVersion()
+    {
+        return new MiringValidator(xml).getVersion();
+    }
+
+    @Benchmark
+    public ValidationResult[] hmlSchema()
+    {
+        return SchemaValidator.validate(new ValidationContext(), new ParsedHml(xml), SchemaRegistry.getHmlSchemaFileName(version));
+    }
+
+    @Benchmark
+    public ValidationResult[] tier1Schema()
+    {
+        return SchemaValidator.validate(new ValidationContext(), new ParsedHml(xml), SchemaRegistry.getMiringSchemaFileName(version));
+    }
+
+    @Benchmark
+    public ValidationResult[] singlePassSchema()
+    {
+        return SchemaValidator.validate(new ValidationContext(), new ParsedHml(xml), SchemaRegistry.getHmlSchemaFileName(version), SchemaRegistry.getMiringSchemaFileName(version));
+    }
+
+    @Benchmark
+    public ValidationResult[] singlePassSchemaParallelSamples()
+    {
+        return SchemaValidator.validateSamplesInParallel(new ValidationContext(), new ParsedHml(xml), SchemaRegistry.getHmlSchemaFileName(version), SchemaRegistry.getMiringSchemaFileName(version));
+    }
+
+    @Benchmark
+    public ValidationResult[] schematron()
+    {
+        return SchematronValidator.validate(new ValidationContext(), new ParsedHml(xml), new String[] {schematronSchema});
+    }
+
+    @Benchmark
+    public ValidationResult[] schematronParallelPatterns()
+    {
+        ValidationContext context = new ValidationContext();
+        context.setParallelPatterns(true);
+        return SchematronValidator.validate(context, new ParsedHml(xml), new String[] {schematronSchema});
+    }
+
+    @Benchmark
+    public String generateReport()
+    {
+        return ReportGenerator.generateReport(new ValidationContext(), reportResults, hmlIdRoot, hmlIdExtension, reportProperties, reportSamples, 0);
+    }
+
+    @Benchmark
+    public String validate()
+    {
+        return new MiringValidator(xml).validate();
+    }
+
+    @Benchmark
+    public String validateSaxon()
+    {
+        MiringValidator validator = new MiringValidator(xml);
+        validator.setTier2Engine(SchematronValidator.Tier2Engine.SAXON);
+        return validator.validate();
+    }
+
+    @Benchmark
+    public String validateSaxonSpeculativeTier2()
+    {
+        MiringValidator validator = new MiringValidator(xml);
+        validator.setTier2Engine(SchematronValidator.Tier2Engine.SAXON);
+        validator.setSpeculativeTier2(true);
+        return validator.validate();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/** 
+ * HmlHeader holds the information found at the top of an HML document, before the first sample:
+ * the HML version, the namespace prefix used for HML, the hmlid, and the property elements underneath the root hml node.
+ * 
+ * It is read by HmlHeaderReader, and it can't be changed after it is created.
+*/
+public final class HmlHeader
+{
+    private final String version;
+    private final String namespacePrefix;
+    private final String hmlIdRoot;
+    private final String hmlIdExtension;
+    private final Map<String,String> properties;
+
+    /**
+     * Constructor for an HmlHeader object
+     *
+     * @param version the version attribute on the root hml node, or null if there is none
+     * @param namespacePrefix the prefix bound to the HML 1.0.1 namespace, or null if HML is the default namespace
+     * @param hmlIdRoot the root attribute on the hmlid node
+     * @param hmlIdExtension the extension attribute on the hmlid node
+     * @param properties the property elements underneath the root hml node, or null if there are none
+     */
+    public HmlHeader(String version, String namespacePrefix, String hmlIdRoot, String hmlIdExtension, Map<String,String> properties)
+    {
+        this.version = version;
+        this.namespacePrefix = namespacePrefix;
+        this.hmlIdRoot = hmlIdRoot;
+        this.hmlIdExtension = hmlIdExtension;
+        this.properties = (properties == null || properties.isEmpty()) ? null : Collections.unmodifiableMap(new HashMap<String,String>(properties));
+    }
+
+    public String getVersion()
+    {
+        return version;
+    }
+
+    public String getNamespacePrefix()
+    {
+        return namespacePrefix;
+    }
+
+    public String getHmlIdRoot()
+    {
+        return hmlIdRoot;
+    }
+
+    public String getHmlIdExtension()
+    {
+        return hmlIdExtension;
+    }
+
+    public Map<String,String> getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * Get a copy of the properties, in the form that ReportGenerator expects.
+     *
+     * @return a HashMap of the property values, or null if there are none
+     */
+    public HashMap<String,String> getPropertiesForReport()
+    {
+        return (properties == null) ? null : new HashMap<String,String>(properties);
+    }
+}
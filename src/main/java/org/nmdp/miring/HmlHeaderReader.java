@@ -0,0 +1,241 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * HmlHeaderReader reads the HmlHeader of an HML document with a StAX parser.
+ * 
+ * The version, namespace, hmlid and root level properties are all at the top of the document, so the reader stops
+ * when it reaches the first sample node.  The cost of reading the header doesn't depend on the size of the document.
+ * 
+ * The one exception is a root node without a version.  A document that isn't well formed has always been given 
+ * version 1.0.1, so that it gets the HML schema errors, so then the reader reads to the end to find out.
+*/
+public class HmlHeaderReader
+{
+    static Logger logger = LoggerFactory.getLogger(HmlHeaderReader.class);
+
+    static String hmlNamespaceURI = "http://schemas.nmdp.org/spec/hml/1.0.1";
+
+    //XMLInputFactory is thread safe once it is configured.
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+    /**
+     * Read the header of an HML document.  If the document can't be read up to the first sample, 
+     * the header has a version of 1.0.1 and nothing else, the same as if the document had no header.
+     * If the root node has no version and the document isn't well formed, the version is 1.0.1.
+     *
+     * @param reader a Reader for the xml text
+     * @return the HmlHeader of the document
+     */
+    public static HmlHeader read(Reader reader)
+    {
+        return read(reader, null);
+    }
+
+    /**
+     * Read the header of an HML document from its bytes.  The encoding is taken from the xml declaration.
+     *
+     * @param in an InputStream for the xml bytes
+     * @return the HmlHeader of the document
+     */
+    public static HmlHeader read(InputStream in)
+    {
+        return read(null, in);
+    }
+
+    /**
+     * Read the header of an HML document from a Reader, or from an InputStream if the Reader is null.
+     */
+    private static HmlHeader read(Reader reader, InputStream in)
+    {
+        XMLStreamReader xmlReader = null;
+        String version = null;
+        String namespacePrefix = null;
+        String hmlIdRoot = null;
+        String hmlIdExtension = null;
+        boolean hmlIdFound = false;
+        HashMap<String,String> properties = new HashMap<String,String>();
+        boolean propertiesValid = true;
+        //Set at the first sample, when the rest of the document is only read to check that it is well formed.
+        boolean headerRead = false;
+        int depth = 0;
+
+        try
+        {
+            xmlReader = (reader != null) ? inputFactory.createXMLStreamReader(reader) : inputFactory.createXMLStreamReader(in);
+            while(xmlReader.hasNext())
+            {
+                int event = xmlReader.next();
+                if(event == XMLStreamConstants.START_ELEMENT)
+                {
+                    depth++;
+                    if(headerRead)
+                    {
+                        continue;
+                    }
+                    else if(depth == 1)
+                    {
+                        version = getAttribute(xmlReader, "version");
+                        namespacePrefix = getHmlNamespacePrefix(xmlReader);
+                    }
+                    else if(depth == 2)
+                    {
+                        String childsName = xmlReader.getLocalName();
+                        if(childsName.equals("sample"))
+                        {
+                            //Nothing past here belongs in the header.
+                            if(version != null)
+                            {
+                                break;
+                            }
+                            headerRead = true;
+                            continue;
+                        }
+                        else if(childsName.equals("hmlid") && !hmlIdFound)
+                        {
+                            hmlIdFound = true;
+                            hmlIdRoot = getAttribute(xmlReader, "root");
+                            hmlIdExtension = getAttribute(xmlReader, "extension");
+                        }
+                        if(getQualifiedName(xmlReader).contains("property"))
+                        {
+                            String propertyName = getAttribute(xmlReader, "name");
+                            String propertyValue = getAttribute(xmlReader, "value");
+                            if(propertyName == null || propertyValue == null)
+                            {
+                                //A property without a name or value means we can't trust any of them.
+                                propertiesValid = false;
+                            }
+                            else
+                            {
+                                properties.put(propertyName, propertyValue);
+                            }
+                        }
+                    }
+                }
+                else if(event == XMLStreamConstants.END_ELEMENT)
+                {
+                    depth--;
+                }
+            }
+        }
+        catch(XMLStreamException e)
+        {
+            if(depth == 0)
+            {
+                //I am returning 1.0.1 due to server error if it returns a null.
+                logger.error("Unable to read the HML header", e);
+                return new HmlHeader("1.0.1", null, null, null, null);
+            }
+            logger.debug("The HML header was read, but the document is not well formed: " + e.getMessage());
+            if(version == null)
+            {
+                //Same as the document not being readable at all, so it gets the HML schema errors.
+                version = "1.0.1";
+            }
+        }
+        finally
+        {
+            close(xmlReader);
+        }
+
+        return new HmlHeader(version, namespacePrefix, hmlIdRoot, hmlIdExtension, propertiesValid ? properties : null);
+    }
+
+    /**
+     * Find the prefix bound to the HML 1.0.1 namespace on the root node.
+     *
+     * @param xmlReader an XMLStreamReader positioned on the root node
+     * @return the prefix, or null if HML 1.0.1 is the default namespace or isn't declared with a prefix.
+     */
+    private static String getHmlNamespacePrefix(XMLStreamReader xmlReader)
+    {
+        String prefix = null;
+        for(int i = 0; i < xmlReader.getNamespaceCount(); i++)
+        {
+            String declaredPrefix = xmlReader.getNamespacePrefix(i);
+            boolean isDefault = (declaredPrefix == null || declaredPrefix.length() == 0);
+            if(hmlNamespaceURI.equals(xmlReader.getNamespaceURI(i)))
+            {
+                if(isDefault)
+                {
+                    logger.debug("HML 1.0.1 is the root namepace.");
+                    return null;
+                }
+                else if(prefix == null)
+                {
+                    prefix = declaredPrefix;
+                }
+            }
+        }
+        return prefix;
+    }
+
+    private static String getAttribute(XMLStreamReader xmlReader, String qualifiedName)
+    {
+        for(int i = 0; i < xmlReader.getAttributeCount(); i++)
+        {
+            String prefix = xmlReader.getAttributePrefix(i);
+            String name = (prefix == null || prefix.length() == 0) ? xmlReader.getAttributeLocalName(i) : prefix + ":" + xmlReader.getAttributeLocalName(i);
+            if(name.equals(qualifiedName))
+            {
+                return xmlReader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static String getQualifiedName(XMLStreamReader xmlReader)
+    {
+        String prefix = xmlReader.getPrefix();
+        return (prefix == null || prefix.length() == 0) ? xmlReader.getLocalName() : prefix + ":" + xmlReader.getLocalName();
+    }
+
+    private static void close(XMLStreamReader xmlReader)
+    {
+        if(xmlReader != null)
+        {
+            try
+            {
+                xmlReader.close();
+            }
+            catch(XMLStreamException e)
+            {
+                logger.debug("Exception while closing the header reader", e);
+            }
+        }
+    }
+}
@@ -25,6 +25,8 @@ package org.nmdp.miring;
 import java.util.HashMap;
 import java.util.*;
 import java.util.Map.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 
 import org.nmdp.miring.ValidationResult.Severity;
@@ -35,6 +37,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
@@ -58,7 +61,10 @@ public class MiringValidator
     ValidationResult[] tier2ValidationErrors;
     ValidationResult[] hmlValidationErrors;
     Sample[] sampleIDs;
-    public static Document xmlDom;
+    ValidationContext context;
+    boolean singlePassSchemaValidation = true;
+    boolean indentReport = true;
+    static String[] tier2SchemaFileNames = new String[] {"/org/nmdp/miring/schematron/MiringAll.sch"};
     
     /**
      * Constructor for a MiringValidator object
@@ -66,9 +72,34 @@ public class MiringValidator
      * @param xml a String containing the xml text
      */
     public MiringValidator(String xml)
+    {
+        this(xml, new ValidationContext());
+    }
+    
+    /**
+     * Constructor for a MiringValidator object that uses the given ValidationContext for its state
+     *
+     * @param xml a String containing the xml text
+     * @param context the ValidationContext holding the state for this validation request
+     */
+    public MiringValidator(String xml, ValidationContext context)
     {
         this.xml = xml;
         this.report = null;
+        this.context = context;
+    }
+    
+    /**
+     * Constructor for a MiringValidator object for a document that has already been wrapped in a ParsedHml, 
+     * such as a file-backed upload.  getXml() returns null for a file-backed document.
+     *
+     * @param hml the ParsedHml for the document
+     * @param context the ValidationContext holding the state for this validation request
+     */
+    public MiringValidator(ParsedHml hml, ValidationContext context)
+    {
+        this(hml.getXml(), context);
+        this.context.parsedHml = hml;
     }
     
     /**
@@ -78,42 +109,97 @@ public class MiringValidator
      */
     public String validate()
     {
-        if(xml==null || xml.length() == 0)
+        report = null;
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            validate(out);
+            report = out.toString("UTF-8");
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception during Miring Validation Report Generation.", e);
+        }
+        return report;
+    }
+
+    /**
+     * Validate the xml text against MIRING checklist, and write the MIRING Results Report to an OutputStream as it is generated.
+     * This method performs validation for both Tiers 1 and 2.  getReport() is not set by this method.
+     *
+     * @param out the OutputStream to write the UTF-8 encoded report to.  It is flushed, but not closed.
+     * @throws XMLStreamException if the report can not be written
+     */
+    public void validate(OutputStream out) throws XMLStreamException
+    {
+        if(getParsedHml().isEmpty())
         {
             logger.error("XML is null or length 0.");
-            return ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("XML is null or length 0.",Severity.FATAL), new ValidationResult("XML is null or length 0.", Severity.HMLFATAL)}, null, null,null,null,0);
+            writeReport(out, new ValidationResult[]{new ValidationResult("XML is null or length 0.",Severity.FATAL), new ValidationResult("XML is null or length 0.", Severity.HMLFATAL)}, null, null,null,null,0);
+            return;
         }
         
-        HashMap<String,String> properties = Utilities.getPropertiesFromRootHml(xml);
+        ParsedHml hml = getParsedHml();
+        HmlHeader header = hml.getHeader();
+        HashMap<String,String> properties = header.getPropertiesForReport();
         logger.debug("Attempting HML Validation");
         String version = getVersion();
-        System.out.println("Version Number = "+version);
+        logger.debug("Version Number = " + version);
         if(version==null)
         {
-            report = ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.FATAL),new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.HMLFATAL)}, null, null,null,null,0);
+            writeReport(out, new ValidationResult[]{new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.FATAL),new ValidationResult("No Version Number Detected Please have a version number under then HML node",Severity.HMLFATAL)}, null, null,null,null,0);
         }
         else
         {
+        //Tier 2 can start before Tier 1 is done, unless the native rule engine checks it during the Tier 1 parse.
+        SchematronValidator.SchematronRun speculativeRun = null;
+        if(context.speculativeTier2 && !(singlePassSchemaValidation && context.tier2Engine == SchematronValidator.Tier2Engine.NATIVE))
+        {
+            speculativeRun = SchematronValidator.startSpeculativeValidation(context, hml, tier2SchemaFileNames, 
+                singlePassSchemaValidation && context.tier2Engine != SchematronValidator.Tier2Engine.PROBATRON);
+        }
         //Make method called version control
-        hmlValidationErrors = SchemaValidator.validate(xml,"/org/nmdp/miring/schema/hml-"+version+".xsd");
+        if(singlePassSchemaValidation)
+        {
+            //HML and Tier 1 are checked in the same parse.  The Tier 1 results are left on the context.
+            if(context.parallelSamples)
+            {
+                hmlValidationErrors = SchemaValidator.validateSamplesInParallel(context, hml, SchemaRegistry.getHmlSchemaFileName(version), getMiring(version));
+            }
+            else
+            {
+                hmlValidationErrors = SchemaValidator.validate(context, hml, SchemaRegistry.getHmlSchemaFileName(version), getMiring(version));
+            }
+        }
+        else
+        {
+            hmlValidationErrors = SchemaValidator.validate(context, hml, SchemaRegistry.getHmlSchemaFileName(version));
+        }
         //If there are any fatal issues with HML do not continue
         if(!Utilities.hasHMLFatalErrors(hmlValidationErrors)&&!Utilities.hasRejects(hmlValidationErrors))
         {
         	//Tier 1
             logger.debug("Attempting Tier 1 Validation");
-            tier1ValidationErrors = SchemaValidator.validate(xml, getMiring(version));
-            sampleIDs = SchemaValidator.samples.toArray(new Sample[SchemaValidator.samples.size()]);
+            if(singlePassSchemaValidation)
+            {
+                tier1ValidationErrors = context.validationErrors.toArray();
+            }
+            else
+            {
+                tier1ValidationErrors = SchemaValidator.validate(context, hml, getMiring(version));
+            }
+            sampleIDs = context.samples.toArray(new Sample[context.samples.size()]);
             //Tier 2
             //If tier 1 has fatal errors, we should not continue to tier 2.
             if(!Utilities.hasFatalErrors(tier1ValidationErrors))
             {
                 logger.debug("Attempting Tier 2 validation");
                 
-                tier2ValidationErrors = SchematronValidator.validate(xml, new String[] {"/org/nmdp/miring/schematron/MiringAll.sch"});
+                tier2ValidationErrors = SchematronValidator.validate(context, hml, tier2SchemaFileNames, speculativeRun);
                 //Make a report.
-                String hmlIdRoot = Utilities.getHMLIDRoot(xml);
-                String hmlIdExt = Utilities.getHMLIDExtension(xml);
-                report = ReportGenerator.generateReport(Utilities.combineArrays(tier1ValidationErrors, tier2ValidationErrors, hmlValidationErrors), hmlIdRoot, hmlIdExt, properties, sampleIDs,(tier1ValidationErrors.length + tier2ValidationErrors.length));
+                String hmlIdRoot = header.getHmlIdRoot();
+                String hmlIdExt = header.getHmlIdExtension();
+                writeReport(out, Utilities.combineArrays(tier1ValidationErrors, tier2ValidationErrors, hmlValidationErrors), hmlIdRoot, hmlIdExt, properties, sampleIDs,(tier1ValidationErrors.length + tier2ValidationErrors.length));
 
                 
                 //Tier 3 is outside scope for now.  Okay.
@@ -125,28 +211,53 @@ public class MiringValidator
             else
             {
                 logger.error("Did not perform tier 2 validation, fatal errors in tier 1.");
+                cancel(speculativeRun);
                 tier2ValidationErrors=new ValidationResult[0];
                 
                 //Make a report.
-                String hmlIdRoot = Utilities.getHMLIDRoot(xml);
-                String hmlIdExt = Utilities.getHMLIDExtension(xml);
-                report = ReportGenerator.generateReport(Utilities.combineArrays(tier1ValidationErrors,tier2ValidationErrors,  hmlValidationErrors), hmlIdRoot, hmlIdExt, properties, sampleIDs,(tier1ValidationErrors.length+1));
+                String hmlIdRoot = header.getHmlIdRoot();
+                String hmlIdExt = header.getHmlIdExtension();
+                writeReport(out, Utilities.combineArrays(tier1ValidationErrors,tier2ValidationErrors,  hmlValidationErrors), hmlIdRoot, hmlIdExt, properties, sampleIDs,(tier1ValidationErrors.length+1));
             }
 
         }
         else
         {
+            cancel(speculativeRun);
+            //Throw away any Tier 1 results from the single pass, Tier 1 doesn't count if the HML is bad.
+            context.validationErrors.clear();
+            context.samples.clear();
+
             //Make a report.
-            String hmlIdRoot = Utilities.getHMLIDRoot(xml);
-            String hmlIdExt = Utilities.getHMLIDExtension(xml);
-            report = ReportGenerator.generateReport(hmlValidationErrors, hmlIdRoot, hmlIdExt, properties, sampleIDs,0);
+            String hmlIdRoot = header.getHmlIdRoot();
+            String hmlIdExt = header.getHmlIdExtension();
+            writeReport(out, hmlValidationErrors, hmlIdRoot, hmlIdExt, properties, sampleIDs,0);
 
             logger.error("Did not perform Tier 1 validation, fatal errors in HML or malformed HML");
         }
         }
         
-        
-        return report;
+        logger.debug("The document was parsed " + hml.getParseCount() + " times, " + hml.getBytesParsed() + " bytes were parsed.");
+    }
+
+    /**
+     * Cancel a speculative Tier 2 validation that isn't needed.
+     */
+    private void cancel(SchematronValidator.SchematronRun speculativeRun)
+    {
+        if(speculativeRun != null)
+        {
+            logger.debug("Cancelling the speculative Tier 2 validation");
+            speculativeRun.cancel();
+        }
+    }
+
+    /**
+     * Write the report for this validation with the ReportGenerator.
+     */
+    private void writeReport(OutputStream out, ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart) throws XMLStreamException
+    {
+        ReportGenerator.writeReport(context, validationResults, root, extension, properties, sampleIDs, hmlstart, out, indentReport);
     }
 
     public String getXml()
@@ -157,6 +268,21 @@ public class MiringValidator
     public void setXml(String xml)
     {
         this.xml = xml;
+        this.context.parsedHml = null;
+    }
+
+    /**
+     * Get the ParsedHml for the xml text.  It is shared by every validation stage, and it keeps the parse metrics for the request.
+     *
+     * @return the ParsedHml for this validator's xml
+     */
+    public ParsedHml getParsedHml()
+    {
+        if(context.parsedHml == null)
+        {
+            context.parsedHml = new ParsedHml(xml);
+        }
+        return context.parsedHml;
     }
 
     
@@ -164,40 +290,159 @@ public class MiringValidator
     {
         return report;
     }
+
+    public ValidationContext getContext()
+    {
+        return context;
+    }
+
+    public boolean isSinglePassSchemaValidation()
+    {
+        return singlePassSchemaValidation;
+    }
+
+    /**
+     * Choose how the HML and Tier 1 schemas are checked.
+     *
+     * @param singlePassSchemaValidation true to check both schemas in one parse of the document (the default), false to parse the document once for each schema
+     */
+    public void setSinglePassSchemaValidation(boolean singlePassSchemaValidation)
+    {
+        this.singlePassSchemaValidation = singlePassSchemaValidation;
+    }
+
+    public SchematronValidator.Tier2Engine getTier2Engine()
+    {
+        return context.getTier2Engine();
+    }
+
+    /**
+     * Choose the engine that checks the Tier 2 rules.
+     *
+     * @param tier2Engine NATIVE to check them during the Tier 1 parse (the default), SAXON or PROBATRON to run the schematron
+     */
+    public void setTier2Engine(SchematronValidator.Tier2Engine tier2Engine)
+    {
+        context.setTier2Engine(tier2Engine);
+    }
+
+    public boolean isParallelPatterns()
+    {
+        return context.isParallelPatterns();
+    }
+
+    /**
+     * Choose whether the schematron patterns are checked on separate threads.  This applies to the SAXON Tier2Engine.
+     *
+     * @param parallelPatterns true to check each pattern on its own thread, on one shared tree of the document, false to check them one after the other (the default)
+     */
+    public void setParallelPatterns(boolean parallelPatterns)
+    {
+        context.setParallelPatterns(parallelPatterns);
+    }
+
+    public boolean isParallelSamples()
+    {
+        return context.isParallelSamples();
+    }
+
+    /**
+     * Choose whether the samples are validated on separate threads.  This applies to the single pass schema validation.
+     *
+     * @param parallelSamples true to split the samples into partitions that are parsed in parallel, false to parse the whole document at once (the default)
+     */
+    public void setParallelSamples(boolean parallelSamples)
+    {
+        context.setParallelSamples(parallelSamples);
+    }
+
+    public boolean isSpeculativeTier2()
+    {
+        return context.isSpeculativeTier2();
+    }
+
+    /**
+     * Choose whether Tier 2 starts before Tier 1 is done.  This applies when Tier 2 runs the schematron, 
+     * the NATIVE Tier2Engine with the single pass schema validation checks Tier 2 during the Tier 1 parse already.
+     *
+     * @param speculativeTier2 true to start the Tier 2 validation on another thread with the Tier 1 validation, and cancel it if Tier 1 is fatal, 
+     * false to start Tier 2 after Tier 1 (the default)
+     */
+    public void setSpeculativeTier2(boolean speculativeTier2)
+    {
+        context.setSpeculativeTier2(speculativeTier2);
+    }
+
+    public boolean isFailFast()
+    {
+        return context.isFailFast();
+    }
+
+    /**
+     * Choose whether the validation stops at the first fatal finding.  The report then only has the results found up to that point, 
+     * which is enough to reject a document that is malformed or has the wrong version.
+     *
+     * @param failFast true to stop the HML and Tier 1 parse at the first HMLFATAL, FATAL or reject result, false to report every result (the default)
+     */
+    public void setFailFast(boolean failFast)
+    {
+        context.setFailFast(failFast);
+    }
+
+    public int getMaxResultsPerRule()
+    {
+        return context.getMaxResultsPerRule();
+    }
+
+    /**
+     * Set the most results that are kept for one MIRING rule.  The report counts the rest as omitted occurrences.
+     *
+     * @param maxResultsPerRule the most results for one rule, severity and sample, or 0 for no limit, which is the default
+     */
+    public void setMaxResultsPerRule(int maxResultsPerRule)
+    {
+        context.setMaxResultsPerRule(maxResultsPerRule);
+    }
+
+    public int getMaxXPathsPerResult()
+    {
+        return context.getMaxXPathsPerResult();
+    }
+
+    /**
+     * Set the most xpaths that the report lists on one result.  The rest are counted as omitted occurrences.
+     *
+     * @param maxXPathsPerResult the most xpaths for one result, or 0 for no limit, which is the default
+     */
+    public void setMaxXPathsPerResult(int maxXPathsPerResult)
+    {
+        context.setMaxXPathsPerResult(maxXPathsPerResult);
+    }
+
+    public boolean isIndentReport()
+    {
+        return indentReport;
+    }
+
+    /**
+     * Choose whether the report is indented.
+     *
+     * @param indentReport true to put each element of the report on its own line (the default), false to write the report without whitespace between elements
+     */
+    public void setIndentReport(boolean indentReport)
+    {
+        this.indentReport = indentReport;
+    }
     /* Gets the version of HML used to validate
      */
     public String getVersion()
     {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder;
-        Document xmlDOM=null;
-        try {
-            builder = factory.newDocumentBuilder();
-             xmlDOM = builder.parse(new InputSource(new StringReader(xml)));
-            
-        }
-        //I am returning 1.0.1 due to server error if it returns a null.
-        catch (Exception e) {
-            System.out.println("Error in handle Grabbing ");
-            return "1.0.1";
-        }
-        NodeList xmlAttributes = xmlDOM.getElementsByTagName("*");
-        NamedNodeMap xmlAttribute = xmlAttributes.item(0).getAttributes();
-        for(int i = 0; i<xmlAttribute.getLength();i++){
-            if(xmlAttribute.item(i).getNodeName().equals("version"))
-            {
-                return xmlAttribute.item(i).getNodeValue();
-            }
-        }
-        return null;
-        
-        
-        
+        return getParsedHml().getHeader().getVersion();
     }
     /* Based on version choose correct miring schema (They are the same except for the name space)
      */
     public String getMiring(String version)
     {
-        return (version.equals("1.0.1"))? "/org/nmdp/miring/schema/MiringTier1.xsd":"/org/nmdp/miring/schema/MiringTier1-1.0.xsd";
+        return SchemaRegistry.getMiringSchemaFileName(version);
     }
 }
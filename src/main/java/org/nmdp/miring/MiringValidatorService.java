@@ -26,30 +26,89 @@ import org.nmdp.miring.ValidationResult.Severity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sun.jersey.spi.CloseableService;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLStreamException;
 
 /** 
  * This class provides a REST service to access the MIRING Validator.  
- * It expects a POST request with a single form parameter called xml.
+ * It expects a POST request with a single form parameter called xml, 
+ * or a POST request with Content-Type application/xml that has the HML document as its body.
+ * The query parameter failFast=true stops the validation at the first fatal result, for gateways that only need to reject bad documents.
+ * The query parameters maxResultsPerRule and maxXPathsPerResult limit the size of the report, so a mistake repeated on every node 
+ * of a large document doesn't fill the memory.  They are 0 by default, which means no limit, so every result is reported unless the request asks for less.
 */
 
 @Path("/ValidateMiring")
 public class MiringValidatorService
 {
     Logger logger = LoggerFactory.getLogger(MiringValidatorService.class);
+    //The most results kept for one MIRING rule, severity and sample, and the most xpaths on one result, unless the request sets them.  0 means no limit.
+    static final int DEFAULT_MAX_RESULTS_PER_RULE = 0;
+    static final int DEFAULT_MAX_XPATHS_PER_RESULT = 0;
+    //Closes what is added to it when the request is done, even if the response was never written.  Null outside of Jersey.
+    @Context
+    CloseableService closeableService;
     
+    /**
+     * Validate a MIRING compliant HML file, and report every result.
+     *
+     * @param xml the xml text
+     * @return a StreamingOutput that writes the MIRING Results Report in XML format.
+     */
+    public StreamingOutput validateMiring(String xml)
+    {
+        return validateMiring(xml, false);
+    }
+
+    /**
+     * Validate a MIRING compliant HML file, without a limit on the results in the report.
+     *
+     * @param xml the xml text
+     * @param failFast true to stop the validation at the first fatal result
+     * @return a StreamingOutput that writes the MIRING Results Report in XML format.
+     */
+    public StreamingOutput validateMiring(String xml, boolean failFast)
+    {
+        return validateMiring(xml, failFast, DEFAULT_MAX_RESULTS_PER_RULE, DEFAULT_MAX_XPATHS_PER_RESULT);
+    }
+
     /**
      * This method provides a RESTFUL service for validating a MIRING compliant HML file
+     * 
+     * The report is written straight to the response as it is generated, instead of being built as a String first.
      *
      * @param xml this method accepts a Form Parameter "xml" containing the xml text
-     * @return a String containing MIRING Results Report in XML format.
+     * @param failFast the Query Parameter "failFast", true to stop the validation at the first fatal result.  It is false by default.
+     * @param maxResultsPerRule the Query Parameter "maxResultsPerRule", the most results for one rule, severity and sample.  It is 0 by default, which means no limit.
+     * @param maxXPathsPerResult the Query Parameter "maxXPathsPerResult", the most xpaths on one result.  It is 0 by default, which means no limit.
+     * @return a StreamingOutput that writes the MIRING Results Report in XML format.
      */
     @POST
+    @Consumes("application/x-www-form-urlencoded")
     @Produces("application/xml")
-    public String validateMiring(@FormParam("xml") String xml)
+    public StreamingOutput validateMiring(@FormParam("xml") final String xml, @QueryParam("failFast") @DefaultValue("false") final boolean failFast, 
+        @QueryParam("maxResultsPerRule") @DefaultValue("" + DEFAULT_MAX_RESULTS_PER_RULE) final int maxResultsPerRule, 
+        @QueryParam("maxXPathsPerResult") @DefaultValue("" + DEFAULT_MAX_XPATHS_PER_RESULT) final int maxXPathsPerResult)
     {
         //System.out.println("Web Service Call Received.  ");
         //System.out.println("XML length=" + xml==null?"NULL":(xml.length() + " : " + xml.substring(0,20) + " ... " + xml.substring(xml.length()-20, xml.length())));
@@ -60,21 +119,204 @@ public class MiringValidatorService
         if(xml == null)
         {
             logger.error("XML is Null.");
-            return ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("XML is null.",Severity.FATAL),new ValidationResult("XML is null.",Severity.HMLFATAL)}, null, null,null,null,0);
+            return reportOutput(new ValidationResult[]{new ValidationResult("XML is null.",Severity.FATAL),new ValidationResult("XML is null.",Severity.HMLFATAL)});
         }
         else if(xml.length() == 0)
         {
             logger.error("XML is Empty.");
-            return ReportGenerator.generateReport(new ValidationResult[]{new ValidationResult("XML is length 0.",Severity.FATAL),new ValidationResult("XML is length 0.",Severity.HMLFATAL)}, null, null,null,null,0);
+            return reportOutput(new ValidationResult[]{new ValidationResult("XML is length 0.",Severity.FATAL),new ValidationResult("XML is length 0.",Severity.HMLFATAL)});
         }
         else
         {
             logger.debug("XML Length = " + xml.length());
 
-            MiringValidator myValidator = new MiringValidator(xml);
-            myValidator.validate();
+            return new StreamingOutput()
+            {
+                @Override
+                public void write(OutputStream out) throws IOException, WebApplicationException
+                {
+                    try
+                    {
+                        MiringValidator myValidator = new MiringValidator(xml);
+                        myValidator.setFailFast(failFast);
+                        myValidator.setMaxResultsPerRule(maxResultsPerRule);
+                        myValidator.setMaxXPathsPerResult(maxXPathsPerResult);
+                        myValidator.validate(out);
+                    }
+                    catch(XMLStreamException e)
+                    {
+                        logger.error("Exception while writing the MIRING report.", e);
+                        throw new WebApplicationException(e);
+                    }
+                }
+            };
+        }
+    }
 
-            return myValidator.getReport();
+    /**
+     * Validate a MIRING compliant HML file read from a stream, without a limit on the results in the report.
+     *
+     * @param body the xml document
+     * @param failFast true to stop the validation at the first fatal result
+     * @return a StreamingOutput that writes the MIRING Results Report in XML format.
+     */
+    public StreamingOutput validateMiringXml(InputStream body, boolean failFast)
+    {
+        return validateMiringXml(body, failFast, DEFAULT_MAX_RESULTS_PER_RULE, DEFAULT_MAX_XPATHS_PER_RESULT);
+    }
+
+    /**
+     * This method provides a RESTFUL service for validating a MIRING compliant HML file sent as the raw request body.
+     * 
+     * The body isn't decoded into a String or url-decoded.  It is copied to a temporary file, because the document 
+     * is read more than once (header, schema validation, schematron), and every read parses the bytes of the file.
+     * The file can only be read by its owner.  It is deleted when the report has been written, or when the request is done 
+     * if the report is never written.
+     *
+     * @param body the request body containing the xml document
+     * @param failFast the Query Parameter "failFast", true to stop the validation at the first fatal result.  It is false by default.
+     * @param maxResultsPerRule the Query Parameter "maxResultsPerRule", the most results for one rule, severity and sample.  It is 0 by default, which means no limit.
+     * @param maxXPathsPerResult the Query Parameter "maxXPathsPerResult", the most xpaths on one result.  It is 0 by default, which means no limit.
+     * @return a StreamingOutput that writes the MIRING Results Report in XML format.
+     */
+    @POST
+    @Consumes("application/xml")
+    @Produces("application/xml")
+    public StreamingOutput validateMiringXml(InputStream body, @QueryParam("failFast") @DefaultValue("false") final boolean failFast, 
+        @QueryParam("maxResultsPerRule") @DefaultValue("" + DEFAULT_MAX_RESULTS_PER_RULE) final int maxResultsPerRule, 
+        @QueryParam("maxXPathsPerResult") @DefaultValue("" + DEFAULT_MAX_XPATHS_PER_RESULT) final int maxXPathsPerResult)
+    {
+        logger.debug( "Received Miring Validation web service call with an xml body.");
+
+        final File file;
+        try
+        {
+            file = createTempFile();
+        }
+        catch(IOException e)
+        {
+            logger.error("Unable to create a temporary file for the HML.", e);
+            throw new WebApplicationException(e);
+        }
+        if(closeableService != null)
+        {
+            closeableService.add(new Closeable()
+            {
+                @Override
+                public void close()
+                {
+                    deleteFile(file);
+                }
+            });
+        }
+
+        try
+        {
+            Files.copy(body, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
+        catch(IOException e)
+        {
+            logger.error("Unable to read the request body.", e);
+            deleteFile(file);
+            throw new WebApplicationException(e);
+        }
+
+        if(file.length() == 0)
+        {
+            logger.error("XML is Empty.");
+            deleteFile(file);
+            return reportOutput(new ValidationResult[]{new ValidationResult("XML is length 0.",Severity.FATAL),new ValidationResult("XML is length 0.",Severity.HMLFATAL)});
+        }
+
+        logger.debug("XML Length = " + file.length());
+
+        return new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException
+            {
+                try
+                {
+                    MiringValidator myValidator = new MiringValidator(new ParsedHml(file), new ValidationContext());
+                    myValidator.setFailFast(failFast);
+                    myValidator.setMaxResultsPerRule(maxResultsPerRule);
+                    myValidator.setMaxXPathsPerResult(maxXPathsPerResult);
+                    myValidator.validate(out);
+                }
+                catch(XMLStreamException e)
+                {
+                    logger.error("Exception while writing the MIRING report.", e);
+                    throw new WebApplicationException(e);
+                }
+                finally
+                {
+                    deleteFile(file);
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a temporary file for a request body, that only its owner can read and write.
+     *
+     * @return the new, empty file
+     * @throws IOException if the file can't be created
+     */
+    static File createTempFile() throws IOException
+    {
+        java.nio.file.Path path;
+        try
+        {
+            path = Files.createTempFile("miring", ".xml", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        catch(UnsupportedOperationException e)
+        {
+            //Not a POSIX file system.  The temporary directory belongs to the user there.
+            path = Files.createTempFile("miring", ".xml");
+        }
+        return path.toFile();
+    }
+
+    /**
+     * Delete a temporary file if it is still there, and log it if it can't be deleted.
+     *
+     * @param file the file to delete
+     */
+    private void deleteFile(File file)
+    {
+        try
+        {
+            Files.deleteIfExists(file.toPath());
+        }
+        catch(IOException e)
+        {
+            logger.error("Unable to delete temporary file " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Get a StreamingOutput for a report that only has the given results, for requests that can't be validated.
+     *
+     * @param validationResults the ValidationResult objects to report
+     * @return a StreamingOutput that writes the report
+     */
+    private StreamingOutput reportOutput(final ValidationResult[] validationResults)
+    {
+        return new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException
+            {
+                try
+                {
+                    ReportGenerator.writeReport(new ValidationContext(), validationResults, null, null, null, null, 0, out, true);
+                }
+                catch(XMLStreamException e)
+                {
+                    logger.error("Exception while writing the MIRING report.", e);
+                    throw new WebApplicationException(e);
+                }
+            }
+        };
     }
 }
@@ -0,0 +1,504 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/** 
+ * ParsedHml holds a submitted HML document for the length of one validation request.
+ * 
+ * The HmlHeader (version, namespace, hmlid, properties) is read once with a StAX parser that stops at the first sample,
+ * and it is shared by every stage.  The schema validations get their input from newInputSource(), and the schematron
+ * validation from newSource().  If a stage asks for a DOM, the document is parsed into a DOM at most once, and newSource() will reuse it.
+ * 
+ * Every parse of the document is counted, so the number of parses and the bytes parsed for a request can be reported.
+ * Lengths are always in bytes of the UTF-8 encoded text (or of the file), counted without encoding a copy of the document.
+ * 
+ * The document can also be a file, for uploads that are too big to hold in memory as a String.  Every parse then reads 
+ * the bytes of the file, and the parsers take the encoding from the xml declaration.  getXml() returns null for a file.
+*/
+public class ParsedHml
+{
+    static Logger logger = LoggerFactory.getLogger(ParsedHml.class);
+
+    String xml;
+    //The file holding the document, if it wasn't submitted as a String.
+    File file;
+    HmlHeader header;
+    Document document;
+    boolean documentParsed = false;
+    long length = -1;
+    AtomicInteger parseCount = new AtomicInteger();
+    AtomicLong bytesParsed = new AtomicLong();
+
+    /**
+     * Constructor for a ParsedHml object
+     *
+     * @param xml a String containing the xml text
+     */
+    public ParsedHml(String xml)
+    {
+        this.xml = xml;
+    }
+
+    /**
+     * Constructor for a ParsedHml object for a document in a file.  The file is read for every parse, 
+     * so it should stay in place until the validation is done.
+     *
+     * @param file the file containing the xml
+     */
+    public ParsedHml(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Is there no document at all?
+     *
+     * @return true if the xml text is null or empty, or the file is empty
+     */
+    public boolean isEmpty()
+    {
+        return (file != null) ? getLength() == 0 : (xml == null || xml.length() == 0);
+    }
+
+    public String getXml()
+    {
+        return xml;
+    }
+
+    /**
+     * Get the header of the document.  It is read the first time this is called, up to the first sample node.
+     *
+     * @return the HmlHeader of the document
+     */
+    public synchronized HmlHeader getHeader()
+    {
+        if(header == null && file != null)
+        {
+            parseCount.incrementAndGet();
+            InputStream in = null;
+            try
+            {
+                //Count only the bytes the header reader actually pulled from the file.
+                in = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+                header = HmlHeaderReader.read(in);
+            }
+            catch(IOException e)
+            {
+                logger.error("Unable to read the HML file", e);
+                header = new HmlHeader("1.0.1", null, null, null, null);
+            }
+            finally
+            {
+                close(in);
+            }
+        }
+        else if(header == null)
+        {
+            parseCount.incrementAndGet();
+            //Count only the characters the header reader actually pulled from the document.
+            header = HmlHeaderReader.read(new CountingReader(new StringReader(xml)));
+        }
+        return header;
+    }
+
+    /**
+     * Get the DOM of the document.  The document is parsed the first time this is called.
+     *
+     * @return a namespace aware Document, or null if the xml could not be parsed.
+     */
+    public synchronized Document getDocument()
+    {
+        if(!documentParsed)
+        {
+            documentParsed = true;
+            try
+            {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                DocumentBuilder builder = factory.newDocumentBuilder();
+                document = builder.parse(newInputSource());
+            }
+            catch(Exception e)
+            {
+                logger.error("Exception while parsing the HML document", e);
+                document = null;
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Get a new InputSource to read the document text.  Each InputSource is counted as a parse of the document,
+     * and the bytes the parser reads from it are counted as bytes parsed.
+     *
+     * @return an InputSource for the xml text
+     */
+    public InputSource newInputSource()
+    {
+        recordParse();
+        if(file != null)
+        {
+            //The parser closes the stream at the end of the parse.
+            try
+            {
+                InputSource source = new InputSource(new CountingInputStream(new BufferedInputStream(new FileInputStream(file))));
+                source.setSystemId(file.toURI().toString());
+                return source;
+            }
+            catch(IOException e)
+            {
+                logger.error("Unable to read the HML file", e);
+                return new InputSource(new StringReader(""));
+            }
+        }
+        return new InputSource(new CountingReader(new StringReader(xml)));
+    }
+
+    /**
+     * Get a Source to transform the document.  If the document has already been parsed into a DOM, the DOM is used, otherwise the document text is read again.
+     *
+     * @return a Source for the document
+     */
+    public Source newSource()
+    {
+        Document parsedDocument;
+        synchronized(this)
+        {
+            parsedDocument = document;
+        }
+        if(parsedDocument != null)
+        {
+            return new DOMSource(parsedDocument);
+        }
+        recordParse();
+        if(file != null)
+        {
+            //The parser closes the stream at the end of the parse.
+            try
+            {
+                return new StreamSource(new CountingInputStream(new BufferedInputStream(new FileInputStream(file))), file.toURI().toString());
+            }
+            catch(IOException e)
+            {
+                logger.error("Unable to read the HML file", e);
+                return new StreamSource(new StringReader(""));
+            }
+        }
+        return new StreamSource(new CountingReader(new StringReader(xml)));
+    }
+
+    /**
+     * Get the length of the document in bytes, encoded as UTF-8, or the length of the file.
+     *
+     * @return the document length in bytes
+     */
+    public synchronized long getLength()
+    {
+        if(length < 0)
+        {
+            length = (file != null) ? file.length() : (xml == null) ? 0 : utf8Length(xml);
+        }
+        return length;
+    }
+
+    /**
+     * Get the number of times the document text has been parsed.
+     *
+     * @return the parse count
+     */
+    public int getParseCount()
+    {
+        return parseCount.get();
+    }
+
+    /**
+     * Get the total number of bytes read by all of the parses of the document.  A parse that stops early, 
+     * such as a fail fast validation or a document that isn't well formed, only counts the bytes it read.
+     *
+     * @return the number of bytes parsed
+     */
+    public long getBytesParsed()
+    {
+        return bytesParsed.get();
+    }
+
+    /**
+     * Count a parse of the document that was split into partitions, which were parsed separately.
+     * It counts as one parse.  The bytes are counted by the InputSources from newPartitionSource().
+     */
+    void recordPartitionedParse()
+    {
+        parseCount.incrementAndGet();
+    }
+
+    /**
+     * Get an InputSource for one partition of the document, that counts what is read from it as bytes parsed.
+     * The partition of a document in a file is read from the pieces of the file, with the line breaks that stand in 
+     * for the samples of the other partitions in between.
+     *
+     * @param partition a partition of this document from SamplePartitioner
+     * @return an InputSource for the partition
+     * @throws IOException if the file can't be read
+     */
+    InputSource newPartitionSource(SamplePartitioner.Partition partition) throws IOException
+    {
+        if(partition.xml != null)
+        {
+            return new InputSource(new CountingReader(new StringReader(partition.xml)));
+        }
+        //The stand in text is only line breaks and spaces, which are the same bytes in every encoding the partitioner splits.
+        InputStream pieces = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+            openRange(0, partition.headerEnd), 
+            new ByteArrayInputStream(partition.leadingBreaks.getBytes(StandardCharsets.US_ASCII)), 
+            openRange(partition.start, partition.end), 
+            new ByteArrayInputStream(partition.trailingBreaks.getBytes(StandardCharsets.US_ASCII)), 
+            openRange(partition.trailerStart, getLength()))));
+        InputSource source = new InputSource(new CountingInputStream(new BufferedInputStream(pieces)));
+        source.setSystemId(file.toURI().toString());
+        return source;
+    }
+
+    /**
+     * Open a stream that reads part of the file.
+     *
+     * @param start the position of the first byte
+     * @param end the position after the last byte
+     * @return an InputStream for the bytes from start to end
+     * @throws IOException if the file can't be read
+     */
+    private InputStream openRange(long start, long end) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        in.getChannel().position(start);
+        return new RangeInputStream(in, end - start);
+    }
+
+    /**
+     * Get the length of some text encoded as UTF-8, without encoding it.
+     *
+     * @param text the text
+     * @return the number of bytes
+     */
+    static long utf8Length(CharSequence text)
+    {
+        long length = 0;
+        for(int i = 0; i < text.length(); i++)
+        {
+            length += utf8Length(text.charAt(i));
+        }
+        return length;
+    }
+
+    /**
+     * Get the number of UTF-8 bytes for one UTF-16 character.  Each half of a surrogate pair counts 2, for the 4 bytes of the pair.
+     *
+     * @param c the character
+     * @return the number of bytes
+     */
+    static int utf8Length(char c)
+    {
+        if(c < 0x80)
+        {
+            return 1;
+        }
+        else if(c < 0x800 || Character.isSurrogate(c))
+        {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static void close(InputStream in)
+    {
+        if(in != null)
+        {
+            try
+            {
+                in.close();
+            }
+            catch(IOException e)
+            {
+                logger.debug("Unable to close the HML file: " + e.getMessage());
+            }
+        }
+    }
+
+    private void recordParse()
+    {
+        parseCount.incrementAndGet();
+    }
+
+    /**
+     * A Reader that adds the UTF-8 length of the characters read through it to the bytes parsed.
+     */
+    private class CountingReader extends FilterReader
+    {
+        CountingReader(Reader in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int c = super.read();
+            if(c >= 0)
+            {
+                bytesParsed.addAndGet(utf8Length((char)c));
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException
+        {
+            int count = super.read(buffer, offset, length);
+            long bytes = 0;
+            for(int i = offset; i < offset + count; i++)
+            {
+                bytes += utf8Length(buffer[i]);
+            }
+            bytesParsed.addAndGet(bytes);
+            return count;
+        }
+    }
+
+    /**
+     * An InputStream that stops after a number of bytes.
+     */
+    private static class RangeInputStream extends FilterInputStream
+    {
+        long remaining;
+
+        RangeInputStream(InputStream in, long length)
+        {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if(remaining <= 0)
+            {
+                return -1;
+            }
+            int b = super.read();
+            if(b >= 0)
+            {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if(remaining <= 0)
+            {
+                return -1;
+            }
+            int count = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if(count > 0)
+            {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+
+    /**
+     * An InputStream that adds the bytes read through it to the bytes parsed.
+     */
+    private class CountingInputStream extends FilterInputStream
+    {
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if(b >= 0)
+            {
+                bytesParsed.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int count = super.read(buffer, offset, length);
+            if(count > 0)
+            {
+                bytesParsed.addAndGet(count);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLFilter;
+
+/** 
+ * ProbatronEngine is a long lived holder for the Probatron classes used by SchematronValidator.
+ * 
+ * The probatron jar is opened by a single class loader, and the Probatron constructors and methods we need are resolved once, as MethodHandles.
+ * 
+ * Probatron's SchematronSchema.validateCandidate() turns the schematron schema into XSLT (include expansion, abstract pattern expansion,
+ * and the ISO svrl skeleton) and compiles that XSLT every time it is called.  The engine performs the same steps, using Probatron's own
+ * classes and stylesheets, but only once per schema.  The compiled XSLT is kept as a Templates object, which is thread safe, 
+ * and each validation only runs the transform and wraps the output in an org.probatron.ValidationReport.
+*/
+public class ProbatronEngine
+{
+    static Logger logger = LoggerFactory.getLogger(ProbatronEngine.class);
+
+    static String jarFileName = "/org/nmdp/miring/jar/probatron.jar";
+
+    private static ProbatronEngine instance;
+
+    ClassLoader probatronClasses;
+    //() -> javax.xml.transform.TransformerFactory
+    MethodHandle getTransformerFactory;
+    //() -> org.probatron.JarUriResolver
+    MethodHandle newJarUriResolver;
+    //(URL, boolean) -> org.probatron.IncludingFilter
+    MethodHandle newIncludingFilter;
+    //(Writer) -> com.megginson.sax.XMLWriter
+    MethodHandle newXmlWriter;
+    //(byte[]) -> org.probatron.ValidationReport
+    MethodHandle newValidationReport;
+    //(ValidationReport, OutputStream) -> void
+    MethodHandle streamOut;
+    //(ValidationReport) -> byte[]
+    MethodHandle reportAsBytes;
+
+    Map<String, Templates> compiledSchemas = new ConcurrentHashMap<String, Templates>();
+
+    /**
+     * Get the shared ProbatronEngine.  The probatron jar is loaded the first time this is called.
+     *
+     * @return the ProbatronEngine
+     * @throws Exception if the probatron jar can not be loaded
+     */
+    public static synchronized ProbatronEngine getInstance() throws Exception
+    {
+        if(instance == null)
+        {
+            instance = new ProbatronEngine();
+        }
+        return instance;
+    }
+
+    private ProbatronEngine() throws Exception
+    {
+        logger.debug("Opening jar file: " + jarFileName);
+        probatronClasses = Utilities.loadJarElements(getJarFile());
+        if(probatronClasses == null)
+        {
+            throw new Exception("Could not load the probatron jar " + jarFileName);
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> utilsClass = probatronClasses.loadClass("org.probatron.Utils");
+        Class<?> jarUriResolverClass = probatronClasses.loadClass("org.probatron.JarUriResolver");
+        Class<?> includingFilterClass = probatronClasses.loadClass("org.probatron.IncludingFilter");
+        Class<?> xmlWriterClass = probatronClasses.loadClass("com.megginson.sax.XMLWriter");
+        Class<?> validationReportClass = probatronClasses.loadClass("org.probatron.ValidationReport");
+
+        getTransformerFactory = lookup.findStatic(utilsClass, "getTransformerFactory", MethodType.methodType(TransformerFactory.class));
+        newJarUriResolver = lookup.findConstructor(jarUriResolverClass, MethodType.methodType(void.class));
+        newIncludingFilter = lookup.findConstructor(includingFilterClass, MethodType.methodType(void.class, URL.class, boolean.class));
+        newXmlWriter = lookup.findConstructor(xmlWriterClass, MethodType.methodType(void.class, Writer.class));
+        newValidationReport = lookup.findConstructor(validationReportClass, MethodType.methodType(void.class, byte[].class));
+        streamOut = lookup.findVirtual(validationReportClass, "streamOut", MethodType.methodType(void.class, OutputStream.class));
+        reportAsBytes = lookup.findVirtual(validationReportClass, "reportAsBytes", MethodType.methodType(byte[].class));
+    }
+
+    /**
+     * URLClassLoader can only open a jar that is a file.  If the application is running from a packed archive,
+     * copy the probatron jar to a temporary file first.
+     *
+     * @return the probatron jar File
+     * @throws Exception if the jar can not be found or copied
+     */
+    private static File getJarFile() throws Exception
+    {
+        URL jarURL = ProbatronEngine.class.getResource(jarFileName);
+        if(jarURL == null)
+        {
+            throw new Exception("Could not find the probatron jar " + jarFileName);
+        }
+        if("file".equals(jarURL.getProtocol()))
+        {
+            return new File(jarURL.toURI());
+        }
+
+        File tempJar = File.createTempFile("probatron", ".jar");
+        tempJar.deleteOnExit();
+        InputStream jarStream = jarURL.openStream();
+        try
+        {
+            Files.copy(jarStream, tempJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            jarStream.close();
+        }
+        logger.debug("Copied probatron jar to " + tempJar);
+        return tempJar;
+    }
+
+    /**
+     * Get the compiled XSLT for a schematron schema.  The schema is compiled the first time it is requested.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @return a Templates object containing the compiled schema
+     * @throws Exception if the schema can not be compiled
+     */
+    public Templates getCompiledSchema(String schemaFileName) throws Exception
+    {
+        Templates compiledSchema = compiledSchemas.get(schemaFileName);
+        if(compiledSchema == null)
+        {
+            synchronized(this)
+            {
+                compiledSchema = compiledSchemas.get(schemaFileName);
+                if(compiledSchema == null)
+                {
+                    compiledSchema = compileSchema(schemaFileName);
+                    compiledSchemas.put(schemaFileName, compiledSchema);
+                }
+            }
+        }
+        return compiledSchema;
+    }
+
+    /**
+     * Validate a candidate document against a schematron schema.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @param candidate an InputStream containing the xml to validate
+     * @return an org.probatron.ValidationReport object
+     * @throws Exception if the validation fails
+     */
+    public Object validate(String schemaFileName, InputStream candidate) throws Exception
+    {
+        return validate(schemaFileName, new StreamSource(candidate));
+    }
+
+    /**
+     * Validate a candidate document against a schematron schema.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @param candidate a Source for the xml to validate, such as a DOMSource of an already parsed document
+     * @return an org.probatron.ValidationReport object
+     * @throws Exception if the validation fails
+     */
+    public Object validate(String schemaFileName, Source candidate) throws Exception
+    {
+        Transformer transformer = getCompiledSchema(schemaFileName).newTransformer();
+        ByteArrayOutputStream svrl = new ByteArrayOutputStream();
+        transformer.transform(candidate, new StreamResult(svrl));
+        try
+        {
+            return newValidationReport.invoke(svrl.toByteArray());
+        }
+        catch(Throwable t)
+        {
+            throw new Exception("Could not create a ValidationReport", t);
+        }
+    }
+
+    /**
+     * Validate a candidate document against a schematron schema, and send the svrl report straight to a ContentHandler as SAX events.
+     * The report is never serialized, so no ValidationReport is created.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @param candidate a Source for the xml to validate, such as a DOMSource of an already parsed document
+     * @param svrlHandler the ContentHandler that receives the svrl report
+     * @throws Exception if the validation fails
+     */
+    public void validate(String schemaFileName, Source candidate, ContentHandler svrlHandler) throws Exception
+    {
+        Transformer transformer = getCompiledSchema(schemaFileName).newTransformer();
+        transformer.transform(candidate, new SAXResult(svrlHandler));
+    }
+
+    /**
+     * Write an org.probatron.ValidationReport to an OutputStream
+     *
+     * @param validationReport an org.probatron.ValidationReport object
+     * @param out the OutputStream to write the svrl report to
+     * @throws Exception if the report can not be written
+     */
+    public void streamOut(Object validationReport, OutputStream out) throws Exception
+    {
+        try
+        {
+            streamOut.invoke(validationReport, out);
+        }
+        catch(Throwable t)
+        {
+            throw new Exception("Could not stream out the ValidationReport", t);
+        }
+    }
+
+    /**
+     * Get the svrl bytes of an org.probatron.ValidationReport
+     *
+     * @param validationReport an org.probatron.ValidationReport object
+     * @return a byte array containing the svrl report
+     * @throws Exception if the report can not be read
+     */
+    public byte[] reportAsBytes(Object validationReport) throws Exception
+    {
+        try
+        {
+            return (byte[]) reportAsBytes.invoke(validationReport);
+        }
+        catch(Throwable t)
+        {
+            throw new Exception("Could not read the ValidationReport", t);
+        }
+    }
+
+    /**
+     * Compile a schematron schema to XSLT.  These are the same steps as Probatron's SchematronSchema.validateCandidate(),
+     * up to the point where the candidate is transformed.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @return a Templates object containing the compiled schema
+     * @throws Exception if the schema can not be compiled
+     */
+    private Templates compileSchema(String schemaFileName) throws Exception
+    {
+        logger.debug("Compiling schematron schema " + schemaFileName);
+        URL schemaURL = ProbatronEngine.class.getResource(schemaFileName);
+        if(schemaURL == null)
+        {
+            throw new Exception("Could not find the schematron schema " + schemaFileName);
+        }
+
+        try
+        {
+            URIResolver resolver = (URIResolver) newJarUriResolver.invoke();
+            TransformerFactory factory = (TransformerFactory) getTransformerFactory.invoke();
+            factory.setURIResolver(resolver);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            //Expand the includes
+            XMLFilter includingFilter = (XMLFilter) newIncludingFilter.invoke(schemaURL, true);
+            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+            parserFactory.setNamespaceAware(true);
+            includingFilter.setParent(parserFactory.newSAXParser().getXMLReader());
+            includingFilter.setContentHandler((ContentHandler) newXmlWriter.invoke((Writer) new OutputStreamWriter(out)));
+            InputStream schemaStream = schemaURL.openStream();
+            try
+            {
+                includingFilter.parse(new InputSource(schemaStream));
+            }
+            finally
+            {
+                schemaStream.close();
+            }
+            byte[] schema = out.toByteArray();
+            out.reset();
+
+            //Expand the abstract patterns
+            Transformer transformer = factory.newTransformer(resolver.resolve("iso_abstract_expand.xsl", null));
+            transformer.transform(new StreamSource(new ByteArrayInputStream(schema)), new StreamResult(out));
+            schema = out.toByteArray();
+            out.reset();
+
+            //Turn the schematron into XSLT
+            transformer = factory.newTransformer(resolver.resolve("iso_svrl_for_xslt2.xsl", null));
+            transformer.setParameter("full-path-notation", "4");
+            transformer.transform(new StreamSource(new ByteArrayInputStream(schema)), new StreamResult(out));
+
+            //Compile the XSLT
+            return ((TransformerFactory) getTransformerFactory.invoke()).newTemplates(new StreamSource(new ByteArrayInputStream(out.toByteArray())));
+        }
+        catch(Exception e)
+        {
+            throw e;
+        }
+        catch(Throwable t)
+        {
+            throw new Exception("Could not compile schematron schema " + schemaFileName, t);
+        }
+    }
+}
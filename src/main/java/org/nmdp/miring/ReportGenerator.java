@@ -21,9 +21,9 @@
 
 */
 package org.nmdp.miring;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -32,17 +32,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 /** 
  * This class is used to generate an XML results report, based on the results of a MIRING Validation.
@@ -50,12 +47,11 @@ import org.w3c.dom.Element;
 public class ReportGenerator
 {
     static Logger logger = LoggerFactory.getLogger(ReportGenerator.class);
-    
-    public static DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
-    public static int hmls;
+    //XMLOutputFactory is thread safe once it is configured.
+    static XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
     
     /**
-     * Generate a Miring Results Report
+     * Generate a Miring Results Report, using a new ValidationContext
      *
      * @param validationResults an array of ValidationError objects
      * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
@@ -66,45 +62,29 @@ public class ReportGenerator
      */
     public static String generateReport(ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart)
     {
-        validationResults = assignSampleIDs(validationResults,sampleIDs);
-        validationResults = combineSimilarResults(validationResults);
-        hmls=hmlstart;
+        return generateReport(new ValidationContext(), validationResults, root, extension, properties, sampleIDs, hmlstart);
+    }
+
+    /**
+     * Generate a Miring Results Report
+     *
+     * @param context the ValidationContext of the current request
+     * @param validationResults an array of ValidationError objects
+     * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param properties a HashMap<String,String> of property values to include on the results report
+     * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where sample HML errors are searched from
+     * @return a String containing MIRING Results Report
+     */
+    public static String generateReport(ValidationContext context, ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart)
+    {
         try 
         {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-
-            //DOCUMENT
-            Document doc = docBuilder.newDocument();
-            
-            //MIRINGREPORT ROOT
-            Element rootElement = doc.createElement("miring-report");
-            String currentDate = (dateFormat.format(new Date()));
-            rootElement.setAttribute("timestamp", currentDate);
-            doc.appendChild(rootElement);
-            
-            //NAMESPACES
-            rootElement.setAttribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-            rootElement.setAttribute("xsi:noNamespaceSchemaLocation", "http://schemas.nmdp.org/spec/miringreport/1.0/miringreport.xsd");
-            
-            addHMLCompliantElement(validationResults,doc);
-            
-            addMiringCompliantElement(validationResults, doc);
-            
-            addHmlidElement(root, extension, doc);
-            
-            addSampleElements(validationResults, sampleIDs, doc);
-            
-            addPropertyElements(properties, doc);
-            
-            addValidationResultElements(validationResults, doc);
-
-            return(Utilities.getStringFromDoc(doc));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeReport(context, validationResults, root, extension, properties, sampleIDs, hmlstart, out, true);
+            return out.toString("UTF-8");
         }
-        catch (ParserConfigurationException pce) 
-        {
-            logger.error("Parser Configuration Exception in ReportGenerator", pce);
-        } 
         catch (Exception e) 
         {
             logger.error("Exception in ReportGenerator", e);
@@ -116,36 +96,86 @@ public class ReportGenerator
     }
 
     /**
-     * Add a hml-compliant element to the document.
+     * Write a Miring Results Report to an OutputStream.
+     * 
+     * The report is written with a StAX XMLStreamWriter as it is generated, so no DOM or String of the whole report is kept in memory.
+     *
+     * @param context the ValidationContext of the current request
+     * @param validationResults an array of ValidationError objects
+     * @param root the root attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param extension the extension attribute on an HMLID node on the source XML.  If it exists, you should include it in the report
+     * @param properties a HashMap<String,String> of property values to include on the results report
+     * @param sampleIDs an array of Sample objects to list on the report.
+     * @param hmlstart the index in validationResults where sample HML errors are searched from
+     * @param out the OutputStream to write the UTF-8 encoded report to.  It is flushed, but not closed.
+     * @param indent true to put each element on its own line, indented by its depth
+     * @throws XMLStreamException if the report can not be written
+     */
+    public static void writeReport(ValidationContext context, ValidationResult[] validationResults, String root, String extension, HashMap<String,String> properties, Sample[] sampleIDs, int hmlstart, OutputStream out, boolean indent) throws XMLStreamException
+    {
+        validationResults = assignSampleIDs(validationResults,sampleIDs);
+        validationResults = combineSimilarResults(validationResults, context.getMaxXPathsPerResult());
+        context.setHmlResultStart(hmlstart);
+
+        ReportWriter writer = new ReportWriter(outputFactory.createXMLStreamWriter(out, "UTF-8"), indent);
+        writer.xml.writeStartDocument("UTF-8", "1.0");
+        
+        //MIRINGREPORT ROOT
+        writer.startElement("miring-report");
+        
+        //NAMESPACES
+        writer.xml.writeNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+        String currentDate = (context.getDateFormat().format(new Date()));
+        writer.attribute("timestamp", currentDate);
+        writer.xml.writeAttribute("xsi", "http://www.w3.org/2001/XMLSchema-instance", "noNamespaceSchemaLocation", "http://schemas.nmdp.org/spec/miringreport/1.0/miringreport.xsd");
+        
+        addHMLCompliantElement(validationResults, writer);
+        
+        addMiringCompliantElement(validationResults, writer);
+        
+        addHmlidElement(root, extension, writer);
+        
+        addSampleElements(context, validationResults, sampleIDs, writer);
+        
+        addPropertyElements(properties, writer);
+        
+        addValidationResultElements(validationResults, writer);
+
+        writer.endElement();
+        writer.xml.writeEndDocument();
+        writer.newLine();
+        writer.xml.flush();
+        writer.xml.close();
+    }
+
+    /**
+     * Add a hml-compliant element to the report.
      *
      * @param validationResults an array of the validationError objects from this validation.
-     * @param doc a Document to add the element to
+     * @param writer the ReportWriter to write the element to
      */
-    private static void addHMLCompliantElement(ValidationResult[] validationResults, Document doc)
+    private static void addHMLCompliantElement(ValidationResult[] validationResults, ReportWriter writer) throws XMLStreamException
     {
 
         ValidationResult[] hmlErrors=validationResults;
-    	Element compliantElement = doc.createElement("hml-compliant");
-    	compliantElement.setTextContent(
-    	(hmlErrors == null)? "false"
-    	:(hmlErrors.length==0)?"true"
+        writer.textElement("hml-compliant",
+        (hmlErrors == null)? "false"
+        :(hmlErrors.length==0)?"true"
         :(Utilities.hasRejects(hmlErrors))?"reject"
-    	:(Utilities.isHMLCompliant(hmlErrors))?"true" 
-    	:"false"
+        :(Utilities.isHMLCompliant(hmlErrors))?"true" 
+        :"false"
         );
-        doc.getDocumentElement().appendChild(compliantElement);
     } 
     
     /**
-     * Add a miring-compliant element to the document.
+     * Add a miring-compliant element to the report.
      *
      * @param validationResults an array of the validationError objects from this validation.
-     * @param doc a Document to add the element to
+     * @param writer the ReportWriter to write the element to
      */
-    private static void addMiringCompliantElement(ValidationResult[] validationResults, Document doc)
+    private static void addMiringCompliantElement(ValidationResult[] validationResults, ReportWriter writer) throws XMLStreamException
     {
-        Element compliantElement = doc.createElement("miring-compliant");
-        compliantElement.setTextContent(
+        writer.textElement("miring-compliant",
             (validationResults == null)?"false"
             :(validationResults.length==0)?"true"
             :(Utilities.hasRejects(validationResults))?"reject"
@@ -155,126 +185,107 @@ public class ReportGenerator
             :(Utilities.hasWarnings(validationResults))?"warnings"
             :"false"
         );
-
-        doc.getDocumentElement().appendChild(compliantElement);
     }
 
     /**
-     * Add an hmlid element to the document.
+     * Add an hmlid element to the report.
      *
      * @param root the hmlid's root attribute
      * @param extension the hmlid's extension attribute
-     * @param doc a Document to add the element to
+     * @param writer the ReportWriter to write the element to
      */
-    private static void addHmlidElement(String root, String extension, Document doc)
+    private static void addHmlidElement(String root, String extension, ReportWriter writer) throws XMLStreamException
     {
-        Element hmlidElement = doc.createElement("hmlid");
-        if(root != null && root.length()>0)
+        writer.emptyElement("hmlid");
+        if(extension != null && extension.length()>0)
         {
-            hmlidElement.setAttribute("root",root);
+            writer.attribute("extension", extension);
         }
-        if(extension != null && extension.length()>0)
+        if(root != null && root.length()>0)
         {
-            hmlidElement.setAttribute("extension", extension);
+            writer.attribute("root",root);
         }
-        doc.getDocumentElement().appendChild(hmlidElement);
     }
     
     /**
-     * Add property elements to the document.
+     * Add property elements to the report.
      *
      * @param properties a HashMap containing key-value pairs of properties to include on the report
-     * @param doc a Document to add the elements to
+     * @param writer the ReportWriter to write the elements to
      */
-    private static void addPropertyElements(HashMap<String, String> properties, Document doc)
+    private static void addPropertyElements(HashMap<String, String> properties, ReportWriter writer) throws XMLStreamException
     {
         if(properties != null)
         {
-            Iterator it = properties.entrySet().iterator();
-            while (it.hasNext()) 
+            for(Map.Entry<String, String> pair : properties.entrySet())
             {
-                Map.Entry pair = (Map.Entry)it.next();
-                String name = pair.getKey().toString();
-                String value = pair.getValue().toString();
-
-                it.remove();
-                Element property = doc.createElement("property");
-
-                property.setAttribute("name", name);
-                property.setAttribute("value",value);
-                
-                doc.getDocumentElement().appendChild(property);
+                writer.emptyElement("property");
+                writer.attribute("name", pair.getKey());
+                writer.attribute("value", pair.getValue());
             }
         }
     }
 
     /**
-     * Add Sample elements to the document.
+     * Add Sample elements to the report.
      *
+     * @param context the ValidationContext of the current request
      * @param validationResults an array of ValidationResults to assign samples to
      * @param sampleIDs an array of Sample objects to include on the report
-     * @param doc a Document to add the elements to
+     * @param writer the ReportWriter to write the elements to
      */
-    private static void addSampleElements(ValidationResult[] validationResults, Sample[] sampleIDs, Document doc)
+    private static void addSampleElements(ValidationContext context, ValidationResult[] validationResults, Sample[] sampleIDs, ReportWriter writer) throws XMLStreamException
     {
         if(sampleIDs != null && sampleIDs.length > 0)
         {
             int numberSampleIDs = sampleIDs.length;
             int numberBadSamples = 0;
             int numberGoodSamples = 0;
-            Element samplesElement = doc.createElement("samples");
+            
+            //The counts are attributes on the samples element, so they are found before any sample is written.
+            boolean[] miringErrors = new boolean[sampleIDs.length];
+            boolean[] hmlErrors = new boolean[sampleIDs.length];
+            for(int i = 0; i < sampleIDs.length; i++)
+            {
+                String sampleID = sampleIDs[i].id;
+                miringErrors[i] = doesSampleHaveMiringErrors(sampleID, validationResults);
+                hmlErrors[i] = doesSampleHaveHMLErrors(sampleID, validationResults, context.getHmlResultStart());
+                //Do we need seperate variable and new setAttributes for hml? I feel like its a waste.
+                numberBadSamples += (miringErrors[i] ? 1 : 0) + (hmlErrors[i] ? 1 : 0);
+                numberGoodSamples += (miringErrors[i] ? 0 : 1) + (hmlErrors[i] ? 0 : 1);
+            }
+
+            writer.startElement("samples");
+            writer.attribute("compliant-sample-count", ("" + numberGoodSamples));
+            writer.attribute("noncompliant-sample-count", ("" + numberBadSamples));
+            writer.attribute("sample-count", ("" + numberSampleIDs));
 
             for(int i = 0; i < sampleIDs.length; i++)
             {
-                Element currentSampleElement = doc.createElement("sample");
                 String sampleID = sampleIDs[i].id;
                 String centerCode = sampleIDs[i].centerCode;
                 
-                currentSampleElement.setAttribute("id",sampleID);
+                writer.emptyElement("sample");
                 if(!(centerCode==null) && !(centerCode.isEmpty()))
                 {
-                    currentSampleElement.setAttribute("center-code",centerCode);
-                }
-                //Make one for HML? Probably
-                if(doesSampleHaveMiringErrors(sampleID, validationResults))
-                {
-                    currentSampleElement.setAttribute("miring-compliant", "false");
-                    numberBadSamples++;
-                }
-                else
-                {
-                    currentSampleElement.setAttribute("miring-compliant", "true");
-                    numberGoodSamples++;
-                }
-                if(doesSampleHaveHMLErrors(sampleID, validationResults))
-                {
-                	currentSampleElement.setAttribute("hml-compliant", "false");
-                	numberBadSamples++;//Do we need seperate variable and new setAttributes for hml? I feel like its a waste.
-                }
-                else
-                {
-                	currentSampleElement.setAttribute("hml-compliant", "true");
-                	numberGoodSamples++;//do we need?
+                    writer.attribute("center-code",centerCode);
                 }
-
-                samplesElement.appendChild(currentSampleElement);
+                writer.attribute("hml-compliant", hmlErrors[i] ? "false" : "true");
+                writer.attribute("id",sampleID);
+                writer.attribute("miring-compliant", miringErrors[i] ? "false" : "true");
             }
             
-            samplesElement.setAttribute("sample-count", ("" + numberSampleIDs));
-            samplesElement.setAttribute("noncompliant-sample-count", ("" + numberBadSamples));
-            samplesElement.setAttribute("compliant-sample-count", ("" + numberGoodSamples));
-            
-            doc.getDocumentElement().appendChild(samplesElement);
+            writer.endElement();
         }
     }
 
     /**
-     * Add ValidationResult elements to the document.
+     * Add ValidationResult elements to the report.
      *
      * @param validationResults an array of ValidationResult objects to include on the report
-     * @param doc a Document to add the elements to
+     * @param writer the ReportWriter to write the elements to
      */
-    private static void addValidationResultElements(ValidationResult[] validationResults, Document doc)
+    private static void addValidationResultElements(ValidationResult[] validationResults, ReportWriter writer) throws XMLStreamException
     {
         ValidationResult[] fatalErrors = getResultsBySeverity(validationResults,Severity.FATAL);
         ValidationResult[] miringErrors = getResultsBySeverity(validationResults,Severity.MIRING);
@@ -284,71 +295,52 @@ public class ReportGenerator
         ValidationResult[] hmlFatal = getResultsBySeverity(validationResults,Severity.HMLFATAL);
         ValidationResult[] hmlWarnings = getResultsBySeverity(validationResults,Severity.HMLWARNING);
 
-        if(fatalErrors != null && fatalErrors.length > 0)
-        {
-            Element fatalErrorsElement = doc.createElement("fatal-validation-errors");
-            for(int i = 0; i < fatalErrors.length; i++)
-            {
-                fatalErrorsElement.appendChild(generateMiringResultElement(doc, fatalErrors[i]));
-            }
-            doc.getDocumentElement().appendChild(fatalErrorsElement);
-        }
-        if(miringErrors != null && miringErrors.length > 0)
-        {
-            Element miringErrorsElement = doc.createElement("miring-validation-errors");
-            for(int i = 0; i < miringErrors.length; i++)
-            {
-                miringErrorsElement.appendChild(generateMiringResultElement(doc, miringErrors[i]));
-            }
-            doc.getDocumentElement().appendChild(miringErrorsElement);
-        }
-        if(warnings != null && warnings.length > 0)
-        {
-            Element warningsElement = doc.createElement("validation-warnings");
-            for(int i = 0; i < warnings.length; i++)
-            {
-                warningsElement.appendChild(generateMiringResultElement(doc, warnings[i]));
-            }
-            doc.getDocumentElement().appendChild(warningsElement);
-        }
-        if(info != null && info.length > 0)
-        {
-            Element infoElement = doc.createElement("validation-info");
-            for(int i = 0; i < info.length; i++)
-            {
-                infoElement.appendChild(generateMiringResultElement(doc, info[i]));
-            }
-            doc.getDocumentElement().appendChild(infoElement);
-        }
-        if(hmlFatal != null && hmlFatal.length > 0)
-        {
-            Element hmlFatalElement = doc.createElement("fatal-hml-schema-validation-errors");
-            
-            for(int i = 0; i < hmlFatal.length; i++)
-            {
-                hmlFatalElement.appendChild(generateHMLResultElement(doc, hmlFatal[i]));
-            }
-            doc.getDocumentElement().appendChild(hmlFatalElement);
-        }
-        if(hmlErrors != null && hmlErrors.length > 0)
+        addMiringResultElements("fatal-validation-errors", fatalErrors, writer);
+        addMiringResultElements("miring-validation-errors", miringErrors, writer);
+        addMiringResultElements("validation-warnings", warnings, writer);
+        addMiringResultElements("validation-info", info, writer);
+        addHMLResultElements("fatal-hml-schema-validation-errors", hmlFatal, writer);
+        addHMLResultElements("hml-schema-validation-errors", hmlErrors, writer);
+        addHMLResultElements("hml-schema-validation-warnings", hmlWarnings, writer);
+    }
+
+    /**
+     * Add a section of miring-result elements to the report, if there are any results.
+     *
+     * @param sectionName the name of the element that holds the results
+     * @param results the ValidationResult objects to include in the section
+     * @param writer the ReportWriter to write the elements to
+     */
+    private static void addMiringResultElements(String sectionName, ValidationResult[] results, ReportWriter writer) throws XMLStreamException
+    {
+        if(results != null && results.length > 0)
         {
-            Element hmlErrorsElement = doc.createElement("hml-schema-validation-errors");
-            
-            for(int i = 0; i < hmlErrors.length; i++)
+            writer.startElement(sectionName);
+            for(int i = 0; i < results.length; i++)
             {
-                hmlErrorsElement.appendChild(generateHMLResultElement(doc, hmlErrors[i]));
+                generateMiringResultElement(writer, results[i]);
             }
-            doc.getDocumentElement().appendChild(hmlErrorsElement);
+            writer.endElement();
         }
-        if(hmlWarnings != null && hmlWarnings.length > 0)
+    }
+
+    /**
+     * Add a section of hml-result elements to the report, if there are any results.
+     *
+     * @param sectionName the name of the element that holds the results
+     * @param results the ValidationResult objects to include in the section
+     * @param writer the ReportWriter to write the elements to
+     */
+    private static void addHMLResultElements(String sectionName, ValidationResult[] results, ReportWriter writer) throws XMLStreamException
+    {
+        if(results != null && results.length > 0)
         {
-            Element hmlWarningsElement = doc.createElement("hml-schema-validation-warnings");
-            
-            for(int i = 0; i < hmlErrors.length; i++)
+            writer.startElement(sectionName);
+            for(int i = 0; i < results.length; i++)
             {
-                hmlWarningsElement.appendChild(generateHMLResultElement(doc, hmlWarnings[i]));
+                generateHMLResultElement(writer, results[i]);
             }
-            doc.getDocumentElement().appendChild(hmlWarningsElement);
+            writer.endElement();
         }
     }
     
@@ -380,11 +372,11 @@ public class ReportGenerator
         }
         return false;
     }
-    private static boolean doesSampleHaveHMLErrors(String sampleID, ValidationResult[] validationResults)
+    private static boolean doesSampleHaveHMLErrors(String sampleID, ValidationResult[] validationResults, int hmlStart)
     {
         if(validationResults != null && validationResults.length > 0)
         {
-            for(int i = hmls; i < validationResults.length; i++)
+            for(int i = hmlStart; i < validationResults.length; i++)
             {
                 ValidationResult tempResult = validationResults[i];
                 String currentSampleID = tempResult.getSampleID();
@@ -474,10 +466,12 @@ public class ReportGenerator
 
     /**
      * Combine similar results.  They are considered similar if they have the same error text.  The results are combined, with multiple xpaths.
+     * Each result keeps at most maxXPaths xpaths, the rest are counted as omitted occurrences.
      *
      * @param validationResults an array of ValidationResult objects to combine
+     * @param maxXPaths the most xpaths on one result, or 0 for no limit
      */
-    private static ValidationResult[] combineSimilarResults(ValidationResult[] validationResults)
+    private static ValidationResult[] combineSimilarResults(ValidationResult[] validationResults, int maxXPaths)
     {
         List<ValidationResult> newResultList = new ArrayList<ValidationResult>();
         try{
@@ -499,9 +493,17 @@ public class ReportGenerator
                     {
                         if(!newResult.xPaths.contains(xPath))
                         {
-                            newResult.addXPath(xPath);
+                            if(maxXPaths > 0 && newResult.xPaths.size() >= maxXPaths)
+                            {
+                                newResult.addOmittedOccurrences(1);
+                            }
+                            else
+                            {
+                                newResult.addXPath(xPath);
+                            }
                         }
                     }
+                    newResult.addOmittedOccurrences(oldResult.getOmittedOccurrences());
                     Collections.sort(newResult.xPaths);
                 }
             }
@@ -518,104 +520,120 @@ public class ReportGenerator
             newResults[i]=newResultList.get(i);
         }
         
-        return newResults;
+        return limitXPaths(newResults, maxXPaths);
         }
         catch(Exception e)
         {
             logger.error("Can not combine similar results due to some unknown reason "+ e);
-            return validationResults;
+            return limitXPaths(validationResults, maxXPaths);
+        }
+    }
+
+    /**
+     * Leave out the xpaths past maxXPaths on each result, and count them as omitted occurrences.
+     *
+     * @param validationResults an array of ValidationResult objects
+     * @param maxXPaths the most xpaths on one result, or 0 for no limit
+     * @return the same array
+     */
+    private static ValidationResult[] limitXPaths(ValidationResult[] validationResults, int maxXPaths)
+    {
+        for(int i = 0; maxXPaths > 0 && i < validationResults.length; i++)
+        {
+            List<String> xPaths = validationResults[i].getXPaths();
+            if(xPaths != null && xPaths.size() > maxXPaths)
+            {
+                validationResults[i].addOmittedOccurrences(xPaths.size() - maxXPaths);
+                xPaths.subList(maxXPaths, xPaths.size()).clear();
+            }
         }
+        return validationResults;
     }
     
     /**
-     * Generate a single miring-result element
+     * Write a single miring-result element
      *
-     * @param doc the original document to add to
+     * @param writer the ReportWriter to write the element to
      * @param validationResult an object containing the result information
      */
-    private static Element generateMiringResultElement(Document doc, ValidationResult validationResult)
+    private static void generateMiringResultElement(ReportWriter writer, ValidationResult validationResult) throws XMLStreamException
     {
         //Change a validation error into an XML Node to put in our report.
-        Element invMiringElement = doc.createElement("miring-result");
+        writer.startElement("miring-result");
         
         //miringElementID
-        Attr miringElementAttr = doc.createAttribute("miring-rule-id");
-        miringElementAttr.setValue(validationResult.getMiringRule());
-        invMiringElement.setAttributeNode(miringElementAttr);
-        
-        //severity
-        Attr fatalAttr = doc.createAttribute("severity");
-        fatalAttr.setValue(validationResult.getSeverity()==Severity.FATAL?"fatal":
-            validationResult.getSeverity()==Severity.MIRING?"miring":
-            validationResult.getSeverity()==Severity.WARNING?"warning":
-            validationResult.getSeverity()==Severity.INFO?"info":
-                "?");
-        invMiringElement.setAttributeNode(fatalAttr);
+        writer.attribute("miring-rule-id", validationResult.getMiringRule());
         
         //sampleID
-        Attr sampleIDAttr = doc.createAttribute("sample-id");
         if(validationResult.getSampleID() != null && validationResult.getSampleID().length() > 0)
         {
-            sampleIDAttr.setValue(validationResult.getSampleID());
-            invMiringElement.setAttributeNode(sampleIDAttr);
+            writer.attribute("sample-id", validationResult.getSampleID());
         }
         
-        //description
-        Element descriptionElement = doc.createElement("description");
-        descriptionElement.appendChild(doc.createTextNode(validationResult.getErrorText()));
-        invMiringElement.appendChild(descriptionElement);
-        
-        //solution
-        Element solutionElement = doc.createElement("solution");
-        solutionElement.appendChild(doc.createTextNode(validationResult.getSolutionText()));
-        invMiringElement.appendChild(solutionElement);
-        
-        //xPath
-        if(validationResult.getXPaths() != null && validationResult.getXPaths().size() > 0)
+        //severity
+        writer.attribute("severity", validationResult.getSeverity()==Severity.FATAL?"fatal":
+            validationResult.getSeverity()==Severity.MIRING?"miring":
+            validationResult.getSeverity()==Severity.WARNING?"warning":
+            validationResult.getSeverity()==Severity.INFO?"info":
+                "?");
+
+        //omitted occurrences
+        if(validationResult.getOmittedOccurrences() > 0)
         {
-            List<String> xPaths = validationResult.getXPaths();
-            for(int i = 0; i < xPaths.size(); i++)
-            {
-                Element xPathElement = doc.createElement("xpath");
-                xPathElement.appendChild(doc.createTextNode(xPaths.get(i)));
-                invMiringElement.appendChild(xPathElement);
-            }
+            writer.attribute("omitted-occurrences", Integer.toString(validationResult.getOmittedOccurrences()));
         }
         
-        return invMiringElement;
+        addResultDetailElements(writer, validationResult);
+        writer.endElement();
     }
-    private static Element generateHMLResultElement(Document doc, ValidationResult validationResult)
+
+    /**
+     * Write a single hml-result element
+     *
+     * @param writer the ReportWriter to write the element to
+     * @param validationResult an object containing the result information
+     */
+    private static void generateHMLResultElement(ReportWriter writer, ValidationResult validationResult) throws XMLStreamException
     {
         //Change a validation error into an XML Node to put in our report.
-        Element invHMLElement = doc.createElement("hml-result");
+        writer.startElement("hml-result");
         
+        //sampleID
+        if(validationResult.getSampleID() != null && validationResult.getSampleID().length() > 0)
+        {
+            writer.attribute("sample-id", validationResult.getSampleID());
+        }
         
         //severity
-        Attr fatalAttr = doc.createAttribute("severity");
-        fatalAttr.setValue(validationResult.getSeverity()==Severity.HMLFATAL?"fatal":
+        writer.attribute("severity", validationResult.getSeverity()==Severity.HMLFATAL?"fatal":
             validationResult.getSeverity()==Severity.HML?"hml":
             validationResult.getSeverity()==Severity.HMLWARNING?"warning"://make hml-warning
             validationResult.getSeverity()==Severity.INFO?"info":
                 "?");
-        invHMLElement.setAttributeNode(fatalAttr);
-        
-        //sampleID
-        Attr sampleIDAttr = doc.createAttribute("sample-id");
-        if(validationResult.getSampleID() != null && validationResult.getSampleID().length() > 0)
+
+        //omitted occurrences
+        if(validationResult.getOmittedOccurrences() > 0)
         {
-            sampleIDAttr.setValue(validationResult.getSampleID());
-            invHMLElement.setAttributeNode(sampleIDAttr);
+            writer.attribute("omitted-occurrences", Integer.toString(validationResult.getOmittedOccurrences()));
         }
         
+        addResultDetailElements(writer, validationResult);
+        writer.endElement();
+    }
+
+    /**
+     * Write the description, solution and xpath elements of a result.
+     *
+     * @param writer the ReportWriter to write the elements to
+     * @param validationResult an object containing the result information
+     */
+    private static void addResultDetailElements(ReportWriter writer, ValidationResult validationResult) throws XMLStreamException
+    {
         //description
-        Element descriptionElement = doc.createElement("description");
-        descriptionElement.appendChild(doc.createTextNode(validationResult.getErrorText()));
-        invHMLElement.appendChild(descriptionElement);
+        writer.textElement("description", validationResult.getErrorText());
         
         //solution
-        Element solutionElement = doc.createElement("solution");
-        solutionElement.appendChild(doc.createTextNode(validationResult.getSolutionText()));
-        invHMLElement.appendChild(solutionElement);
+        writer.textElement("solution", validationResult.getSolutionText());
         
         //xPath
         if(validationResult.getXPaths() != null && validationResult.getXPaths().size() > 0)
@@ -623,12 +641,94 @@ public class ReportGenerator
             List<String> xPaths = validationResult.getXPaths();
             for(int i = 0; i < xPaths.size(); i++)
             {
-                Element xPathElement = doc.createElement("xpath");
-                xPathElement.appendChild(doc.createTextNode(xPaths.get(i)));
-                invHMLElement.appendChild(xPathElement);
+                writer.textElement("xpath", xPaths.get(i));
+            }
+        }
+    }
+
+    /**
+     * ReportWriter wraps an XMLStreamWriter, and adds the line breaks and indentation of the report when indent is turned on.
+     * Attributes are written after startElement or emptyElement, and null attribute values are left out.
+     */
+    static class ReportWriter
+    {
+        XMLStreamWriter xml;
+        boolean indent;
+        int depth = 0;
+        //true when the element that was just ended, or just written empty, was a child of the open element.
+        boolean hasChildElements = false;
+
+        ReportWriter(XMLStreamWriter xml, boolean indent)
+        {
+            this.xml = xml;
+            this.indent = indent;
+        }
+
+        void startElement(String name) throws XMLStreamException
+        {
+            indent();
+            xml.writeStartElement(name);
+            depth++;
+            hasChildElements = false;
+        }
+
+        void emptyElement(String name) throws XMLStreamException
+        {
+            indent();
+            xml.writeEmptyElement(name);
+            hasChildElements = true;
+        }
+
+        void textElement(String name, String text) throws XMLStreamException
+        {
+            indent();
+            xml.writeStartElement(name);
+            if(text != null)
+            {
+                xml.writeCharacters(text);
+            }
+            xml.writeEndElement();
+            hasChildElements = true;
+        }
+
+        void endElement() throws XMLStreamException
+        {
+            depth--;
+            if(hasChildElements)
+            {
+                indent();
+            }
+            xml.writeEndElement();
+            hasChildElements = true;
+        }
+
+        void attribute(String name, String value) throws XMLStreamException
+        {
+            if(value != null)
+            {
+                xml.writeAttribute(name, value);
+            }
+        }
+
+        void newLine() throws XMLStreamException
+        {
+            if(indent)
+            {
+                xml.writeCharacters("\n");
+            }
+        }
+
+        private void indent() throws XMLStreamException
+        {
+            if(indent)
+            {
+                StringBuilder whitespace = new StringBuilder("\n");
+                for(int i = 0; i < depth; i++)
+                {
+                    whitespace.append("   ");
+                }
+                xml.writeCharacters(whitespace.toString());
             }
         }
-        
-        return invHMLElement;
     }
 }
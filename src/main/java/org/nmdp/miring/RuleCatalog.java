@@ -0,0 +1,316 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+/** 
+ * RuleCatalog holds the rule templates that translate validation errors into MIRING results.
+ * 
+ * The templates (MissingNodeTemplate.xml, MissingAttributeTemplate.xml and SchematronRuleTemplate.xml) are read once,
+ * when this class is loaded, and the rules are stored in hash maps:
+ * missing node rules by node-name, missing attribute rules by node-name and attribute name, and schematron rules by error-text.
+ * Nothing in the catalog changes after it is loaded, so it is shared by every request.
+ * 
+ * When a template file lists the same key twice, the first rule wins, the same as the old linear search through the template.
+*/
+public final class RuleCatalog
+{
+    static Logger logger = LoggerFactory.getLogger(RuleCatalog.class);
+
+    static String missingNodeTemplateFileName = "/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml";
+    static String missingAttributeTemplateFileName = "/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml";
+    static String schematronRuleTemplateFileName = "/org/nmdp/miring/ruletemplates/SchematronRuleTemplate.xml";
+
+    private static final RuleCatalog instance = new RuleCatalog();
+
+    //A stand-in for "no rule matches", because ConcurrentHashMap can't hold null values.
+    private static final Rule noRule = new Rule(null, null, null, null, null, null);
+
+    private final Map<String, Rule> missingNodeRules;
+    private final Map<String, Rule> hmlMissingNodeRules;
+    private final Map<String, Rule> missingAttributeRules;
+    private final Map<String, Rule> hmlMissingAttributeRules;
+    private final Map<String, Rule> schematronRules;
+    private final List<Rule> schematronRuleList;
+    //The schematron rule found for each schematron message.  There are only as many messages as there are asserts in the schematron.
+    private final Map<String, Rule> schematronMatches = new ConcurrentHashMap<String, Rule>();
+
+    /**
+     * Get the shared RuleCatalog
+     *
+     * @return the RuleCatalog
+     */
+    public static RuleCatalog getInstance()
+    {
+        return instance;
+    }
+
+    private RuleCatalog()
+    {
+        Document missingNodeTemplates = loadTemplate(missingNodeTemplateFileName);
+        Document missingAttributeTemplates = loadTemplate(missingAttributeTemplateFileName);
+        Document schematronRuleTemplate = loadTemplate(schematronRuleTemplateFileName);
+
+        missingNodeRules = Collections.unmodifiableMap(indexRules(listRules(missingNodeTemplates, "rule", null), false, false));
+        hmlMissingNodeRules = Collections.unmodifiableMap(indexRules(listRules(missingNodeTemplates, "hml-rule", null), false, false));
+        missingAttributeRules = Collections.unmodifiableMap(indexRules(listRules(missingAttributeTemplates, "rule", "attribute-name"), false, true));
+        hmlMissingAttributeRules = Collections.unmodifiableMap(indexRules(listRules(missingAttributeTemplates, "hml-rule", "attribute"), false, true));
+        schematronRuleList = Collections.unmodifiableList(listRules(schematronRuleTemplate, "rule", null));
+        schematronRules = Collections.unmodifiableMap(indexRules(schematronRuleList, true, false));
+        logger.debug("Loaded " + missingNodeRules.size() + " missing node rules, " + missingAttributeRules.size() + " missing attribute rules and " + schematronRuleList.size() + " schematron rules.");
+    }
+
+    /**
+     * Find the MIRING rule for a missing node
+     *
+     * @param nodeName the name of the missing node
+     * @return the Rule, or null if there isn't one
+     */
+    public Rule getMissingNodeRule(String nodeName)
+    {
+        return (nodeName == null) ? null : missingNodeRules.get(nodeName);
+    }
+
+    /**
+     * Find the HML rule for a missing node
+     *
+     * @param nodeName the name of the missing node
+     * @return the Rule, or null if there isn't one
+     */
+    public Rule getHmlMissingNodeRule(String nodeName)
+    {
+        return (nodeName == null) ? null : hmlMissingNodeRules.get(nodeName);
+    }
+
+    /**
+     * Find the MIRING rule for a missing attribute
+     *
+     * @param nodeName the name of the node missing the attribute
+     * @param attributeName the name of the missing attribute
+     * @return the Rule, or null if there isn't one
+     */
+    public Rule getMissingAttributeRule(String nodeName, String attributeName)
+    {
+        return (nodeName == null || attributeName == null) ? null : missingAttributeRules.get(getKey(nodeName, attributeName));
+    }
+
+    /**
+     * Find the HML rule for a missing attribute
+     *
+     * @param nodeName the name of the node missing the attribute
+     * @param attributeName the name of the missing attribute
+     * @return the Rule, or null if there isn't one
+     */
+    public Rule getHmlMissingAttributeRule(String nodeName, String attributeName)
+    {
+        return (nodeName == null || attributeName == null) ? null : hmlMissingAttributeRules.get(getKey(nodeName, attributeName));
+    }
+
+    /**
+     * Find the rule for a schematron message.  A rule matches if the message contains the rule's error-text,
+     * which is usually the whole message, once the whitespace around it is trimmed.  The answer for each message is remembered.
+     *
+     * @param errorMessage the svrl:text of a schematron report or assert
+     * @return the Rule, or null if there isn't one
+     */
+    public Rule getSchematronRule(String errorMessage)
+    {
+        Rule rule = schematronMatches.get(errorMessage);
+        if(rule == null)
+        {
+            rule = findSchematronRule(errorMessage);
+            schematronMatches.put(errorMessage, (rule == null) ? noRule : rule);
+        }
+        return (rule == noRule) ? null : rule;
+    }
+
+    /**
+     * Get the schematron rule for an exact error-text
+     *
+     * @param errorText the error-text of the rule
+     * @return the Rule, or null if there isn't one
+     */
+    public Rule getSchematronRuleByErrorText(String errorText)
+    {
+        return (errorText == null) ? null : schematronRules.get(errorText);
+    }
+
+    private Rule findSchematronRule(String errorMessage)
+    {
+        //The first rule in the template that matches wins.
+        for(Rule rule : schematronRuleList)
+        {
+            if(errorMessage.contains(rule.getErrorText()))
+            {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static String getKey(String nodeName, String attributeName)
+    {
+        return nodeName + "@" + attributeName;
+    }
+
+    /**
+     * Index a list of rules.  The key is the node-name, or the error-text, plus the missing attribute's name for missing attribute rules.
+     */
+    private static Map<String, Rule> indexRules(List<Rule> ruleList, boolean keyOnErrorText, boolean keyOnAttributeName)
+    {
+        Map<String, Rule> rules = new HashMap<String, Rule>();
+        for(Rule rule : ruleList)
+        {
+            String key = keyOnErrorText ? rule.getErrorText() : rule.getNodeName();
+            if(key == null)
+            {
+                continue;
+            }
+            if(keyOnAttributeName)
+            {
+                String secondKey = rule.getAttributeName();
+                if(secondKey == null)
+                {
+                    continue;
+                }
+                key = getKey(key, secondKey);
+            }
+            if(!rules.containsKey(key))
+            {
+                rules.put(key, rule);
+            }
+        }
+        return rules;
+    }
+
+    private static List<Rule> listRules(Document template, String ruleTagName, String attributeNameAttribute)
+    {
+        List<Rule> rules = new ArrayList<Rule>();
+        if(template == null)
+        {
+            return rules;
+        }
+        NodeList ruleNodes = template.getElementsByTagName(ruleTagName);
+        for(int i = 0; i < ruleNodes.getLength(); i++)
+        {
+            NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
+            rules.add(new Rule(
+                Utilities.getAttribute(ruleAttributes, "node-name"),
+                (attributeNameAttribute == null) ? null : Utilities.getAttribute(ruleAttributes, attributeNameAttribute),
+                Utilities.getAttribute(ruleAttributes, "error-text"),
+                Utilities.getAttribute(ruleAttributes, "miring-rule-id"),
+                Utilities.getAttribute(ruleAttributes, "severity"),
+                Utilities.getAttribute(ruleAttributes, "solution-text")));
+        }
+        return rules;
+    }
+
+    private static Document loadTemplate(String templateFileName)
+    {
+        try
+        {
+            InputStream templateStream = RuleCatalog.class.getResourceAsStream(templateFileName);
+            try
+            {
+                return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(templateStream);
+            }
+            finally
+            {
+                templateStream.close();
+            }
+        }
+        catch(Exception e)
+        {
+            logger.error("Unable to load rule template " + templateFileName, e);
+            return null;
+        }
+    }
+
+    /** 
+     * A single rule from a rule template.  
+    */
+    public static final class Rule
+    {
+        private final String nodeName;
+        private final String attributeName;
+        private final String errorText;
+        private final String miringRuleId;
+        private final String severity;
+        private final String solutionText;
+
+        Rule(String nodeName, String attributeName, String errorText, String miringRuleId, String severity, String solutionText)
+        {
+            this.nodeName = nodeName;
+            this.attributeName = attributeName;
+            this.errorText = errorText;
+            this.miringRuleId = miringRuleId;
+            this.severity = severity;
+            this.solutionText = solutionText;
+        }
+
+        public String getNodeName()
+        {
+            return nodeName;
+        }
+
+        public String getAttributeName()
+        {
+            return attributeName;
+        }
+
+        public String getErrorText()
+        {
+            return errorText;
+        }
+
+        public String getMiringRuleId()
+        {
+            return miringRuleId;
+        }
+
+        public String getSeverity()
+        {
+            return severity;
+        }
+
+        public String getSolutionText()
+        {
+            return solutionText;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * SamplePartitioner splits an HML document at its sample nodes, so groups of samples can be validated at the same time.
+ * 
+ * Each partition is a document of its own.  It has everything in the original document except the samples of the other partitions,
+ * so the hml node, the header and the nodes after the samples are in every partition.  The samples that are left out are replaced with
+ * their line breaks, and the spaces in front of the next node, so every node in the partition is on the same line and column as 
+ * in the original document.  The schema validators put the line and column into their error text, so it comes out the same.
+ * 
+ * The document is split with a single scan of the text for the samples under the root node.  It doesn't check that the
+ * document is well formed, the parse of each partition does that.
+ * 
+ * A document in a file is scanned as bytes, a block at a time, and each partition is read back from the file in pieces 
+ * (see ParsedHml.newPartitionSource()), so the document is never held in memory.  The markup is ASCII, so this works for 
+ * UTF-8 and the other encodings that keep ASCII as single bytes.  A UTF-16 or UTF-32 file isn't split.  The columns of the 
+ * text that is left out are counted as UTF-8 characters.
+*/
+public class SamplePartitioner
+{
+    static Logger logger = LoggerFactory.getLogger(SamplePartitioner.class);
+
+    /**
+     * One partition of a document, holding one or more samples that are next to each other.
+     */
+    static class Partition
+    {
+        //The text of the partition document, if the document is a String.
+        String xml;
+        //The pieces of the partition document: the document up to headerEnd, leadingBreaks in place of the samples before 
+        //this partition, the samples from start to end, trailingBreaks in place of the samples after it, and the document from trailerStart.
+        int headerEnd;
+        String leadingBreaks;
+        int start;
+        int end;
+        String trailingBreaks;
+        int trailerStart;
+        //The index of this partition's first sample in the original document, starting at 1.
+        int firstSampleIndex;
+        int sampleCount;
+        //The nodes before the first sample are only reported from the first partition, and the nodes after the last sample from the last.
+        boolean first;
+        boolean last;
+
+        /**
+         * Decide whether a result found in this partition is a result for the whole document.  If it is, its xpaths are changed to 
+         * the index of the sample in the whole document.
+         * 
+         * Every partition finds the same results for the nodes outside of the samples.  The results found before the partition's
+         * first sample started are kept from the first partition, and the ones found after the last sample ended are kept from the last.
+         * The results for a sample are kept from the partition that holds the sample.
+         *
+         * @param index the position of the result in the partition's results
+         * @param samplesStart the number of the partition's results that were found before its first sample started
+         * @param samplesEnd the number of the partition's results that were found before its last sample ended
+         * @param xPaths the xpaths of the result.  They are changed in place.
+         * @return true if the result is kept
+         */
+        boolean keep(int index, int samplesStart, int samplesEnd, List<String> xPaths)
+        {
+            boolean sampleResult = false;
+            for(String xPath : xPaths)
+            {
+                sampleResult |= (getSampleStepStart(xPath) >= 0);
+            }
+
+            boolean keep = (index < samplesStart) ? (first || sampleResult) 
+                : (index < samplesEnd) ? true 
+                : (last || sampleResult);
+            if(keep)
+            {
+                for(int i = 0; i < xPaths.size(); i++)
+                {
+                    xPaths.set(i, rebase(xPaths.get(i)));
+                }
+            }
+            return keep;
+        }
+
+        /**
+         * Change the sample index in an xpath from its index in this partition to its index in the whole document.
+         *
+         * @param xPath an xpath like /hml[1]/sample[2]/typing[1]
+         * @return the xpath with the sample's index in the whole document, or the same xpath if it isn't in a sample
+         */
+        String rebase(String xPath)
+        {
+            int stepStart = getSampleStepStart(xPath);
+            if(stepStart < 0 || firstSampleIndex == 1)
+            {
+                return xPath;
+            }
+            int indexStart = stepStart + "/sample[".length();
+            int indexEnd = xPath.indexOf(']', indexStart);
+            int sampleIndex = Integer.parseInt(xPath.substring(indexStart, indexEnd)) + firstSampleIndex - 1;
+            return xPath.substring(0, indexStart) + sampleIndex + xPath.substring(indexEnd);
+        }
+    }
+
+    /**
+     * Find the step for a sample under the root node in an xpath.
+     *
+     * @param xPath an xpath like /hml[1]/sample[2]/typing[1]
+     * @return the position of "/sample[" in the xpath, or -1 if the xpath isn't in a sample
+     */
+    static int getSampleStepStart(String xPath)
+    {
+        if(xPath == null)
+        {
+            return -1;
+        }
+        int stepStart = xPath.indexOf('/', 1);
+        return (stepStart > 0 && xPath.startsWith("/sample[", stepStart)) ? stepStart : -1;
+    }
+
+    /**
+     * Split a document into partitions of samples.  The partitions have about the same amount of text.
+     *
+     * @param xml a String containing the xml text
+     * @param partitionCount the number of partitions wanted
+     * @return the partitions, in document order, or null if the document can't be split into more than one partition
+     */
+    static List<Partition> partition(String xml, int partitionCount)
+    {
+        List<Partition> partitions = split(xml, partitionCount);
+        if(partitions != null)
+        {
+            for(Partition partition : partitions)
+            {
+                StringBuilder text = new StringBuilder(partition.headerEnd + partition.leadingBreaks.length() + (partition.end - partition.start) 
+                    + partition.trailingBreaks.length() + (xml.length() - partition.trailerStart));
+                text.append(xml, 0, partition.headerEnd);
+                text.append(partition.leadingBreaks);
+                text.append(xml, partition.start, partition.end);
+                text.append(partition.trailingBreaks);
+                text.append(xml, partition.trailerStart, xml.length());
+                partition.xml = text.toString();
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Split a parsed document into partitions of samples.  A document in a file is scanned in the file, 
+     * and its partitions are read from the file.
+     *
+     * @param hml the ParsedHml of the document
+     * @param partitionCount the number of partitions wanted
+     * @return the partitions, in document order, or null if the document can't be split into more than one partition
+     */
+    static List<Partition> partition(ParsedHml hml, int partitionCount)
+    {
+        if(hml.file == null)
+        {
+            return partition(hml.getXml(), partitionCount);
+        }
+        if(hml.getLength() > Integer.MAX_VALUE)
+        {
+            logger.info("The HML file is too big to be split into partitions, validating the whole document");
+            return null;
+        }
+        try(FileText text = new FileText(hml.file))
+        {
+            if(!text.isAsciiCompatible())
+            {
+                logger.info("The HML file is not in an ASCII compatible encoding, so it can not be split into partitions");
+                return null;
+            }
+            return split(text, partitionCount);
+        }
+        catch(IOException | UncheckedIOException e)
+        {
+            logger.error("Unable to read the HML file to split it into partitions", e);
+            return null;
+        }
+    }
+
+    /**
+     * Find the pieces of each partition of a document.
+     *
+     * @param xml the xml text, or the bytes of a file
+     * @param partitionCount the number of partitions wanted
+     * @return the partitions, without their text, or null if the document can't be split into more than one partition
+     */
+    private static List<Partition> split(CharSequence xml, int partitionCount)
+    {
+        List<int[]> samples = findSamples(xml);
+        if(samples == null || samples.size() < 2 || partitionCount < 2)
+        {
+            return null;
+        }
+
+        int firstStart = samples.get(0)[0];
+        int lastEnd = samples.get(samples.size() - 1)[1];
+        long targetLength = ((long) lastEnd - firstStart) / partitionCount;
+
+        //Group the samples.  A partition can only end where there is nothing but whitespace before the next sample, 
+        //so no nodes are lost between the partitions.
+        List<int[]> groups = new ArrayList<int[]>();
+        int groupStart = 0;
+        for(int i = 0; i < samples.size() - 1; i++)
+        {
+            int end = samples.get(i)[1];
+            int nextStart = samples.get(i + 1)[0];
+            if(end - samples.get(groupStart)[0] >= targetLength && isWhitespace(xml, end, nextStart))
+            {
+                groups.add(new int[] {groupStart, i});
+                groupStart = i + 1;
+            }
+        }
+        groups.add(new int[] {groupStart, samples.size() - 1});
+        if(groups.size() < 2)
+        {
+            return null;
+        }
+
+        List<Partition> partitions = new ArrayList<Partition>();
+        for(int[] group : groups)
+        {
+            Partition partition = new Partition();
+            partition.headerEnd = firstStart;
+            partition.start = samples.get(group[0])[0];
+            partition.end = samples.get(group[1])[1];
+            partition.trailerStart = lastEnd;
+            partition.leadingBreaks = getLineBreaks(xml, firstStart, partition.start);
+            partition.trailingBreaks = getLineBreaks(xml, partition.end, lastEnd);
+            partition.firstSampleIndex = group[0] + 1;
+            partition.sampleCount = group[1] - group[0] + 1;
+            partition.first = (partitions.isEmpty());
+            partitions.add(partition);
+        }
+        partitions.get(partitions.size() - 1).last = true;
+        logger.debug("Split " + samples.size() + " samples into " + partitions.size() + " partitions");
+        return partitions;
+    }
+
+    /**
+     * Stand in for text that is left out of a partition.  The line breaks are kept, and the characters after the last line break 
+     * become spaces, so the text after it starts on the same line and column.  In the bytes of a file, 
+     * the continuation bytes of a UTF-8 character aren't counted.
+     */
+    private static String getLineBreaks(CharSequence xml, int start, int end)
+    {
+        StringBuilder text = new StringBuilder();
+        boolean bytes = (xml instanceof FileText);
+        int spaces = 0;
+        for(int i = start; i < end; i++)
+        {
+            char c = xml.charAt(i);
+            if(c == '\n' || c == '\r')
+            {
+                text.append(c);
+                spaces = 0;
+            }
+            else if(!bytes || (c & 0xC0) != 0x80)
+            {
+                spaces++;
+            }
+        }
+        for(int i = 0; i < spaces; i++)
+        {
+            text.append(' ');
+        }
+        return text.toString();
+    }
+
+    private static boolean isWhitespace(CharSequence xml, int start, int end)
+    {
+        for(int i = start; i < end; i++)
+        {
+            char c = xml.charAt(i);
+            if(c != ' ' && c != '\t' && c != '\n' && c != '\r')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the sample nodes under the root node.  Comments, CDATA sections, processing instructions and quoted attribute values are skipped.
+     *
+     * @param xml the xml text, or the bytes of a file
+     * @return the start of each sample's start tag and the end of its end tag, in document order, or null if the text doesn't look like xml
+     */
+    static List<int[]> findSamples(CharSequence xml)
+    {
+        List<int[]> samples = new ArrayList<int[]>();
+        if(xml == null)
+        {
+            return null;
+        }
+
+        int depth = 0;
+        int sampleStart = -1;
+        int i = indexOf(xml, '<', 0);
+        while(i >= 0 && i < xml.length())
+        {
+            int end;
+            if(startsWith(xml, "<!--", i))
+            {
+                end = indexAfter(xml, "-->", i + 4);
+            }
+            else if(startsWith(xml, "<![CDATA[", i))
+            {
+                end = indexAfter(xml, "]]>", i + 9);
+            }
+            else if(startsWith(xml, "<?", i))
+            {
+                end = indexAfter(xml, "?>", i + 2);
+            }
+            else if(startsWith(xml, "<!", i))
+            {
+                //A doctype.  Its internal subset is in brackets, and can contain '>'.
+                end = findTagEnd(xml, i + 2, true);
+            }
+            else if(startsWith(xml, "</", i))
+            {
+                end = findTagEnd(xml, i + 2, false);
+                depth--;
+                if(depth == 1 && sampleStart >= 0 && end > 0)
+                {
+                    samples.add(new int[] {sampleStart, end});
+                    sampleStart = -1;
+                }
+                if(depth < 0)
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                end = findTagEnd(xml, i + 1, false);
+                if(end < 0)
+                {
+                    return null;
+                }
+                boolean empty = (xml.charAt(end - 2) == '/');
+                if(depth == 1 && isSample(xml, i + 1))
+                {
+                    if(empty)
+                    {
+                        samples.add(new int[] {i, end});
+                    }
+                    else
+                    {
+                        sampleStart = i;
+                    }
+                }
+                if(!empty)
+                {
+                    depth++;
+                }
+            }
+            if(end < 0)
+            {
+                return null;
+            }
+            i = indexOf(xml, '<', end);
+        }
+        return (depth == 0) ? samples : null;
+    }
+
+    /**
+     * Check the name of a start tag.
+     *
+     * @param xml the xml text
+     * @param nameStart the position of the tag's name
+     * @return true if the local name is sample, with any namespace prefix
+     */
+    private static boolean isSample(CharSequence xml, int nameStart)
+    {
+        int nameEnd = nameStart;
+        while(nameEnd < xml.length() && " \t\r\n/>".indexOf(xml.charAt(nameEnd)) < 0)
+        {
+            nameEnd++;
+        }
+        int localStart = nameEnd;
+        while(localStart > nameStart && xml.charAt(localStart - 1) != ':')
+        {
+            localStart--;
+        }
+        return nameEnd - localStart == 6 && startsWith(xml, "sample", localStart);
+    }
+
+    /**
+     * Find the end of a tag, skipping quoted attribute values, and the brackets of a doctype.
+     *
+     * @return the position after the tag's '>', or -1 if it doesn't end
+     */
+    private static int findTagEnd(CharSequence xml, int start, boolean brackets)
+    {
+        char quote = 0;
+        int bracketDepth = 0;
+        for(int i = start; i < xml.length(); i++)
+        {
+            char c = xml.charAt(i);
+            if(quote != 0)
+            {
+                if(c == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if(c == '"' || c == '\'')
+            {
+                quote = c;
+            }
+            else if(brackets && c == '[')
+            {
+                bracketDepth++;
+            }
+            else if(brackets && c == ']')
+            {
+                bracketDepth--;
+            }
+            else if(c == '>' && bracketDepth <= 0)
+            {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexAfter(CharSequence xml, String terminator, int start)
+    {
+        for(int index = indexOf(xml, terminator.charAt(0), start); index >= 0; index = indexOf(xml, terminator.charAt(0), index + 1))
+        {
+            if(startsWith(xml, terminator, index))
+            {
+                return index + terminator.length();
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence xml, char c, int start)
+    {
+        if(xml instanceof String)
+        {
+            return ((String) xml).indexOf(c, start);
+        }
+        for(int i = Math.max(start, 0); i < xml.length(); i++)
+        {
+            if(xml.charAt(i) == c)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(CharSequence xml, String prefix, int start)
+    {
+        if(start < 0 || start + prefix.length() > xml.length())
+        {
+            return false;
+        }
+        for(int i = 0; i < prefix.length(); i++)
+        {
+            if(xml.charAt(start + i) != prefix.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 
+     * FileText reads the bytes of a file as characters, one character for each byte, so the file can be scanned for its samples
+     * without reading it into memory.  The file is read a block at a time, and the scan mostly moves forward, so each block is read once.
+    */
+    static class FileText implements CharSequence, Closeable
+    {
+        static final int BLOCK_SIZE = 1 << 16;
+
+        RandomAccessFile file;
+        int length;
+        byte[] block = new byte[BLOCK_SIZE];
+        long blockStart = 0;
+        int blockLength = 0;
+
+        FileText(File file) throws IOException
+        {
+            this.file = new RandomAccessFile(file, "r");
+            this.length = (int) Math.min(this.file.length(), Integer.MAX_VALUE);
+        }
+
+        /**
+         * Check that the markup of the file is in single ASCII bytes.  A UTF-16 or UTF-32 file has a byte order mark or zero bytes at its start.
+         *
+         * @return true if the file can be scanned as bytes
+         */
+        boolean isAsciiCompatible()
+        {
+            if(length >= 2 && ((charAt(0) == 0xFE && charAt(1) == 0xFF) || (charAt(0) == 0xFF && charAt(1) == 0xFE)))
+            {
+                return false;
+            }
+            for(int i = 0; i < Math.min(length, 4); i++)
+            {
+                if(charAt(i) == 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            if(index < blockStart || index >= blockStart + blockLength)
+            {
+                try
+                {
+                    blockStart = index;
+                    file.seek(blockStart);
+                    blockLength = Math.max(file.read(block), 0);
+                }
+                catch(IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                if(blockLength == 0)
+                {
+                    throw new IndexOutOfBoundsException("Index " + index + " is past the end of the file");
+                }
+            }
+            return (char) (block[(int) (index - blockStart)] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            StringBuilder text = new StringBuilder(end - start);
+            for(int i = start; i < end; i++)
+            {
+                text.append(charAt(i));
+            }
+            return text;
+        }
+
+        @Override
+        public String toString()
+        {
+            return subSequence(0, length).toString();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SAXDestination;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
+
+/** 
+ * SaxonSchematronEngine runs schematron schemas with Saxon-HE directly, using the ISO schematron stylesheets.
+ * 
+ * A schema is turned into XSLT the same way Probatron does it (include expansion, abstract pattern expansion, and the 
+ * ISO svrl skeleton for XSLT 2), and the XSLT is compiled to an XsltExecutable once.  Every step runs on one Saxon Processor, 
+ * so they share a Configuration and NamePool, and the intermediate documents stay in memory as Saxon trees.
+ * Each validation loads a new XsltTransformer from the executable, and sends the svrl report to a ContentHandler.
+ * 
+ * The ISO stylesheets in /org/nmdp/miring/schematron/iso/ are the ones distributed with Probatron, unchanged.
+ * 
+ * The build runs main() to write the generated XSLT for MiringAll.sch next to it in target/classes, as MiringAll.xsl.
+ * When that file is there, the engine only has to compile it, and the schematron steps are skipped at startup.
+ * 
+ * The generated XSLT checks each schematron pattern in its own mode.  validatePattern() runs a single pattern on a document 
+ * that was built once with buildDocument(), so the patterns of a schema can be checked on several threads at the same time.
+*/
+public class SaxonSchematronEngine
+{
+    static Logger logger = LoggerFactory.getLogger(SaxonSchematronEngine.class);
+
+    static String isoStylesheetPath = "/org/nmdp/miring/schematron/iso/";
+
+    private static SaxonSchematronEngine instance;
+
+    Processor processor;
+    XsltExecutable includeStylesheet;
+    XsltExecutable abstractExpandStylesheet;
+    XsltExecutable svrlStylesheet;
+
+    Map<String, XsltExecutable> compiledSchemas = new ConcurrentHashMap<String, XsltExecutable>();
+    Map<String, List<QName>> patternModes = new ConcurrentHashMap<String, List<QName>>();
+
+    /**
+     * Get the shared SaxonSchematronEngine.
+     *
+     * @return the SaxonSchematronEngine
+     */
+    public static synchronized SaxonSchematronEngine getInstance()
+    {
+        if(instance == null)
+        {
+            instance = new SaxonSchematronEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Write the XSLT for schematron schemas into a directory, so they don't have to be generated at startup.  The build calls this.
+     *
+     * @param args the output directory (target/classes), followed by the names of the schematron schema resources.
+     * Each XSLT is written to the schema's path under the output directory, with an .xsl extension.
+     * @throws Exception if a schema can not be turned into XSLT
+     */
+    public static void main(String[] args) throws Exception
+    {
+        SaxonSchematronEngine engine = new SaxonSchematronEngine();
+        for(int i = 1; i < args.length; i++)
+        {
+            File xsltFile = new File(args[0], getPrecompiledName(args[i]));
+            xsltFile.getParentFile().mkdirs();
+            engine.processor.writeXdmValue(engine.generateXslt(args[i]), engine.processor.newSerializer(xsltFile));
+            logger.info("Wrote the XSLT for " + args[i] + " to " + xsltFile);
+        }
+    }
+
+    SaxonSchematronEngine()
+    {
+        processor = new Processor(false);
+    }
+
+    /**
+     * Compile the ISO schematron stylesheets, if they haven't been compiled yet.  They are only needed when a schema has no precompiled XSLT.
+     *
+     * @throws Exception if the ISO schematron stylesheets can not be compiled
+     */
+    private synchronized void loadIsoStylesheets() throws Exception
+    {
+        if(svrlStylesheet == null)
+        {
+            XsltCompiler compiler = processor.newXsltCompiler();
+            includeStylesheet = compiler.compile(getResourceSource(isoStylesheetPath + "iso_dsdl_include.xsl"));
+            abstractExpandStylesheet = compiler.compile(getResourceSource(isoStylesheetPath + "iso_abstract_expand.xsl"));
+            svrlStylesheet = compiler.compile(getResourceSource(isoStylesheetPath + "iso_svrl_for_xslt2.xsl"));
+        }
+    }
+
+    /**
+     * Get the compiled XSLT for a schematron schema.  The schema is compiled the first time it is requested.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @return an XsltExecutable containing the compiled schema
+     * @throws Exception if the schema can not be compiled
+     */
+    public XsltExecutable getCompiledSchema(String schemaFileName) throws Exception
+    {
+        XsltExecutable compiledSchema = compiledSchemas.get(schemaFileName);
+        if(compiledSchema == null)
+        {
+            synchronized(this)
+            {
+                compiledSchema = compiledSchemas.get(schemaFileName);
+                if(compiledSchema == null)
+                {
+                    compiledSchema = compileSchema(schemaFileName);
+                    compiledSchemas.put(schemaFileName, compiledSchema);
+                }
+            }
+        }
+        return compiledSchema;
+    }
+
+    /**
+     * Validate a candidate document against a schematron schema, and send the svrl report to a ContentHandler as SAX events.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @param candidate a Source for the xml to validate, such as a DOMSource of an already parsed document
+     * @param svrlHandler the ContentHandler that receives the svrl report
+     * @throws Exception if the validation fails
+     */
+    public void validate(String schemaFileName, Source candidate, ContentHandler svrlHandler) throws Exception
+    {
+        validate(schemaFileName, candidate, svrlHandler, null);
+    }
+
+    /**
+     * Validate a candidate document against a schematron schema, and send the svrl report to a ContentHandler as SAX events.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @param candidate a Source for the xml to validate, such as a DOMSource of an already parsed document
+     * @param svrlHandler the ContentHandler that receives the svrl report
+     * @param parameters values for the schema level lets in the schema, by name, or null to use the values in the schema
+     * @throws Exception if the validation fails
+     */
+    public void validate(String schemaFileName, Source candidate, ContentHandler svrlHandler, Map<String, Boolean> parameters) throws Exception
+    {
+        XsltTransformer transformer = getCompiledSchema(schemaFileName).load();
+        setParameters(transformer, parameters);
+        transformer.setSource(candidate);
+        transformer.setDestination(new SAXDestination(svrlHandler));
+        transformer.transform();
+    }
+
+    /**
+     * Build a candidate document into a Saxon tree.  The tree can't be changed, so it can be read by several transforms at once.
+     *
+     * @param candidate a Source for the xml to validate
+     * @return the document node of the tree
+     * @throws Exception if the document can not be built
+     */
+    public XdmNode buildDocument(Source candidate) throws Exception
+    {
+        return processor.newDocumentBuilder().build(candidate);
+    }
+
+    /**
+     * Get the modes that check each pattern of a schematron schema, in the order of the patterns.
+     * The svrl skeleton gives every pattern a mode, and its template for the document node applies each of them to the document.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @return a list of mode names, one for each pattern
+     * @throws Exception if the schema can not be turned into XSLT
+     */
+    public List<QName> getPatternModes(String schemaFileName) throws Exception
+    {
+        List<QName> modes = patternModes.get(schemaFileName);
+        if(modes == null)
+        {
+            String precompiledName = getPrecompiledName(schemaFileName);
+            XdmNode xslt = (SaxonSchematronEngine.class.getResource(precompiledName) != null) 
+                ? buildDocument(getResourceSource(precompiledName)) : generateXslt(schemaFileName);
+
+            XPathCompiler xPathCompiler = processor.newXPathCompiler();
+            xPathCompiler.declareNamespace("xsl", "http://www.w3.org/1999/XSL/Transform");
+            modes = new ArrayList<QName>();
+            for(XdmItem mode : xPathCompiler.evaluate("/xsl:stylesheet/xsl:template[@match = '/']//xsl:apply-templates[@select = '/']/@mode", xslt))
+            {
+                modes.add(new QName(mode.getStringValue()));
+            }
+            modes = Collections.unmodifiableList(modes);
+            patternModes.put(schemaFileName, modes);
+        }
+        return modes;
+    }
+
+    /**
+     * Check one pattern of a schematron schema, and send its part of the svrl report to a ContentHandler as SAX events.
+     * The report has the svrl:fired-rule, svrl:failed-assert and svrl:successful-report elements of the pattern, without an svrl:schematron-output around them.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @param patternMode the mode of the pattern, from getPatternModes()
+     * @param document the document to validate, from buildDocument()
+     * @param svrlHandler the ContentHandler that receives the svrl report
+     * @param parameters values for the schema level lets in the schema, by name, or null to use the values in the schema
+     * @throws Exception if the validation fails
+     */
+    public void validatePattern(String schemaFileName, QName patternMode, XdmNode document, ContentHandler svrlHandler, Map<String, Boolean> parameters) throws Exception
+    {
+        XsltTransformer transformer = getCompiledSchema(schemaFileName).load();
+        setParameters(transformer, parameters);
+        transformer.setInitialMode(patternMode);
+        transformer.setInitialContextNode(document);
+        transformer.setDestination(new SAXDestination(svrlHandler));
+        transformer.transform();
+    }
+
+    /**
+     * Set the schema level lets of a schema on a transformer.
+     *
+     * @param transformer the transformer for the schema
+     * @param parameters values for the schema level lets in the schema, by name, or null to use the values in the schema
+     */
+    private static void setParameters(XsltTransformer transformer, Map<String, Boolean> parameters)
+    {
+        if(parameters != null)
+        {
+            for(Map.Entry<String, Boolean> parameter : parameters.entrySet())
+            {
+                transformer.setParameter(new QName(parameter.getKey()), new XdmAtomicValue(parameter.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Compile a schematron schema.  If the build wrote the XSLT for the schema, that is compiled.  
+     * Otherwise the XSLT is generated from the schematron first.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @return an XsltExecutable containing the compiled schema
+     * @throws Exception if the schema can not be compiled
+     */
+    XsltExecutable compileSchema(String schemaFileName) throws Exception
+    {
+        String precompiledName = getPrecompiledName(schemaFileName);
+        if(SaxonSchematronEngine.class.getResource(precompiledName) != null)
+        {
+            logger.debug("Compiling the precompiled XSLT " + precompiledName);
+            return processor.newXsltCompiler().compile(getResourceSource(precompiledName));
+        }
+        return compileSchematron(schemaFileName);
+    }
+
+    /**
+     * Compile a schematron schema, generating the XSLT from the schematron.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @return an XsltExecutable containing the compiled schema
+     * @throws Exception if the schema can not be compiled
+     */
+    XsltExecutable compileSchematron(String schemaFileName) throws Exception
+    {
+        logger.debug("Compiling schematron schema " + schemaFileName);
+        return processor.newXsltCompiler().compile(generateXslt(schemaFileName).asSource());
+    }
+
+    /**
+     * Turn a schematron schema into XSLT.
+     *
+     * @param schemaFileName the name of the schematron schema resource
+     * @return the XSLT for the schema
+     * @throws Exception if the schema can not be turned into XSLT
+     */
+    XdmNode generateXslt(String schemaFileName) throws Exception
+    {
+        loadIsoStylesheets();
+
+        //Expand the includes
+        XdmNode schema = transform(includeStylesheet, getResourceSource(schemaFileName), null);
+
+        //Expand the abstract patterns
+        schema = transform(abstractExpandStylesheet, schema.asSource(), null);
+
+        //Turn the schematron into XSLT
+        return transform(svrlStylesheet, schema.asSource(), "4");
+    }
+
+    /**
+     * Get the name of the XSLT resource the build writes for a schematron schema.
+     *
+     * @param schemaFileName the name of the schematron schema resource, like /org/nmdp/miring/schematron/MiringAll.sch
+     * @return the name of the XSLT resource, like /org/nmdp/miring/schematron/MiringAll.xsl
+     */
+    static String getPrecompiledName(String schemaFileName)
+    {
+        int extension = schemaFileName.lastIndexOf('.');
+        return ((extension > schemaFileName.lastIndexOf('/')) ? schemaFileName.substring(0, extension) : schemaFileName) + ".xsl";
+    }
+
+    /**
+     * Run one step of the schematron compilation, keeping the result in memory.
+     *
+     * @param stylesheet the ISO stylesheet for this step
+     * @param source the schema to transform
+     * @param fullPathNotation the full-path-notation parameter for the svrl stylesheet, or null
+     * @return the transformed schema
+     * @throws Exception if the transform fails
+     */
+    private XdmNode transform(XsltExecutable stylesheet, Source source, String fullPathNotation) throws Exception
+    {
+        XsltTransformer transformer = stylesheet.load();
+        if(fullPathNotation != null)
+        {
+            transformer.setParameter(new QName("full-path-notation"), new XdmAtomicValue(fullPathNotation));
+        }
+        XdmDestination result = new XdmDestination();
+        transformer.setSource(source);
+        transformer.setDestination(result);
+        transformer.transform();
+        return result.getXdmNode();
+    }
+
+    /**
+     * Get a Source for a resource.  The system id is the resource's URL, so relative includes and imports are resolved next to it.
+     *
+     * @param resourceName the name of the resource
+     * @return a StreamSource for the resource.  Saxon opens and closes the stream.
+     * @throws Exception if the resource can not be found
+     */
+    private static Source getResourceSource(String resourceName) throws Exception
+    {
+        URL resourceURL = SaxonSchematronEngine.class.getResource(resourceName);
+        if(resourceURL == null)
+        {
+            throw new Exception("Could not find the schematron resource " + resourceName);
+        }
+        return new StreamSource(resourceURL.toExternalForm());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/** 
+ * SchemaRegistry holds the compiled XML Schemas used by SchemaValidator.
+ * 
+ * Compiling the HML and MIRING Tier 1 schemas is expensive, so every bundled version is compiled once, when this class is loaded,
+ * and the compiled Schema objects are shared.  A Schema is thread safe, but a SAXParser is not, so parsers are handed out
+ * from a per-thread pool, keyed by schema file name.  Each thread also gets a plain XMLReader, for feeding ValidatorHandlers.
+*/
+public class SchemaRegistry
+{
+    static Logger logger = LoggerFactory.getLogger(SchemaRegistry.class);
+
+    /** The HML versions that have a schema bundled with the validator. */
+    public static final String[] HML_VERSIONS = new String[]{"1.0.1", "1.0.2", "1.0.3"};
+
+    private static final Map<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+    private static final ThreadLocal<Map<String, SAXParser>> parsers = new ThreadLocal<Map<String, SAXParser>>()
+    {
+        @Override
+        protected Map<String, SAXParser> initialValue()
+        {
+            return new HashMap<String, SAXParser>();
+        }
+    };
+
+    private static final ThreadLocal<XMLReader> readers = new ThreadLocal<XMLReader>();
+
+    static
+    {
+        loadBundledSchemas();
+    }
+
+    /**
+     * Compile the HML and MIRING Tier 1 schemas for every bundled HML version.  Schemas that are already compiled are not compiled again.
+     */
+    public static void loadBundledSchemas()
+    {
+        for(String version : HML_VERSIONS)
+        {
+            try
+            {
+                getSchema(getHmlSchemaFileName(version));
+                getSchema(getMiringSchemaFileName(version));
+            }
+            catch(Exception e)
+            {
+                logger.error("Could not compile the schemas for HML version " + version, e);
+            }
+        }
+    }
+
+    /**
+     * Get the file name of the HML schema for an HML version
+     *
+     * @param version the HML version, from the version attribute on the hml node
+     * @return the resource name of the HML schema
+     */
+    public static String getHmlSchemaFileName(String version)
+    {
+        return "/org/nmdp/miring/schema/hml-" + version + ".xsd";
+    }
+
+    /**
+     * Get the file name of the MIRING Tier 1 schema for an HML version.  The schemas are the same except for the name space.
+     *
+     * @param version the HML version, from the version attribute on the hml node
+     * @return the resource name of the MIRING Tier 1 schema
+     */
+    public static String getMiringSchemaFileName(String version)
+    {
+        return ("1.0.1".equals(version)) ? "/org/nmdp/miring/schema/MiringTier1.xsd" : "/org/nmdp/miring/schema/MiringTier1-1.0.xsd";
+    }
+
+    /**
+     * Is there a schema with this name, either compiled already or bundled with the validator?  An HML version without a bundled 
+     * HML schema isn't supported.
+     *
+     * @param schemaFileName the resource name of the schema
+     * @return true if the schema can be compiled
+     */
+    public static boolean hasSchema(String schemaFileName)
+    {
+        return schemas.containsKey(schemaFileName) || SchemaRegistry.class.getResource(schemaFileName) != null;
+    }
+
+    /**
+     * Get the compiled schema for a schema file.  Schemas that were not compiled at startup are compiled on first use and kept.
+     *
+     * @param schemaFileName the resource name of the schema
+     * @return the compiled Schema
+     * @throws SAXException if the schema does not exist or can not be compiled
+     */
+    public static Schema getSchema(String schemaFileName) throws SAXException
+    {
+        Schema schema = schemas.get(schemaFileName);
+        if(schema == null)
+        {
+            schema = compileSchema(schemaFileName);
+        }
+        return schema;
+    }
+
+    /**
+     * Get a SAXParser that validates against a schema.  The parser belongs to the calling thread, and is reset before it is handed out.
+     *
+     * @param schemaFileName the resource name of the schema
+     * @return a namespace aware SAXParser using the compiled Schema
+     * @throws SAXException if the schema does not exist or can not be compiled
+     */
+    public static SAXParser getParser(String schemaFileName) throws SAXException
+    {
+        Map<String, SAXParser> threadParsers = parsers.get();
+        SAXParser parser = threadParsers.get(schemaFileName);
+        if(parser == null)
+        {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setSchema(getSchema(schemaFileName));
+            try
+            {
+                parser = factory.newSAXParser();
+            }
+            catch(Exception e)
+            {
+                throw new SAXException("Could not create a parser for schema " + schemaFileName, e);
+            }
+            threadParsers.put(schemaFileName, parser);
+        }
+        else
+        {
+            parser.reset();
+        }
+        return parser;
+    }
+
+    /**
+     * Get a namespace aware XMLReader that does not validate.  It is used to feed ValidatorHandlers.  The reader belongs to the calling thread.
+     *
+     * @return an XMLReader
+     * @throws SAXException if the reader can not be created
+     */
+    public static XMLReader getReader() throws SAXException
+    {
+        XMLReader reader = readers.get();
+        if(reader == null)
+        {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            try
+            {
+                reader = factory.newSAXParser().getXMLReader();
+            }
+            catch(Exception e)
+            {
+                throw new SAXException("Could not create an XMLReader", e);
+            }
+            readers.set(reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Compile a schema and store it in the registry.  SchemaFactory is not thread safe, so compiling is synchronized.
+     *
+     * @param schemaFileName the resource name of the schema
+     * @return the compiled Schema
+     * @throws SAXException if the schema does not exist or can not be compiled
+     */
+    private static synchronized Schema compileSchema(String schemaFileName) throws SAXException
+    {
+        Schema schema = schemas.get(schemaFileName);
+        if(schema == null)
+        {
+            URL schemaURL = SchemaRegistry.class.getResource(schemaFileName);
+            if(schemaURL == null)
+            {
+                throw new SAXException("There is no schema bundled with the name " + schemaFileName);
+            }
+            logger.debug("Compiling schema, URL Resource Location = " + schemaURL);
+            schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaURL);
+            schemas.put(schemaFileName, schema);
+        }
+        return schema;
+    }
+}
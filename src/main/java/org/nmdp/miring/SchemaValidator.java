@@ -22,27 +22,31 @@
 package org.nmdp.miring;
 
 import java.io.*;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
-import javax.xml.XMLConstants;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import javax.xml.validation.*;
+import javax.xml.validation.ValidatorHandler;
 
 import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.NodeList;
 import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 
@@ -55,75 +59,72 @@ import org.xml.sax.helpers.DefaultHandler;
 public class SchemaValidator
 {
     static Logger logger = LoggerFactory.getLogger(SchemaValidator.class);
-    public static List<ValidationResult> validationErrors;
-    public static String hmlNamespace = null;
-    public static List<Sample> samples;
-    public static String schema;
-    //missingNodeTemplates and missingAttributeTemplates are loaded from xml template files.
-    //They define what information (rule id, and additional info, etc.) is included in error messages
-    //Included info can be specified on a per-rule basis
-    public static Document missingNodeTemplates = null;
-    public static Document missingAttributeTemplates = null;
+    //The SAX property that sends comments to the StreamingRuleHandler.
+    static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
     
     /**
-     * Validate xml against a schema
+     * Validate xml against a schema, using a new ValidationContext
      *
      * @param xml a String containing the XML to validate
      * @param schemaFileName the file name of the schema to compare against
      * @return an array of ValidationError objects found during validation
      */
     public static ValidationResult[] validate(String xml, String schemaFileName) 
+    {
+        return validate(new ValidationContext(), xml, schemaFileName);
+    }
+
+    /**
+     * Validate xml against a schema
+     *
+     * @param context the ValidationContext of the current request.  Samples found during the parse are stored on it.
+     * @param xml a String containing the XML to validate
+     * @param schemaFileName the file name of the schema to compare against
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, String xml, String schemaFileName) 
+    {
+        return validate(context, new ParsedHml(xml), schemaFileName);
+    }
+
+    /**
+     * Validate a parsed HML document against a schema
+     *
+     * @param context the ValidationContext of the current request.  Samples found during the parse are stored on it.
+     * @param hml the ParsedHml for the current request
+     * @param schemaFileName the file name of the schema to compare against
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, ParsedHml hml, String schemaFileName) 
     {
         logger.debug("Starting a schema validation");
-        validationErrors = new ArrayList<ValidationResult>();
-        samples = new ArrayList<Sample>();
-        schema=schemaFileName;
+        context.startSchemaValidation(schemaFileName);
+        ValidationResultCollector validationErrors = context.validationErrors;
 
         try 
         {
-            MiringValidationContentHandler.clearModel();
             //Switch the two
             if(schemaFileName.equals("/org/nmdp/miring/schema/MiringTier1.xsd"))
             {
-                missingNodeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml"));
-                missingAttributeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml"));
-                hmlNamespace = Utilities.getNamespaceName(xml);
-                URL schemaURL = SchemaValidator.class.getResource(schemaFileName);
-                logger.debug("Schema URL Resource Location = " + schemaURL);
-                File schemaFile = new File(schemaURL.toURI());
-                Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaFile);
-                
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                factory.setSchema(schema);
-                
-                final SAXParser parser = factory.newSAXParser();
-                final MiringValidationContentHandler handler = new MiringValidationContentHandler();
+                prepareContext(context, hml);
+                //The schema is compiled once by the SchemaRegistry, and the parser is reused by this thread.
+                final SAXParser parser = SchemaRegistry.getParser(schemaFileName);
+                final MiringValidationContentHandler handler = new MiringValidationContentHandler(context, validationErrors, context.samples, schemaFileName);
                 //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
                 //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
-                parser.parse(new InputSource(new StringReader(xml)), handler);//??????
-                MiringValidationContentHandler.clearModel();//except here
+                parser.parse(hml.newInputSource(), handler);
+                handler.clearModel();
             }
             else if(schemaFileName.equals("/org/nmdp/miring/schema/MiringTier1-1.0.xsd"))
             {
-                missingNodeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml"));
-                missingAttributeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml"));
-                hmlNamespace = Utilities.getNamespaceName(xml);
-                URL schemaURL = SchemaValidator.class.getResource(schemaFileName);
-                logger.debug("Schema URL Resource Location = " + schemaURL);
-                File schemaFile = new File(schemaURL.toURI());
-                Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaFile);
-                
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                factory.setSchema(schema);
-                
-                final SAXParser parser = factory.newSAXParser();
-                final MiringValidationContentHandler handler = new MiringValidationContentHandler();
+                prepareContext(context, hml);
+                //The schema is compiled once by the SchemaRegistry, and the parser is reused by this thread.
+                final SAXParser parser = SchemaRegistry.getParser(schemaFileName);
+                final MiringValidationContentHandler handler = new MiringValidationContentHandler(context, validationErrors, context.samples, schemaFileName);
                 //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
                 //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
-                parser.parse(new InputSource(new StringReader(xml)), handler);//??????
-                MiringValidationContentHandler.clearModel();//except here
+                parser.parse(hml.newInputSource(), handler);
+                handler.clearModel();
 
             }
             else if(schemaFileName.equals("/schema/miringreport.xsd"))
@@ -131,30 +132,28 @@ public class SchemaValidator
                 
             }
 
+            else if(!SchemaRegistry.hasSchema(schemaFileName))
+            {
+                validationErrors.add(unsupportedVersion(hml));
+            }
             else
             {
-            	missingNodeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingNodeTemplate.xml"));
-                missingAttributeTemplates = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/MissingAttributeTemplate.xml"));
-            	hmlNamespace = Utilities.getNamespaceName(xml);
-                URL schemaURL = SchemaValidator.class.getResource(schemaFileName);
-                logger.debug("Schema URL Resource Location = " + schemaURL);
-                File schemaFile = new File(schemaURL.toURI());
-                Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaFile);
-
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                factory.setSchema(schema);
-                
-                final SAXParser parser = factory.newSAXParser();
-                final HMLValidationContentHandler handler = new HMLValidationContentHandler();
+                prepareContext(context, hml);
+                //The schema is compiled once by the SchemaRegistry, and the parser is reused by this thread.
+                final SAXParser parser = SchemaRegistry.getParser(schemaFileName);
+                final HMLValidationContentHandler handler = new HMLValidationContentHandler(context, validationErrors, context.samples);
                 //parser.parse is what does the actual "validation."  It parses the sample xml referring to the schema.
                 //Errors are thrown by the handler, and we'll turn those into validation errors that are human readable.
-                parser.parse(new InputSource(new StringReader(xml)), handler);//??????
-                
+                parser.parse(hml.newInputSource(), handler);
+                handler.clearModel();
             }
             
             
           
+        }
+        catch (FailFastException e)
+        {
+            logger.debug("Stopped the schema validation at the first fatal result: " + e.getMessage());
         }
         catch (Exception e)
         {
@@ -162,10 +161,506 @@ public class SchemaValidator
             
         }
         
+        return toArray(validationErrors);
+    }
+
+    /**
+     * Validate a parsed HML document against the HML schema and the MIRING Tier 1 schema, in a single pass.
+     * 
+     * The document is parsed once, and each SAX event is sent to a ValidatorHandler for both schemas.
+     * The HML results are returned.  The Tier 1 results and samples are left on the context, the same as
+     * if validate() had just been called with the Tier 1 schema.
+     * 
+     * The same events go to a StreamingRuleHandler, and the Tier 2 rules it checks are left on the context for the SchematronValidator.
+     * With the NATIVE Tier2Engine, it checks every Tier 2 rule.
+     *
+     * @param context the ValidationContext of the current request.  Tier 1 results and samples are stored on it.
+     * @param hml the ParsedHml for the current request
+     * @param hmlSchemaFileName the file name of the HML schema
+     * @param miringSchemaFileName the file name of the MIRING Tier 1 schema
+     * @return an array of ValidationError objects found during HML validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, ParsedHml hml, String hmlSchemaFileName, String miringSchemaFileName) 
+    {
+        logger.debug("Starting a single pass HML and Tier 1 schema validation");
+        context.startSchemaValidation(miringSchemaFileName);
+        ValidationResultCollector hmlValidationErrors = new ValidationResultCollector(context.maxResultsPerRule);
+        if(!SchemaRegistry.hasSchema(hmlSchemaFileName))
+        {
+            hmlValidationErrors.add(unsupportedVersion(hml));
+            return toArray(hmlValidationErrors);
+        }
+
+        try 
+        {
+            prepareContext(context, hml);
+
+            final HMLValidationContentHandler hmlHandler = new HMLValidationContentHandler(context, hmlValidationErrors, new ArrayList<Sample>());
+            final MiringValidationContentHandler miringHandler = new MiringValidationContentHandler(context, context.validationErrors, context.samples, miringSchemaFileName);
+
+            ValidatorHandler hmlValidator = SchemaRegistry.getSchema(hmlSchemaFileName).newValidatorHandler();
+            hmlValidator.setErrorHandler(hmlHandler);
+            hmlValidator.setContentHandler(hmlHandler);
+            ValidatorHandler miringValidator = SchemaRegistry.getSchema(miringSchemaFileName).newValidatorHandler();
+            miringValidator.setErrorHandler(miringHandler);
+            miringValidator.setContentHandler(miringHandler);
+
+            //The streaming rules see the document as it was submitted, not the values the schema validators normalized.
+            final StreamingRuleHandler streamingRuleHandler = new StreamingRuleHandler(context, context.tier2Engine == SchematronValidator.Tier2Engine.NATIVE);
+
+            //Parser errors (the xml isn't well formed) go to both handlers, like they would with two separate parses.
+            XMLReader reader = SchemaRegistry.getReader();
+            reader.setContentHandler(new TeeContentHandler(hmlValidator, new TeeContentHandler(miringValidator, streamingRuleHandler)));
+            reader.setProperty(LEXICAL_HANDLER, streamingRuleHandler);
+            reader.setErrorHandler(new TeeErrorHandler(hmlHandler, miringHandler));
+            try
+            {
+                reader.parse(hml.newInputSource());
+                context.streamingRuleResults = streamingRuleHandler.getValidationErrors();
+            }
+            finally
+            {
+                hmlHandler.clearModel();
+                miringHandler.clearModel();
+            }
+        }
+        catch (FailFastException e)
+        {
+            logger.debug("Stopped the schema validation at the first fatal result: " + e.getMessage());
+        }
+        catch (Exception e)
+        {
+            logger.error("Exception during schema validation.", e);
+        }
+
+        return toArray(hmlValidationErrors);
+    }
+
+    /**
+     * Validate a parsed HML document against the HML schema and the MIRING Tier 1 schema in a single pass, like 
+     * validate(context, hml, hmlSchemaFileName, miringSchemaFileName), with the samples split into partitions that are validated in parallel.
+     * There is a partition for each processor.
+     *
+     * @param context the ValidationContext of the current request.  Tier 1 results and samples are stored on it.
+     * @param hml the ParsedHml for the current request
+     * @param hmlSchemaFileName the file name of the HML schema
+     * @param miringSchemaFileName the file name of the MIRING Tier 1 schema
+     * @return an array of ValidationError objects found during HML validation
+     */
+    public static ValidationResult[] validateSamplesInParallel(ValidationContext context, ParsedHml hml, String hmlSchemaFileName, String miringSchemaFileName)
+    {
+        return validateSamplesInParallel(context, hml, hmlSchemaFileName, miringSchemaFileName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Validate a parsed HML document in a single pass, with the samples split into partitions that are validated in parallel, 
+     * in the common ForkJoinPool.  See SamplePartitioner for how the document is split.
+     * 
+     * The results of the partitions are put back together in document order, with the xpaths of the samples changed to 
+     * their index in the whole document, so the results, the samples and the Tier 2 results left on the context are the same 
+     * as a validation of the whole document.  If the document can't be split, or a partition isn't well formed, 
+     * the whole document is validated in one pass instead.
+     *
+     * @param context the ValidationContext of the current request.  Tier 1 results and samples are stored on it.
+     * @param hml the ParsedHml for the current request
+     * @param hmlSchemaFileName the file name of the HML schema
+     * @param miringSchemaFileName the file name of the MIRING Tier 1 schema
+     * @param partitionCount the number of partitions to split the samples into
+     * @return an array of ValidationError objects found during HML validation
+     */
+    static ValidationResult[] validateSamplesInParallel(final ValidationContext context, final ParsedHml hml, final String hmlSchemaFileName, final String miringSchemaFileName, int partitionCount)
+    {
+        //A fail fast request stops at the first fatal result in document order, which the partitions can't tell.
+        //An unsupported version is reported by the single pass over the whole document.
+        List<SamplePartitioner.Partition> partitions = (context.failFast || !SchemaRegistry.hasSchema(hmlSchemaFileName)) ? null 
+            : SamplePartitioner.partition(hml, partitionCount);
+        if(partitions == null)
+        {
+            logger.debug("The samples can not be split into partitions, validating the whole document");
+            return validate(context, hml, hmlSchemaFileName, miringSchemaFileName);
+        }
+
+        logger.debug("Starting a single pass HML and Tier 1 schema validation of " + partitions.size() + " partitions");
+        context.startSchemaValidation(miringSchemaFileName);
+        ValidationResultCollector hmlValidationErrors = new ValidationResultCollector(context.maxResultsPerRule);
+
+        try
+        {
+            prepareContext(context, hml);
+
+            List<ForkJoinTask<PartitionRun>> tasks = new ArrayList<ForkJoinTask<PartitionRun>>();
+            for(final SamplePartitioner.Partition partition : partitions)
+            {
+                tasks.add(ForkJoinPool.commonPool().submit(new Callable<PartitionRun>()
+                {
+                    @Override
+                    public PartitionRun call() throws Exception
+                    {
+                        return validatePartition(context, hml, partition, hmlSchemaFileName, miringSchemaFileName);
+                    }
+                }));
+            }
+            List<PartitionRun> runs = new ArrayList<PartitionRun>();
+            boolean parsed = true;
+            for(ForkJoinTask<PartitionRun> task : tasks)
+            {
+                PartitionRun run = task.get();
+                runs.add(run);
+                parsed &= run.parsed;
+            }
+            hml.recordPartitionedParse();
+            if(!parsed)
+            {
+                //The parse of the whole document stops at the first fatal error, the partitions can't tell where that is.
+                logger.debug("A partition could not be parsed, validating the whole document");
+                return validate(context, hml, hmlSchemaFileName, miringSchemaFileName);
+            }
+            if(!PartitionRun.hasLocalIds(runs))
+            {
+                //The schemas check the xs:ID and xs:IDREF attributes across the whole document.
+                logger.debug("A reference-sequence id is used in more than one partition, validating the whole document");
+                return validate(context, hml, hmlSchemaFileName, miringSchemaFileName);
+            }
+
+            StreamingRuleHandler streamingRuleHandler = new StreamingRuleHandler(context, context.tier2Engine == SchematronValidator.Tier2Engine.NATIVE);
+            for(PartitionRun run : runs)
+            {
+                for(ValidationResult ve : run.keep(run.hmlValidationErrors, 0))
+                {
+                    hmlValidationErrors.add(ve);
+                }
+                for(ValidationResult ve : run.keep(run.validationErrors, 1))
+                {
+                    context.validationErrors.add(ve);
+                }
+                context.samples.addAll(run.samples);
+
+                StreamingRuleHandler partitionHandler = run.streamingRuleHandler;
+                streamingRuleHandler.successfulReports.addAll(run.keep(partitionHandler.successfulReports, 2));
+                streamingRuleHandler.failedAsserts.addAll(run.keep(partitionHandler.failedAsserts, 3));
+                for(int i = 0; i < partitionHandler.pendingReferences.size(); i++)
+                {
+                    StreamingRuleHandler.PendingReference reference = partitionHandler.pendingReferences.get(i);
+                    List<String> xPath = new ArrayList<String>(Collections.singletonList(reference.xPath));
+                    if(run.partition.keep(i, run.samplesStart[4], run.samplesEnd[4], xPath))
+                    {
+                        reference.xPath = xPath.get(0);
+                        streamingRuleHandler.pendingReferences.add(reference);
+                    }
+                }
+                streamingRuleHandler.addReferenceIndexes(partitionHandler);
+            }
+            //Every reference-sequence in the document is known now.
+            streamingRuleHandler.finishReferences();
+            context.streamingRuleResults = streamingRuleHandler.getValidationErrors();
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception during schema validation.", e);
+        }
+
+        return toArray(hmlValidationErrors);
+    }
+
+    /**
+     * Validate one partition of a document, the same way validate(context, hml, hmlSchemaFileName, miringSchemaFileName) validates the whole document.
+     *
+     * @param context the ValidationContext of the current request.  It is only read, the results are kept on the PartitionRun.
+     * @param hml the ParsedHml the partition was taken from.  It counts the bytes parsed.
+     * @param partition the partition to validate
+     * @param hmlSchemaFileName the file name of the HML schema
+     * @param miringSchemaFileName the file name of the MIRING Tier 1 schema
+     * @return the PartitionRun holding the results of the partition
+     * @throws Exception if the validators can not be created
+     */
+    private static PartitionRun validatePartition(ValidationContext context, ParsedHml hml, SamplePartitioner.Partition partition, String hmlSchemaFileName, String miringSchemaFileName) throws Exception
+    {
+        PartitionRun run = new PartitionRun(partition, context.maxResultsPerRule);
+        HMLValidationContentHandler hmlHandler = new HMLValidationContentHandler(context, run.hmlValidationErrors, new ArrayList<Sample>());
+        MiringValidationContentHandler miringHandler = new MiringValidationContentHandler(context, run.validationErrors, run.samples, miringSchemaFileName);
+
+        ValidatorHandler hmlValidator = SchemaRegistry.getSchema(hmlSchemaFileName).newValidatorHandler();
+        hmlValidator.setErrorHandler(run.schemaErrorHandler(hmlHandler, 0));
+        hmlValidator.setContentHandler(hmlHandler);
+        ValidatorHandler miringValidator = SchemaRegistry.getSchema(miringSchemaFileName).newValidatorHandler();
+        miringValidator.setErrorHandler(run.schemaErrorHandler(miringHandler, 1));
+        miringValidator.setContentHandler(miringHandler);
+
+        run.streamingRuleHandler = new StreamingRuleHandler(context, context.tier2Engine == SchematronValidator.Tier2Engine.NATIVE);
+        run.streamingRuleHandler.deferReferences = true;
+
+        //The PartitionRun is last, so it sees a sample start or end after the other handlers have reported on it.
+        //Its firstSampleStart handler is first, so the schema results found on the start tag of the first sample can be told apart.
+        XMLReader reader = SchemaRegistry.getReader();
+        reader.setContentHandler(new TeeContentHandler(run.firstSampleStart, 
+            new TeeContentHandler(hmlValidator, new TeeContentHandler(miringValidator, new TeeContentHandler(run.streamingRuleHandler, run)))));
+        reader.setProperty(LEXICAL_HANDLER, run.streamingRuleHandler);
+        reader.setErrorHandler(new TeeErrorHandler(hmlHandler, miringHandler));
+        try
+        {
+            reader.parse(hml.newPartitionSource(partition));
+            run.parsed = true;
+        }
+        catch(SAXException e)
+        {
+            logger.debug("Partition starting at sample " + partition.firstSampleIndex + " could not be parsed: " + e.getMessage());
+        }
+        return run;
+    }
+
+    /** 
+     * PartitionRun holds the results of one partition of a document that is validated in parallel.
+     * 
+     * It follows the SAX events of the partition, and remembers how many results each handler had found when the first 
+     * sample started and when the last sample ended, so SamplePartitioner.Partition can tell which results belong to the samples.
+    */
+    private static class PartitionRun extends DefaultHandler
+    {
+        SamplePartitioner.Partition partition;
+        //The partition holds whole samples, so the cap for each rule, severity and sample is the same as for the whole document.
+        //The nodes outside of the samples are in every partition, and are capped the same way in each of them.
+        ValidationResultCollector hmlValidationErrors;
+        ValidationResultCollector validationErrors;
+        List<Sample> samples = new ArrayList<Sample>();
+        StreamingRuleHandler streamingRuleHandler;
+        boolean parsed = false;
+        int depth = 0;
+        //The xs:ID and xs:IDREF values of the partition, the ids of the reference-sequence nodes and the ones the consensus-sequence-block nodes refer to.
+        Set<String> ids = new HashSet<String>();
+        Set<String> idReferences = new HashSet<String>();
+        //The number of HML results, Tier 1 results, streaming reports, streaming asserts and pending references, 
+        //when the first sample started and when the last sample ended.
+        int[] samplesStart;
+        int[] samplesEnd;
+        //The schemas report the nodes missing before the first sample on its start tag, before the errors of the sample itself.
+        //The number of HML and Tier 1 results after those, or null if the start tag of the first sample wasn't reached.
+        int[] headerResultsEnd;
+        DefaultHandler firstSampleStart = new DefaultHandler()
+        {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+            {
+                if(depth == 1 && headerResultsEnd == null && localName.equals("sample"))
+                {
+                    headerResultsEnd = new int[] {hmlValidationErrors.size(), validationErrors.size()};
+                }
+            }
+        };
+
+        PartitionRun(SamplePartitioner.Partition partition, int maxResultsPerRule)
+        {
+            this.partition = partition;
+            this.hmlValidationErrors = new ValidationResultCollector(maxResultsPerRule);
+            this.validationErrors = new ValidationResultCollector(maxResultsPerRule);
+        }
+
+        /**
+         * Get an ErrorHandler for a schema validator, that passes the errors on and notes where the errors 
+         * about the nodes before the first sample end.
+         *
+         * @param handler the handler for the results of the schema
+         * @param resultType the position of the handler in the result counts, 0 for HML or 1 for Tier 1
+         * @return the ErrorHandler
+         */
+        ErrorHandler schemaErrorHandler(final ErrorHandler handler, final int resultType)
+        {
+            return new ErrorHandler()
+            {
+                @Override
+                public void warning(SAXParseException exception) throws SAXException
+                {
+                    handler.warning(exception);
+                    checkHeaderError(exception, resultType);
+                }
+
+                @Override
+                public void error(SAXParseException exception) throws SAXException
+                {
+                    handler.error(exception);
+                    checkHeaderError(exception, resultType);
+                }
+
+                @Override
+                public void fatalError(SAXParseException exception) throws SAXException
+                {
+                    handler.fatalError(exception);
+                    checkHeaderError(exception, resultType);
+                }
+            };
+        }
+
+        /**
+         * A content model error on the start tag of the first sample is about the nodes before it, which are in every partition.
+         */
+        private void checkHeaderError(SAXParseException exception, int resultType)
+        {
+            if(headerResultsEnd != null && samplesStart == null && String.valueOf(exception.getMessage()).startsWith("cvc-complex-type.2.4"))
+            {
+                headerResultsEnd[resultType] = (resultType == 0) ? hmlValidationErrors.size() : validationErrors.size();
+            }
+        }
+
+        private int[] getResultCounts()
+        {
+            return new int[] {hmlValidationErrors.size(), validationErrors.size(), streamingRuleHandler.successfulReports.size(), 
+                streamingRuleHandler.failedAsserts.size(), streamingRuleHandler.pendingReferences.size()};
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+        {
+            depth++;
+            if(depth == 2 && samplesStart == null && localName.equals("sample"))
+            {
+                samplesStart = getResultCounts();
+            }
+            else if(localName.equals("reference-sequence") && attributes.getValue("", "id") != null)
+            {
+                ids.add(attributes.getValue("", "id"));
+            }
+            else if(localName.equals("consensus-sequence-block") && attributes.getValue("", "reference-sequence-id") != null)
+            {
+                idReferences.add(attributes.getValue("", "reference-sequence-id"));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException
+        {
+            if(depth == 2 && localName.equals("sample"))
+            {
+                samplesEnd = getResultCounts();
+            }
+            depth--;
+        }
+
+        @Override
+        public void endDocument() throws SAXException
+        {
+            int[] resultCounts = getResultCounts();
+            if(samplesStart == null)
+            {
+                samplesStart = resultCounts;
+            }
+            if(samplesEnd == null)
+            {
+                samplesEnd = resultCounts;
+            }
+        }
+
+        /**
+         * Check that the partitions can be validated on their own.  Each partition's schema validation only sees its own ids, 
+         * so every id has to be in one partition, and every reference has to be to an id in the same partition.
+         *
+         * @param runs the partitions of a document
+         * @return true if no partition shares an id with another, and no partition refers to an id it doesn't have
+         */
+        static boolean hasLocalIds(List<PartitionRun> runs)
+        {
+            Set<String> allIds = new HashSet<String>();
+            for(PartitionRun run : runs)
+            {
+                if(!run.ids.containsAll(run.idReferences))
+                {
+                    return false;
+                }
+                for(String id : run.ids)
+                {
+                    if(!allIds.add(id))
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the results of one of the handlers that belong to the results of the whole document, with the xpaths of the whole document.
+         *
+         * @param results the results of a handler for this partition.  They are changed in place, and should not be used afterwards.
+         * @param resultType the position of the handler in the result counts
+         * @return the results that are kept, in the order they were found
+         */
+        List<ValidationResult> keep(Iterable<ValidationResult> results, int resultType)
+        {
+            List<ValidationResult> kept = new ArrayList<ValidationResult>();
+            int index = 0;
+            for(ValidationResult ve : results)
+            {
+                //Some schema results on the start tag of the first sample have no xpath, so they are placed by their kind.
+                int start = (resultType < 2 && headerResultsEnd != null) ? headerResultsEnd[resultType] : samplesStart[resultType];
+                if(partition.keep(index, start, samplesEnd[resultType], ve.getXPaths()))
+                {
+                    kept.add(ve);
+                }
+                index++;
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * Stop the parse if the request is fail fast, and the result means the document won't get past this stage.
+     * Fatal HML and Tier 1 results, and rejections, are the ones that stop the validation in MiringValidator.
+     *
+     * @param context the ValidationContext of the current request
+     * @param ve the result that was just found
+     * @throws FailFastException if the parse should stop
+     */
+    static void checkFailFast(ValidationContext context, ValidationResult ve) throws FailFastException
+    {
+        if(context.failFast && (ve.getSeverity() == Severity.FATAL || ve.getSeverity() == Severity.HMLFATAL || "reject".equals(ve.getMiringRule())))
+        {
+            throw new FailFastException(ve);
+        }
+    }
+
+    /** 
+     * FailFastException stops a schema validation at the first fatal result.  The results found so far are kept.
+    */
+    static class FailFastException extends SAXException
+    {
+        private static final long serialVersionUID = 1L;
+
+        FailFastException(ValidationResult ve)
+        {
+            super(ve.getErrorText());
+        }
+    }
+
+    /**
+     * Get the result for a document whose HML version has no bundled HML schema.  It can't be validated, so it is rejected.
+     *
+     * @param hml the ParsedHml for the current request
+     * @return an HMLFATAL ValidationResult
+     */
+    static ValidationResult unsupportedVersion(ParsedHml hml)
+    {
+        String version = hml.getHeader().getVersion();
+        logger.error("HML version " + version + " is not supported.");
+        ValidationResult ve = new ValidationResult("HML version " + version + " is not supported.", Severity.HMLFATAL);
+        ve.setSolutionText("Please use one of the supported HML versions in the version attribute of the hml node: " + Arrays.toString(SchemaRegistry.HML_VERSIONS));
+        ve.setMiringRule("reject");
+        return ve;
+    }
+
+    /**
+     * Put the HML namespace that the content handlers need onto the context.  The rule templates come from the RuleCatalog.
+     *
+     * @param context the ValidationContext of the current request
+     * @param hml the ParsedHml for the current request
+     */
+    private static void prepareContext(ValidationContext context, ParsedHml hml)
+    {
+        context.hmlNamespace = hml.getHeader().getNamespacePrefix();
+    }
+
+    private static ValidationResult[] toArray(ValidationResultCollector validationErrors)
+    {
         if(validationErrors.size() > 0)
         {
-            //List -> Array
-            ValidationResult[] array = validationErrors.toArray(new ValidationResult[validationErrors.size()]);
+            ValidationResult[] array = validationErrors.toArray();
             logger.debug(validationErrors.size() + " schema validation errors found");
             return array;
         }
@@ -177,24 +672,164 @@ public class SchemaValidator
         }
     }
 
+    /** 
+     * TeeContentHandler sends every SAX event it receives to two ContentHandlers.
+     * It is used to feed a single parse of the document into two schema validators.
+    */
+    private static class TeeContentHandler implements ContentHandler
+    {
+        ContentHandler first;
+        ContentHandler second;
+
+        TeeContentHandler(ContentHandler first, ContentHandler second)
+        {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator)
+        {
+            first.setDocumentLocator(locator);
+            second.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startDocument() throws SAXException
+        {
+            first.startDocument();
+            second.startDocument();
+        }
+
+        @Override
+        public void endDocument() throws SAXException
+        {
+            first.endDocument();
+            second.endDocument();
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException
+        {
+            first.startPrefixMapping(prefix, uri);
+            second.startPrefixMapping(prefix, uri);
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException
+        {
+            first.endPrefixMapping(prefix);
+            second.endPrefixMapping(prefix);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+        {
+            first.startElement(uri, localName, qName, attributes);
+            second.startElement(uri, localName, qName, attributes);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException
+        {
+            first.endElement(uri, localName, qName);
+            second.endElement(uri, localName, qName);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException
+        {
+            first.characters(ch, start, length);
+            second.characters(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+        {
+            first.ignorableWhitespace(ch, start, length);
+            second.ignorableWhitespace(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException
+        {
+            first.processingInstruction(target, data);
+            second.processingInstruction(target, data);
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException
+        {
+            first.skippedEntity(name);
+            second.skippedEntity(name);
+        }
+    }
+
+    /** 
+     * TeeErrorHandler sends every parser error it receives to two ErrorHandlers.
+    */
+    private static class TeeErrorHandler implements ErrorHandler
+    {
+        ErrorHandler first;
+        ErrorHandler second;
+
+        TeeErrorHandler(ErrorHandler first, ErrorHandler second)
+        {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) throws SAXException
+        {
+            first.warning(exception);
+            second.warning(exception);
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException
+        {
+            first.error(exception);
+            second.error(exception);
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException
+        {
+            first.fatalError(exception);
+            second.fatalError(exception);
+        }
+    }
+
     /** 
      * MiringValidationContentHandler is a subclass of SchemaValidator, which is responsible for handling 
      * parse exceptions, and performing Miring Specific logic for determining Miring Results.
      * 
      * The methods in this class are overrides of DefaultHandler, which I extend to provide validation logic.
      * 
-     * The startElement and endElement methods are used to construct the SimpleXmlModel for the document.
+     * The startElement and endElement methods are used to follow the current element with an XPathTracker.
      * 
      * Parser exceptions are interpreted and translated into MIRING ValidationResults.
     */
     private static class MiringValidationContentHandler extends DefaultHandler 
     {    
-        //xmlRootNode represents the root node of the xml document, which is a
-        //skeleton representation of the document, built recursively during the sax parse
-        //This SimpleXmlModel is used to generate an xpath on the report
-        public static SimpleXmlModel xmlRootNode;
-        public static SimpleXmlModel xmlCurrentNode;
-        public static int nodeCount = 0;
+        //xPathTracker follows the open elements during the sax parse
+        //It is used to generate an xpath on the report
+        XPathTracker xPathTracker = new XPathTracker();
+        int nodeCount = 0;
+        ValidationContext context;
+        //Results and samples found by this handler, and the schema it is validating against
+        ValidationResultCollector validationErrors;
+        List<Sample> samples;
+        String schema;
+
+        MiringValidationContentHandler(ValidationContext context, ValidationResultCollector validationErrors, List<Sample> samples, String schema)
+        {
+            this.context = context;
+            this.validationErrors = validationErrors;
+            this.samples = samples;
+            this.schema = schema;
+        }
 
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
@@ -212,20 +847,7 @@ public class SchemaValidator
                     samples.add(new Sample(sampleID,centerCode));
                 }
                 
-                if(xmlRootNode==null)
-                {
-                    //This is the new root node.
-                    xmlRootNode = new SimpleXmlModel(localName,1);
-                    xmlCurrentNode = xmlRootNode;
-                }
-                else
-                {
-                    //There is a root node already.  This must be a child node.
-                    int highestChildIndex = xmlCurrentNode.getHighestChildIndex(localName);
-                    SimpleXmlModel newCurrentNode = new SimpleXmlModel(localName , highestChildIndex + 1);
-                    xmlCurrentNode.addChildNode(newCurrentNode);
-                    xmlCurrentNode = newCurrentNode;
-                }
+                xPathTracker.startElement(localName);
             }
             catch(Exception e)
             {
@@ -238,12 +860,8 @@ public class SchemaValidator
         {
             try
             {
-                if(xmlCurrentNode.parentNode != null)
-                {
-                    //If the parent node *IS* null, that means we're closing out the root HML element.  All done.  
-                    //Otherwise zoom out the parser to the parent
-                    xmlCurrentNode = xmlCurrentNode.parentNode;
-                }
+                //Zoom out the parser to the parent.  Closing out the root HML element leaves the tracker on the root.
+                xPathTracker.endElement();
             }
             catch(Exception e)
             {
@@ -285,8 +903,9 @@ public class SchemaValidator
          * Take the SAX parser exception, tokenize it, and build a Miring-specific MiringResult object based on the errors.
          *
          * @param exception a SaxException containing schema validation information
+         * @throws SAXException to stop the parse, if the request is fail fast and the result is fatal
          */
-        private static void handleParserException(SAXParseException exception)
+        private void handleParserException(SAXParseException exception) throws SAXException
         {
             ValidationResult ve = null;
             
@@ -363,14 +982,14 @@ public class SchemaValidator
                 String untrimmedNodeName = exceptionTokens[7];
                 String nodeName = untrimmedNodeName.substring(1, untrimmedNodeName.indexOf("'."));//What does this do?
                 
-                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, hmlNamespace));
+                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, context.hmlNamespace));
             }
             else{
                 for(int i =cvcOrNumberCheck(exceptionTokens[0]); i<exceptionTokens.length;i++)
                 {
                     error+=" "+exceptionTokens[i];
                 }
-                System.out.println(error);
+                logger.debug(error);
                 
                 ve=new ValidationResult(error,Severity.HMLFATAL);
                 ve.setSolutionText("Verify that your HML file is well formed, and conforms to the chosen hml version");
@@ -380,7 +999,8 @@ public class SchemaValidator
             }
           
 
-            Utilities.addValidationError(validationErrors, ve);
+            validationErrors.add(ve);
+            checkFailFast(context, ve);
         }
 
         /**
@@ -391,7 +1011,7 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing attribute
          */
-        private static ValidationResult handleMissingAttribute(String error, String missingAttributeName, String nodeName)
+        private ValidationResult handleMissingAttribute(String error, String missingAttributeName, String nodeName)
         {
             
             String errorMessage = error+" The node " + nodeName + " is missing a " + missingAttributeName + " attribute.";
@@ -401,36 +1021,24 @@ public class SchemaValidator
             //Specific logic for various MIRING errors
             try
             {
-                boolean matchFound = false;
-                NodeList ruleNodes = missingAttributeTemplates.getElementsByTagName("rule");
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                RuleCatalog.Rule rule = RuleCatalog.getInstance().getMissingAttributeRule(nodeName, missingAttributeName);
+                boolean matchFound = (rule != null);
+                if(matchFound)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
-
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    String templateAttributeName = Utilities.getAttribute(ruleAttributes, "attribute-name");
+                    String miringRule = rule.getMiringRuleId();
+                    String templateSeverity = rule.getSeverity();
+                    String templateSolution = rule.getSolutionText();
                     
-                    if(missingAttributeName.equals(templateAttributeName)
-                        && nodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
-                        String miringRule = Utilities.getAttribute(ruleAttributes, "miring-rule-id");
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.FATAL:
-                            templateSeverity.equals("miring")?Severity.MIRING:
-                            templateSeverity.equals("warning")?Severity.WARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.FATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule(miringRule);
-                        
-                        break;
-                    }
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.FATAL:
+                        templateSeverity.equals("miring")?Severity.MIRING:
+                        templateSeverity.equals("warning")?Severity.WARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.FATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule(miringRule);
                 }
                 if(!matchFound)
                 {
@@ -442,20 +1050,12 @@ public class SchemaValidator
                 logger.error("Exception during handleMissingAttribute" , e);
             }
             
-            String xPath = xmlCurrentNode.generateXpath();
+            String xPath = xPathTracker.generateXpath();
             //For some reason missing attribute exceptions are thrown BEFORE the parser hits the startElement method for the parent node.  
             //startElement is hit AFTER the attributes for the node are checked
-            //So right now, the parent node isn't contained in the xmlCurrentNode structure.  We need to add the most recent parent to this xpath.
-            int nodeIndex = 1;
-            for(int i = 0; i < xmlCurrentNode.childrenNodes.size(); i++)
-            {
-                SimpleXmlModel currentNode = xmlCurrentNode.childrenNodes.get(i);
-                if(currentNode.nodeName.equals(nodeName))
-                {
-                    //If the parent has other children, then this one's not the first.
-                    nodeIndex++;
-                }
-            }
+            //So right now, the parent node isn't contained in the xPathTracker yet.  We need to add the most recent parent to this xpath.
+            //If the parent has other children with this name, then this one's not the first.
+            int nodeIndex = xPathTracker.getChildCount(nodeName) + 1;
             
             xPath = xPath + "/" + nodeName + "[" + nodeIndex + "]";
             ve.addXPath(xPath);
@@ -470,10 +1070,10 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing node
          */
-        private static ValidationResult handleMissingNode(String error,String missingNodeName)
+        private ValidationResult handleMissingNode(String error,String missingNodeName)
         {
             String parentNodeName = "Unhandled ParentNodeName";
-            parentNodeName = xmlCurrentNode.nodeName;
+            parentNodeName = xPathTracker.getCurrentNodeName();
             if(parentNodeName.isEmpty())
             {
                 logger.error("No parent node found for missingNodeName=" + missingNodeName);
@@ -486,34 +1086,24 @@ public class SchemaValidator
             //Specific logic for various MIRING errors
             try
             {
-                boolean matchFound = false;
-                NodeList ruleNodes = missingNodeTemplates.getElementsByTagName("rule");
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                RuleCatalog.Rule rule = RuleCatalog.getInstance().getMissingNodeRule(missingNodeName);
+                boolean matchFound = (rule != null);
+                if(matchFound)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
+                    String miringRule = rule.getMiringRuleId();
+                    String templateSolution = rule.getSolutionText();
                     
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    if(missingNodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
-                        
-                        String miringRule = Utilities.getAttribute(ruleAttributes, "miring-rule-id");
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.FATAL:
-                            templateSeverity.equals("miring")?Severity.MIRING:
-                            templateSeverity.equals("warning")?Severity.WARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.FATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule(miringRule);
-                        
-                        break;
-                    }
+                    String templateSeverity = rule.getSeverity();
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.FATAL:
+                        templateSeverity.equals("miring")?Severity.MIRING:
+                        templateSeverity.equals("warning")?Severity.WARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.FATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule(miringRule);
                 }
                 if(!matchFound)
                 {
@@ -525,32 +1115,18 @@ public class SchemaValidator
                 logger.error("Exception during handleMissingNode.",e);
             }
             
-            String xPath = xmlCurrentNode.generateXpath();
+            String xPath = xPathTracker.generateXpath();
             ve.addXPath(xPath);
 
             return ve;
         }
 
         /**
-         * Clean up the SimpleXmlModels 
-         * 
-         * I'm not sure if this is necessary.  Since SimpleXmlModel objects refer to both a parent and children,
-         * garbage collector might not flag them for destruction when the SchemaValidator object is de-referenced.
-         * Just want to make sure we don't have extra objects hanging around.
+         * Reset the XPathTracker, so the handler can be used for another document.
          */
-        private static void clearModel()
+        private void clearModel()
         {
-            if(xmlRootNode != null)
-            {
-                xmlRootNode.deAllocate(1);
-                xmlRootNode = null;
-            }
-            
-            if(xmlCurrentNode != null)
-            {
-                xmlCurrentNode.deAllocate(1);
-                xmlCurrentNode = null;
-            }
+            xPathTracker.clear();
             nodeCount = 0;
         }
         private static int cvcOrNumberCheck(String exceptionName)
@@ -569,12 +1145,22 @@ public class SchemaValidator
     //Is there any methods I need to make it HML specfic or is this okay with pretty much just a vairable name change and deletions here and there
     private static class HMLValidationContentHandler extends DefaultHandler
       {
-      	//xmlRootNode represents the root node of the xml document, which is a
-        //skeleton representation of the document, built recursively during the sax parse
-        //This SimpleXmlModel is used to generate an xpath on the report
-        public static SimpleXmlModel xmlRootNode;
-        public static SimpleXmlModel xmlCurrentNode;
-        public static int nodeCount = 0;
+        //xPathTracker follows the open elements during the sax parse
+        //It is used to generate an xpath on the report
+        XPathTracker xPathTracker = new XPathTracker();
+        int nodeCount = 0;
+        ValidationContext context;
+        //Results and samples found by this handler
+        ValidationResultCollector validationErrors;
+        List<Sample> samples;
+
+        HMLValidationContentHandler(ValidationContext context, ValidationResultCollector validationErrors, List<Sample> samples)
+        {
+            this.context = context;
+            this.validationErrors = validationErrors;
+            this.samples = samples;
+        }
+
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException 
         {
@@ -591,20 +1177,7 @@ public class SchemaValidator
                     samples.add(new Sample(sampleID,centerCode));
                 }
                 
-                if(xmlRootNode==null)
-                {//Can stay the same-Anu
-                    //This is the new root node.
-                    xmlRootNode = new SimpleXmlModel(localName,1);
-                    xmlCurrentNode = xmlRootNode;
-                }
-                else//Stay same?-Anu Needs explaining, why do we care about the child and parent nodes
-                {
-                    //There is a root node already.  This must be a child node.
-                    int highestChildIndex = xmlCurrentNode.getHighestChildIndex(localName);
-                    SimpleXmlModel newCurrentNode = new SimpleXmlModel(localName , highestChildIndex + 1);
-                    xmlCurrentNode.addChildNode(newCurrentNode);
-                    xmlCurrentNode = newCurrentNode;
-                }
+                xPathTracker.startElement(localName);
             }
             catch(Exception e)
             {
@@ -617,12 +1190,8 @@ public class SchemaValidator
         {
             try
             {
-                if(xmlCurrentNode.parentNode != null)
-                {
-                    //If the parent node *IS* null, that means we're closing out the root HML element.  All done.  
-                    //Otherwise zoom out the parser to the parent
-                    xmlCurrentNode = xmlCurrentNode.parentNode;
-                }
+                //Zoom out the parser to the parent.  Closing out the root HML element leaves the tracker on the root.
+                xPathTracker.endElement();
             }
             catch(Exception e)
             {
@@ -664,8 +1233,9 @@ public class SchemaValidator
          * Take the SAX parser exception, tokenize it, and build a Miring-specific MiringResult object based on the errors.
          *
          * @param exception a SaxException containing schema validation information
+         * @throws SAXException to stop the parse, if the request is fail fast and the result is fatal
          */
-        private static void handleParserException(SAXParseException exception, Severity severity)
+        private void handleParserException(SAXParseException exception, Severity severity) throws SAXException
         {
  
             ValidationResult ve = new ValidationResult(exception.getMessage(),severity);
@@ -735,7 +1305,7 @@ public class SchemaValidator
                 String untrimmedNodeName = exceptionTokens[7];
                 String nodeName = untrimmedNodeName.substring(1, untrimmedNodeName.indexOf("'."));
                 
-                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, hmlNamespace));
+                ve = handleMissingAttribute(error,missingAttributeName, Utilities.stripNamespace(nodeName, context.hmlNamespace));
             }
             //If there HML is not well formed reject the file and return the error and how to fix it
             else
@@ -750,7 +1320,8 @@ public class SchemaValidator
                 ve.setMiringRule("reject");
             }
            
-            Utilities.addValidationError(validationErrors, ve);
+            validationErrors.add(ve);
+            checkFailFast(context, ve);
             
             
         }
@@ -763,7 +1334,7 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing attribute
          */
-        private static ValidationResult handleMissingAttribute(String error,String missingAttributeName, String nodeName)
+        private ValidationResult handleMissingAttribute(String error,String missingAttributeName, String nodeName)
         {
             String errorMessage = error+" The node " + nodeName + " is missing a " + missingAttributeName + " attribute.";
             String solutionText = "Please add a " + missingAttributeName + " attribute to the " + nodeName + " node.";
@@ -772,35 +1343,23 @@ public class SchemaValidator
             //Specific logic for various HML errors
             try
             {
-                boolean matchFound = false;
-                NodeList ruleNodes = missingAttributeTemplates.getElementsByTagName("hml-rule");
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                RuleCatalog.Rule rule = RuleCatalog.getInstance().getHmlMissingAttributeRule(nodeName, missingAttributeName);
+                boolean matchFound = (rule != null);
+                if(matchFound)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
-
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    String templateAttributeName = Utilities.getAttribute(ruleAttributes, "attribute");
+                    String templateSeverity = rule.getSeverity();
+                    String templateSolution = rule.getSolutionText();
                     
-                    if(missingAttributeName.equals(templateAttributeName)
-                        && nodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.HMLFATAL:
-                            templateSeverity.equals("hml")?Severity.HML:
-                            templateSeverity.equals("warning")?Severity.HMLWARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.FATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule("HML");
-                        
-                        break;
-                    }
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.HMLFATAL:
+                        templateSeverity.equals("hml")?Severity.HML:
+                        templateSeverity.equals("warning")?Severity.HMLWARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.FATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule("HML");
                 }
                 if(!matchFound)
                 {
@@ -812,20 +1371,12 @@ public class SchemaValidator
                 logger.error("Exception during handleMissingAttribute" , e);
             }
             
-            String xPath = xmlCurrentNode.generateXpath();
+            String xPath = xPathTracker.generateXpath();
             //For some reason missing attribute exceptions are thrown BEFORE the parser hits the startElement method for the parent node.  
             //startElement is hit AFTER the attributes for the node are checked
-            //So right now, the parent node isn't contained in the xmlCurrentNode structure.  We need to add the most recent parent to this xpath.
-            int nodeIndex = 1;
-            for(int i = 0; i < xmlCurrentNode.childrenNodes.size(); i++)
-            {
-                SimpleXmlModel currentNode = xmlCurrentNode.childrenNodes.get(i);
-                if(currentNode.nodeName.equals(nodeName))
-                {
-                    //If the parent has other children, then this one's not the first.
-                    nodeIndex++;
-                }
-            }
+            //So right now, the parent node isn't contained in the xPathTracker yet.  We need to add the most recent parent to this xpath.
+            //If the parent has other children with this name, then this one's not the first.
+            int nodeIndex = xPathTracker.getChildCount(nodeName) + 1;
             
             xPath = xPath + "/" + nodeName + "[" + nodeIndex + "]";
             ve.addXPath(xPath);
@@ -840,12 +1391,12 @@ public class SchemaValidator
          * 
          * @return a ValidationResult object for this missing node
          */
-        private static ValidationResult handleMissingNode(String error,String missingNodeName)
+        private ValidationResult handleMissingNode(String error,String missingNodeName)
         {
 
             String parentNodeName = "Unhandled ParentNodeName";
             
-            parentNodeName = xmlCurrentNode.nodeName;
+            parentNodeName = xPathTracker.getCurrentNodeName();
             if(parentNodeName.isEmpty())
             {
                 logger.error("No parent node found for missingNodeName=" + missingNodeName);
@@ -858,35 +1409,25 @@ public class SchemaValidator
             //Specific logic for various HML errors
             try
             {
-                
-                NodeList ruleNodes = missingNodeTemplates.getElementsByTagName("hml-rule");
-                
-                for(int i = 0; i < ruleNodes.getLength(); i++)
+                RuleCatalog.Rule rule = RuleCatalog.getInstance().getHmlMissingNodeRule(missingNodeName);
+                if(rule != null)
                 {
-                    NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
+                    matchFound = true;
+
+                    String templateSolution = rule.getSolutionText();
                     
-                    String templateNodeName = Utilities.getAttribute(ruleAttributes, "node-name");
-                    if(missingNodeName.equals(templateNodeName))
-                    {
-                        matchFound = true;
+                    String templateSeverity = rule.getSeverity();
 
-                        String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                        
-                        String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-    
-                        Severity severity = 
-                            templateSeverity.equals("fatal")?Severity.HMLFATAL:
-                            templateSeverity.equals("hml")?Severity.HML:
-                            templateSeverity.equals("warning")?Severity.HMLWARNING:
-                            templateSeverity.equals("info")?Severity.INFO:
-                            Severity.HMLFATAL;
-                        
-                        ve =  new ValidationResult(errorMessage,severity);
-                        ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
-                        ve.setMiringRule("HML");
-                        
-                        break;
-                    }
+                    Severity severity = 
+                        templateSeverity.equals("fatal")?Severity.HMLFATAL:
+                        templateSeverity.equals("hml")?Severity.HML:
+                        templateSeverity.equals("warning")?Severity.HMLWARNING:
+                        templateSeverity.equals("info")?Severity.INFO:
+                        Severity.HMLFATAL;
+                    
+                    ve =  new ValidationResult(errorMessage,severity);
+                    ve.setSolutionText(templateSolution==null ? solutionText : solutionText + " " + templateSolution);
+                    ve.setMiringRule("HML");
                 }
                 if(!matchFound)
                 {
@@ -901,32 +1442,18 @@ public class SchemaValidator
             {
                 ve.setMiringRule("Node");
             }
-            String xPath = xmlCurrentNode.generateXpath();
+            String xPath = xPathTracker.generateXpath();
             ve.addXPath(xPath);
 
             return ve;
         }
 
         /**
-         * Clean up the SimpleXmlModels 
-         * 
-         * I'm not sure if this is necessary.  Since SimpleXmlModel objects refer to both a parent and children,
-         * garbage collector might not flag them for destruction when the SchemaValidator object is de-referenced.
-         * Just want to make sure we don't have extra objects hanging around.
+         * Reset the XPathTracker, so the handler can be used for another document.
          */
-        private static void clearModel()
+        private void clearModel()
         {
-            if(xmlRootNode != null)
-            {
-                xmlRootNode.deAllocate(1);
-                xmlRootNode = null;
-            }
-            
-            if(xmlCurrentNode != null)
-            {
-                xmlCurrentNode.deAllocate(1);
-                xmlCurrentNode = null;
-            }
+            xPathTracker.clear();
             nodeCount = 0;
         }
           /*
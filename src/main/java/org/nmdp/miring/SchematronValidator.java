@@ -22,32 +22,39 @@
 */
 package org.nmdp.miring;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.net.URI;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmNode;
 
 import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /** 
- * SchematronValidator is a class used to validate an XML document against a set of schematron rules.  The schematron logic is handled, in this case, by Probatron.
+ * SchematronValidator is a class used to validate an XML document against a set of schematron rules.  The Tier2Engine on the 
+ * ValidationContext chooses how the rules are checked:
+ * NATIVE uses the results of the StreamingRuleHandler, which checked the rules in MiringAll.sch during the Tier 1 parse.  
+ * SAXON runs the ISO schematron stylesheets on Saxon-HE with the SaxonSchematronEngine.
+ * PROBATRON runs them with the ProbatronEngine.
+ * 
+ * With parallel patterns set on the context, the Saxon schematron builds the document into a tree once, and checks each pattern 
+ * of the schema on its own thread.  The results of the patterns are put back together in the order of the patterns, 
+ * so they come out the same as when the patterns are checked one after the other.
  * 
- * Probatron is distributed as an executable jar, but it is rather inconvenient to write XML files to hard drive in order to use them.
- * I'm using reflection to call Probatron's methods in a few spots, rather than using their main method as a starting point.
+ * The validator used to go through Probatron, which is distributed as an executable jar.  The ProbatronEngine still opens that jar
+ * and calls Probatron's classes through MethodHandles, and it produces the same svrl report.
  * 
  * For reference, see Probatron's documentation:
  * http://www.probatron.org/probatron4j.html
@@ -60,13 +67,23 @@ public class SchematronValidator
 {
     static Logger logger = LoggerFactory.getLogger(SchematronValidator.class);
     
-    static ClassLoader loadedProbatronClasses;
-    static String jarFileName = "/org/nmdp/miring/jar/probatron.jar";
     static String namespaceText = "{http://schemas.nmdp.org/spec/hml/1.0.1}";
-    public static Document schematronRuleTemplate = null;
 
     /**
-     * Perform a schematron validation for an xml string against an array of schemaFileName strings.
+     * The engines that can check the Tier 2 rules.
+     */
+    public enum Tier2Engine
+    {
+        //The StreamingRuleHandler, during the Tier 1 parse.  If the Tier 1 parse didn't run it, SAXON is used instead.
+        NATIVE,
+        //The SaxonSchematronEngine
+        SAXON,
+        //The ProbatronEngine, the original engine
+        PROBATRON
+    }
+
+    /**
+     * Perform a schematron validation for an xml string against an array of schemaFileName strings, using a new ValidationContext.
      *
      * @param xml a String containing the xml to validate
      * @param schemaFileNames an array of Strings containing the names of the schema file resources to validate against
@@ -74,186 +91,384 @@ public class SchematronValidator
      */
     public static ValidationResult[] validate(String xml, String[] schemaFileNames)
     {
-        ValidationResult[] results = new ValidationResult[0];
-        
-        try
-        {
-            logger.debug("Opening jar file: " + jarFileName);
-            URL jarURL = SchematronValidator.class.getResource(jarFileName);
-            URI jarURI = jarURL.toURI();
-            loadedProbatronClasses = Utilities.loadJarElements(new File(jarURI));            
-            schematronRuleTemplate = Utilities.xmlToDocumentObject(Utilities.readXmlResource("/org/nmdp/miring/ruletemplates/SchematronRuleTemplate.xml"));
-            
-            for(int i = 0; i < schemaFileNames.length; i++)
-            {
-                String schemaFileName = schemaFileNames[i];
-                
-                logger.debug("Starting a schematron validation with schema " + schemaFileName + " and xml length " + xml.length());
+        return validate(new ValidationContext(), xml, schemaFileNames);
+    }
 
-                //Create an org.probatron.ValidationReport object
-                Object validationReportObject = doValidation(xml, schemaFileName);
+    /**
+     * Perform a schematron validation for an xml string against an array of schemaFileName strings.
+     *
+     * @param context the ValidationContext of the current request
+     * @param xml a String containing the xml to validate
+     * @param schemaFileNames an array of Strings containing the names of the schema file resources to validate against
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, String xml, String[] schemaFileNames)
+    {
+        return validate(context, new ParsedHml(xml), schemaFileNames);
+    }
 
-                //Stream out the schematron report to a String
-                ByteArrayOutputStream myBaos = new ByteArrayOutputStream();
-                Utilities.callReflectedMethod(validationReportObject, "streamOut", myBaos, Class.forName("java.io.OutputStream"));
-                String resultString = myBaos.toString();
+    /**
+     * Perform a schematron validation for a parsed HML document against an array of schemaFileName strings.
+     *
+     * @param context the ValidationContext of the current request
+     * @param hml the ParsedHml for the current request.  Its DOM is used as the schematron input, so the document is not parsed again.
+     * @param schemaFileNames an array of Strings containing the names of the schema file resources to validate against
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, ParsedHml hml, String[] schemaFileNames)
+    {
+        if(context.tier2Engine == Tier2Engine.NATIVE && context.streamingRuleResults != null)
+        {
+            //Every rule was already checked during the Tier 1 parse.
+            logger.debug(context.streamingRuleResults.size() + " validation errors found by the native rule engine");
+            return Utilities.combineArrays(new ValidationResult[0], context.streamingRuleResults.toArray(), null);
+        }
 
-                //Create MIRING specific validation errors
-                ValidationResult[] currentResultErrors = translateSchematronReportToValidationResults(resultString);
-                logger.debug(currentResultErrors.length + " schema validation errors found");
+        //If the StreamingRuleHandler already checked its rules during the Tier 1 parse, the Saxon schematron skips them.
+        //Probatron always checks every rule.
+        boolean streamingRules = (context.tier2Engine != Tier2Engine.PROBATRON && context.streamingRuleResults != null);
+        SchematronRun run = new SchematronRun(context, hml, schemaFileNames, streamingRules);
+        run.call();
+        return run.getValidationResults();
+    }
 
-                //Add any errors to the tier2 results.
-                results = Utilities.combineArrays(results, currentResultErrors,null);
-            }
+    /**
+     * Start a schematron validation on another thread, in the common ForkJoinPool, before the Tier 1 validation has finished.
+     * Pass the SchematronRun to validate(context, hml, schemaFileNames, speculativeRun) when Tier 1 is done, 
+     * or cancel it if Tier 2 isn't needed.
+     *
+     * @param context the ValidationContext of the current request.  Only the engine settings are read from it while the run is going.
+     * @param hml the ParsedHml for the current request
+     * @param schemaFileNames an array of Strings containing the names of the schema file resources to validate against
+     * @param streamingRules true if the Tier 1 validation is going to check the streaming rules, so the Saxon schematron can skip them
+     * @return the SchematronRun that was started
+     */
+    public static SchematronRun startSpeculativeValidation(ValidationContext context, ParsedHml hml, String[] schemaFileNames, boolean streamingRules)
+    {
+        logger.debug("Starting a speculative schematron validation");
+        SchematronRun run = new SchematronRun(context, hml, schemaFileNames, streamingRules);
+        run.task = ForkJoinPool.commonPool().submit(run);
+        return run;
+    }
+
+    /**
+     * Finish a schematron validation that was started with startSpeculativeValidation.  The results are the same as 
+     * validate(context, hml, schemaFileNames) would give now.  If the run guessed wrong about the streaming rules, 
+     * or the native rule engine already has the results, the run is cancelled.
+     *
+     * @param context the ValidationContext of the current request, after the Tier 1 validation
+     * @param hml the ParsedHml for the current request
+     * @param schemaFileNames an array of Strings containing the names of the schema file resources to validate against
+     * @param speculativeRun the SchematronRun that was started for this request, or null
+     * @return an array of ValidationError objects found during validation
+     */
+    public static ValidationResult[] validate(ValidationContext context, ParsedHml hml, String[] schemaFileNames, SchematronRun speculativeRun)
+    {
+        if(speculativeRun == null)
+        {
+            return validate(context, hml, schemaFileNames);
         }
-        catch(Exception e )
+
+        boolean streamingRules = (context.tier2Engine != Tier2Engine.PROBATRON && context.streamingRuleResults != null);
+        if((context.tier2Engine == Tier2Engine.NATIVE && context.streamingRuleResults != null) || streamingRules != speculativeRun.streamingRules)
         {
-            logger.error("Exception in SchematronValidation", e);
-            return Utilities.combineArrays(results, new ValidationResult[]{new ValidationResult("Failed Schematron Validation: " + e.toString(),Severity.FATAL)},null);
+            logger.debug("The speculative schematron validation doesn't match the Tier 1 validation, it is cancelled");
+            speculativeRun.cancel();
+            return validate(context, hml, schemaFileNames);
         }
-        logger.debug(results.length + " validation errors detected in schematron validator.");
-        return results;
+
+        speculativeRun.task.join();
+        return speculativeRun.getValidationResults();
     }
 
     /**
-     * Perform a schematron validation for an xml string against an single schematron schema.
-     * This method mimics Probatron's Session.doValidation.
-     * 
-     * @param xml a String containing the xml to validate
-     * @param schemaLocation an String containing the name of the schema file resource to validate against
-     * @return an object which is an org.probatron.ValidationReport objects.
+     * Check each pattern of a schematron schema on its own thread, in the common ForkJoinPool.  The current thread waits for them.
+     *
+     * @param context the ValidationContext of the current request
+     * @param schemaFileName the name of the schematron schema resource
+     * @param document the document to validate, built by the SaxonSchematronEngine
+     * @param parameters values for the schema level lets in the schema
+     * @return an array of ValidationResult objects, in the same order as a validation of the whole schema
+     * @throws Exception if a pattern can not be checked
      */
-    private static Object doValidation(String xml, String schemaLocation) 
+    static ValidationResult[] validatePatterns(final ValidationContext context, final String schemaFileName, final XdmNode document, final Map<String, Boolean> parameters) throws Exception
     {
-        //We're using some reflection here, so object types are vague
-        //vr = org.probatron.ValidationReport
-        Object vr = null;
-        //theSchema = org.probatron.SchematronSchema
-        Object theSchema = null;
-        
-        try 
+        final SaxonSchematronEngine engine = SaxonSchematronEngine.getInstance();
+        List<QName> patternModes = engine.getPatternModes(schemaFileName);
+        logger.debug("Checking " + patternModes.size() + " patterns of " + schemaFileName + " in parallel");
+
+        List<SvrlContentHandler> svrlHandlers = new ArrayList<SvrlContentHandler>();
+        List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+        for(final QName patternMode : patternModes)
         {
-            URL schemaFileURL = SchematronValidator.class.getResource(schemaLocation);
-            InputStream xmlInputStream = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));            
-           
-            //A org.probatron.SchematronSchema object needs to have a Session object when it calls validateCandidate(), or else Null Pointers.
-            //So I create a session object here to please it.
-            Class sessionClass= loadedProbatronClasses.loadClass("org.probatron.Session");
-            Object currentSession = sessionClass.newInstance();
-            
-            //Create a SchematronSchema object, using constructor that takes a Session and a schema URL
-            Class schematronSchemaClass= loadedProbatronClasses.loadClass("org.probatron.SchematronSchema");
-            Constructor ctor = schematronSchemaClass.getDeclaredConstructor(sessionClass, URL.class);
-            theSchema = ctor.newInstance(currentSession, schemaFileURL);
-            
-            //Validate against a schematron schema, using probatron's validateCandidate method
-            vr = Utilities.callReflectedMethod(theSchema,"validateCandidate", xmlInputStream, Class.forName("java.io.InputStream"));
-        } 
-        catch(Exception e)
+            final SvrlContentHandler svrlHandler = new SvrlContentHandler(context);
+            svrlHandlers.add(svrlHandler);
+            tasks.add(ForkJoinPool.commonPool().submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    engine.validatePattern(schemaFileName, patternMode, document, svrlHandler, parameters);
+                    return null;
+                }
+            }));
+        }
+        for(ForkJoinTask<Void> task : tasks)
         {
-            logger.error("Exception in doValidation: " + e);
+            task.get();
         }
-        logger.debug ("Validation Report = " + vr);
-        return vr;
+        return SvrlContentHandler.getValidationResults(svrlHandlers);
     }
 
     /**
-     * Translate a org.probatron.ValidationReport into an array of ValidationResult objects
-     *
-     * @param xml a String containing a probatron ValidationReport 
-     * @return an array of ValidationResult objects generated from the probatron ValidationReport report.
+     * SchematronRun checks a document against a list of schematron schemas.  It holds the state of one validation, 
+     * so it can be run on another thread while the Tier 1 validation is going, and cancelled if its results aren't needed.
      */
-    private static ValidationResult[] translateSchematronReportToValidationResults(String xml)
+    public static class SchematronRun implements Callable<SchematronRun>
     {
-        List<ValidationResult> validationErrors = new ArrayList<ValidationResult>();
+        ValidationContext context;
+        ParsedHml hml;
+        String[] schemaFileNames;
+        boolean streamingRules;
+        ValidationResult[] results = new ValidationResult[0];
+        Exception exception;
+        //Set when the results aren't needed.  The svrl handler stops the transform at its next element.
+        volatile boolean cancelled = false;
+        ForkJoinTask<SchematronRun> task;
 
-        try
+        SchematronRun(ValidationContext context, ParsedHml hml, String[] schemaFileNames, boolean streamingRules)
         {
-            Element rootElement = Utilities.xmlToRootElement(xml);  
-
-            //I guess I'm handling successful-reports and failed-asserts in the same way.
-            NodeList successfulReportList = rootElement.getElementsByTagName("svrl:successful-report");
-            NodeList failedAssertList = rootElement.getElementsByTagName("svrl:failed-assert");
-            Node[] combinedList = Utilities.combineNodeLists(successfulReportList, failedAssertList);
-            
-            if (combinedList != null) 
+            this.context = context;
+            this.hml = hml;
+            this.schemaFileNames = schemaFileNames;
+            this.streamingRules = streamingRules;
+        }
+
+        /**
+         * Check the document against each schema.  Exceptions are kept, and reported by getValidationResults.
+         *
+         * @return this SchematronRun
+         */
+        @Override
+        public SchematronRun call()
+        {
+            Map<String, Boolean> parameters = new HashMap<String, Boolean>();
+            parameters.put("streamingRules", streamingRules);
+            try
             {
-                /*
-                These nodes look like this:
-                <svrl:successful-report 
-                    test="matches( @root, $regExpOID )"
-                    location="/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}hmlid[1]">
-                    <svrl:text>
-                        The hmlid root is formatted like an OID. 
-                    </svrl:text>
-                </svrl:successful-report>
-                
-                OR
-                
-                <svrl:failed-assert 
-                    test="number(@start) = '0'"
-                    location="/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}sample[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}typing[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}consensus-sequence[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}reference-database[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}reference-sequence[1]">
-                    <svrl:text>
-                        start attribute on reference-sequence nodes should be 0.
-                    </svrl:text>
-                </svrl:failed-assert>
-                
-                 */
-                for(int i = 0; i < combinedList.length; i++)
+                //Every pattern of every schema reads the same tree.
+                XdmNode document = null;
+                if(context.parallelPatterns && context.tier2Engine != Tier2Engine.PROBATRON)
                 {
-                    //String testText = null;
-                    String locationText = null;
-                    String errorText = null;
-                    
-                    Node currentSchematronNode = combinedList[i];
-                    NamedNodeMap currAttributes = currentSchematronNode.getAttributes();
-                    
-                    //testText contains the actual test that schematron ran to get this report. 
-                    //I don't think we need this information.
-                    //testText = currAttributes.getNamedItem("test").getNodeValue();
-                    
-                    //locationText is an xpath.  We need this info.
-                    //Probably need to skim out the namespaces, because they clutter things badly, and because who cares?
-                    locationText = currAttributes.getNamedItem("location").getNodeValue();
+                    document = SaxonSchematronEngine.getInstance().buildDocument(hml.newSource());
+                }
+
+                for(int i = 0; i < schemaFileNames.length && !cancelled; i++)
+                {
+                    String schemaFileName = schemaFileNames[i];
                     
-                    //Dig into the "svrl:successful-report" node to get the error text.
-                    NodeList childrenNodes = currentSchematronNode.getChildNodes();
-                    if(childrenNodes != null)
+                    logger.debug("Starting a schematron validation with schema " + schemaFileName + " and xml length " + hml.getLength());
+
+                    //Create MIRING specific validation errors
+                    ValidationResult[] currentResultErrors;
+                    if(document != null)
+                    {
+                        currentResultErrors = validatePatterns(context, schemaFileName, document, parameters);
+                    }
+                    else
                     {
-                        for(int j = 0; j < childrenNodes.getLength(); j++)
+                        //The svrl report is consumed as SAX events while the schematron transform writes it.
+                        SvrlContentHandler svrlHandler = new SvrlContentHandler(context);
+                        svrlHandler.run = this;
+                        if(context.tier2Engine == Tier2Engine.PROBATRON)
+                        {
+                            ProbatronEngine.getInstance().validate(schemaFileName, hml.newSource(), svrlHandler);
+                        }
+                        else
                         {
-                            //one of the children of the svrl:successful-report node should be a "svrl:text" node
-                            //in my experience it's at j=1, but I don't understand why.
-                            Node currentChildNode= childrenNodes.item(j);
-                            if(currentChildNode.getNodeName().equals("svrl:text"))
-                            {
-                                errorText = currentChildNode.getTextContent();
-                                break;
-                            }
+                            SaxonSchematronEngine.getInstance().validate(schemaFileName, hml.newSource(), svrlHandler, parameters);
                         }
+                        currentResultErrors = svrlHandler.getValidationResults();
                     }
+                    logger.debug(currentResultErrors.length + " schema validation errors found");
 
-                    ValidationResult validationError = generateValidationError(errorText, locationText);
-                    Utilities.addValidationError(validationErrors, validationError);
+                    //Add any errors to the tier2 results.
+                    results = Utilities.combineArrays(results, currentResultErrors,null);
                 }
             }
+            catch(Exception e)
+            {
+                exception = e;
+            }
+            return this;
         }
-        catch(Exception e)
+
+        /**
+         * Stop the run.  If it hasn't started yet it never will, otherwise the transform stops at the next svrl element.
+         */
+        void cancel()
+        {
+            cancelled = true;
+            if(task != null)
+            {
+                task.cancel(false);
+            }
+        }
+
+        /**
+         * Get the results of the run, with the results of the streaming rules that the Tier 1 parse left on the context.
+         *
+         * @return an array of ValidationError objects found during validation
+         */
+        ValidationResult[] getValidationResults()
+        {
+            if(exception != null)
+            {
+                logger.error("Exception in SchematronValidation", exception);
+                return Utilities.combineArrays(results, new ValidationResult[]{new ValidationResult("Failed Schematron Validation: " + exception.toString(),Severity.FATAL)},null);
+            }
+
+            ValidationResult[] allResults = results;
+            if(streamingRules)
+            {
+                logger.debug(context.streamingRuleResults.size() + " validation errors found during the Tier 1 parse");
+                allResults = Utilities.combineArrays(allResults, context.streamingRuleResults.toArray(), null);
+            }
+            logger.debug(allResults.length + " validation errors detected in schematron validator.");
+            return allResults;
+        }
+    }
+
+    /**
+     * SvrlContentHandler turns the svrl report from the schematron transform into ValidationResult objects as it is written.
+     * 
+     * The report elements look like this:
+     * <pre>
+     * &lt;svrl:successful-report 
+     *     test="matches( @root, $regExpOID )"
+     *     location="/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]/{http://schemas.nmdp.org/spec/hml/1.0.1}hmlid[1]"&gt;
+     *     &lt;svrl:text&gt;
+     *         The hmlid root is formatted like an OID. 
+     *     &lt;/svrl:text&gt;
+     * &lt;/svrl:successful-report&gt;
+     * </pre>
+     * svrl:failed-assert elements have the same shape.  We only need the location xpath and the text of the first svrl:text child.
+     * Successful reports come before failed asserts in the results, whatever order the report is written in.
+     */
+    static class SvrlContentHandler extends DefaultHandler
+    {
+        static String svrlNamespace = "http://purl.oclc.org/dsdl/svrl";
+
+        ValidationContext context;
+        //The SchematronRun this report is for, if it can be cancelled.
+        SchematronRun run;
+        List<ValidationResult> successfulReports = new ArrayList<ValidationResult>();
+        List<ValidationResult> failedAsserts = new ArrayList<ValidationResult>();
+        
+        //State for the svrl:successful-report or svrl:failed-assert we are inside of.
+        List<ValidationResult> currentList = null;
+        String locationText = null;
+        StringBuilder errorText = null;
+        boolean errorTextDone = false;
+        int depth = 0;
+        int textDepth = 0;
+
+        SvrlContentHandler(ValidationContext context)
+        {
+            this.context = context;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+        {
+            if(run != null && run.cancelled)
+            {
+                throw new SAXException("The schematron validation was cancelled");
+            }
+            depth++;
+            if(currentList == null)
+            {
+                if(svrlNamespace.equals(uri) && (localName.equals("successful-report") || localName.equals("failed-assert")))
+                {
+                    currentList = localName.equals("successful-report") ? successfulReports : failedAsserts;
+                    
+                    //locationText is an xpath.  We need this info.
+                    locationText = attributes.getValue("location");
+                    errorText = null;
+                    errorTextDone = false;
+                    textDepth = depth;
+                }
+            }
+            else if(!errorTextDone && errorText == null && depth == textDepth + 1 && svrlNamespace.equals(uri) && localName.equals("text"))
+            {
+                errorText = new StringBuilder();
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException
         {
-            logger.error("Error forming DOM from schematron results.", e);
-            validationErrors.add(new ValidationResult("Unhandled Schematron validation exception: " + e, Severity.FATAL));
+            if(errorText != null && !errorTextDone)
+            {
+                errorText.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException
+        {
+            if(currentList != null)
+            {
+                if(depth == textDepth)
+                {
+                    ValidationResult validationError = generateValidationError(context, (errorText == null) ? null : errorText.toString(), locationText);
+                    currentList.add(validationError);
+                    currentList = null;
+                }
+                else if(depth == textDepth + 1 && errorText != null)
+                {
+                    errorTextDone = true;
+                }
+            }
+            depth--;
         }
 
-        if(validationErrors.size() > 0)
+        /**
+         * Get the ValidationResults found in the svrl report, without duplicates.
+         *
+         * @return an array of ValidationResult objects, empty if there were no problems found
+         */
+        ValidationResult[] getValidationResults()
         {
-            //List -> Array
-            ValidationResult[] array = validationErrors.toArray(new ValidationResult[validationErrors.size()]);
-            return array;
+            return getValidationResults(Collections.singletonList(this));
         }
-        else
+
+        /**
+         * Get the ValidationResults found in the svrl reports of several patterns, without duplicates.
+         * The successful reports of every pattern come first, in the order of the patterns, like the svrl report of the whole schema.
+         *
+         * @param svrlHandlers the SvrlContentHandler for each pattern, in the order of the patterns
+         * @return an array of ValidationResult objects, empty if there were no problems found
+         */
+        static ValidationResult[] getValidationResults(List<SvrlContentHandler> svrlHandlers)
         {
-            //Empty.  Not null.  No problems found.
-            return new ValidationResult[0];
+            ValidationContext context = svrlHandlers.isEmpty() ? null : svrlHandlers.get(0).context;
+            ValidationResultCollector validationErrors = new ValidationResultCollector((context == null) ? 0 : context.maxResultsPerRule);
+            for(SvrlContentHandler svrlHandler : svrlHandlers)
+            {
+                for(ValidationResult ve : svrlHandler.successfulReports)
+                {
+                    validationErrors.add(ve);
+                }
+            }
+            for(SvrlContentHandler svrlHandler : svrlHandlers)
+            {
+                for(ValidationResult ve : svrlHandler.failedAsserts)
+                {
+                    validationErrors.add(ve);
+                }
+            }
+            return validationErrors.toArray();
         }
     }
 
@@ -261,50 +476,40 @@ public class SchematronValidator
      * Generate a single ValidationError object
      * Lots of Miring logic happens here.
      *
+     * @param context the ValidationContext of the current request
      * @param errorMessage an error message generated by probatron
      * @param locationText an Xpath containing the location of the error in the HML document
      * @return a ValidationError object describing the miring validation problem
      */
-    private static ValidationResult generateValidationError(String errorMessage, String locationText)
+    static ValidationResult generateValidationError(ValidationContext context, String errorMessage, String locationText)
     {
         ValidationResult ve = new ValidationResult(errorMessage,Severity.MIRING);
         
         //Specific logic for various MIRING errors
         try
         {
-            boolean matchFound = false;
-            NodeList ruleNodes = schematronRuleTemplate.getElementsByTagName("rule");
-            for(int i = 0; i < ruleNodes.getLength(); i++)
+            RuleCatalog.Rule rule = RuleCatalog.getInstance().getSchematronRule(errorMessage);
+            boolean matchFound = (rule != null);
+            if(matchFound)
             {
-                NamedNodeMap ruleAttributes = ruleNodes.item(i).getAttributes();
-
-                String templateErrorMessage = Utilities.getAttribute(ruleAttributes, "error-text");
+                String miringRule = rule.getMiringRuleId();
+                String templateSeverity = rule.getSeverity();
+                String templateSolution = rule.getSolutionText();
                 
-                if(errorMessage.contains(templateErrorMessage))
+                Severity severity = 
+                    templateSeverity.equals("fatal")?Severity.FATAL:
+                    templateSeverity.equals("miring")?Severity.MIRING:
+                    templateSeverity.equals("warning")?Severity.WARNING:
+                    templateSeverity.equals("info")?Severity.INFO:
+                    Severity.FATAL;
+                
+                ve =  new ValidationResult(errorMessage,severity);
+                ve.setSolutionText(templateSolution);
+                ve.setMiringRule(miringRule);
+                
+                if(locationText != null)
                 {
-                    matchFound = true;
-                    
-                    String miringRule = Utilities.getAttribute(ruleAttributes, "miring-rule-id");
-                    String templateSeverity = Utilities.getAttribute(ruleAttributes, "severity");
-                    String templateSolution = Utilities.getAttribute(ruleAttributes, "solution-text");
-                    
-                    Severity severity = 
-                        templateSeverity.equals("fatal")?Severity.FATAL:
-                        templateSeverity.equals("miring")?Severity.MIRING:
-                        templateSeverity.equals("warning")?Severity.WARNING:
-                        templateSeverity.equals("info")?Severity.INFO:
-                        Severity.FATAL;
-                    
-                    ve =  new ValidationResult(errorMessage,severity);
-                    ve.setSolutionText(templateSolution);
-                    ve.setMiringRule(miringRule);
-                    
-                    if(locationText != null)
-                    {
-                        ve.addXPath(stripNamespace(locationText));
-                    }
-                    
-                    break;
+                    ve.addXPath(stripNamespace(locationText));
                 }
             }
             if(!matchFound)
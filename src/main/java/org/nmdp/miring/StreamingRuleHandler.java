@@ -0,0 +1,941 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/** 
+ * StreamingRuleHandler is the native Tier 2 rule engine.  It checks the rules in MiringAll.sch while the document is parsed for the 
+ * HML and Tier 1 schema validation, so Tier 2 doesn't need another parse or a DOM.
+ * 
+ * Most of the rules only look at the attributes of an element and its parent, so they are checked when the element starts.  
+ * The rules on the text of an element are checked when it ends.  The cross references between reference-sequence nodes and 
+ * consensus-sequence-block or variant nodes are finished at the end of the document, because the node that is referenced can come later.
+ * The results are the same ValidationResults the schematron makes, with the same xpaths.  The one difference is the variant id rule, 
+ * which is reported once for each consensus-sequence-block with the xpaths of its variants, the way the report combines them anyway.
+ * 
+ * When the Tier 2 engine is not NATIVE, only the rules that are expensive as XPath are checked here (4.2.7.b, 4.2.3.e, and 5.3.b/c), 
+ * because they look back across sibling nodes or copy long sequence text.  The SchematronValidator tells the Saxon schematron to skip 
+ * those (see the streamingRules let in MiringAll.sch), and adds these results to the Tier 2 results instead.
+ * 
+ * Like the schematron, only elements in the HML 1.0.1 namespace are checked.  The schematron runs in XSLT 1.0 compatible mode, 
+ * so attributes are compared as numbers the way its number() converts them, see toDouble().
+ * It is also a LexicalHandler, because a comment ends a text node the same way an element does.
+*/
+public class StreamingRuleHandler extends DefaultHandler implements LexicalHandler
+{
+    static Logger logger = LoggerFactory.getLogger(StreamingRuleHandler.class);
+
+    static String hmlNamespace = "http://schemas.nmdp.org/spec/hml/1.0.1";
+    static Pattern xpathNumber = Pattern.compile("[+-]?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)([eE][+-]?[0-9]+)?");
+    //The schematron's regular expressions.  \d in XPath is any unicode digit.
+    static Pattern oidPattern = Pattern.compile("[\\p{Nd}+.]+\\p{Nd}+");
+    static Pattern gtrPattern = Pattern.compile("[GTR]\\p{Nd}{9}[.]\\p{Nd}");
+
+    //Rule 1.1.c
+    static String oidReportText = "The hmlid root is formatted like an OID.";
+    static String oidErrorText = "The hmlid root is not formatted like an OID.";
+    //Rule 1.3.b
+    static String gtrTestIdErrorText = "On a sbt-ngs node, test-id is not formatted like a GTR test ID.";
+    static String gtrSourceErrorText = "On a sbt-ngs node, the test-id-source is not explicitly 'NCBI-GTR'.";
+    //Rule 2.2.c
+    static String referenceSequenceRangeErrorText = "On a reference sequence node, end attribute should be greater than or equal to the start attribute.";
+    //Rule 2.2.1.c
+    static String referenceSequenceUnusedErrorText = "A reference-sequence node has an id attribute with no corresponding consensus-sequence-block id attribute.";
+    //Rule 3.2.a
+    static String glstringErrorText = "A glstring node should have one of either A) A uri attribute specifying the location of a valid glstring, or B) Text containing a valid glstring.";
+    //Rule 4.a
+    static String sequenceQualityOrderErrorText = "On a sequence quality node, sequence-end must be greater than sequence-start.";
+    //Rule 4.b
+    static String sequenceQualityRangeErrorText = "On a sequence quality node, the sequence-start and sequence-end attributes must be between 0 and (consensus-sequence-block:end - consensus-sequence-block:start) inclusive.";
+    //Rule 4.2.3.b
+    static String blockRangeErrorText = "On a consensus-sequence-block node, end attribute should be greater than or equal to the start attribute.";
+    //Rule 4.2.3.d
+    static String blockStartErrorText = "The start attribute on a consensus-sequence-block node should be greater than or equal to the start attribute on the corresponding reference-sequence node.";
+    static String blockEndErrorText = "The end attribute on a consensus-sequence-block node should be less than or equal to the end attribute on the corresponding reference-sequence node.";
+    //Rule 4.2.3.e
+    static String sequenceLengthErrorText = "For every consensus-sequence-block node, the child sequence node must have a length of (end - start).";
+    //Rule 4.2.4.b
+    static String phasingGroupErrorText = "On a consensus-sequence-block node, the phasing-group attribute is deprecated.";
+    //Rule 4.2.7.b
+    static String continuityErrorText = "A consensus-sequence-block with attribute continuity=true does not appear to be continuous with it's previous sibling consensus-sequence-block node, matched by reference-sequence-id and phase-set.";
+    //Rule 5.2.b
+    static String variantRangeErrorText = "On a variant node, end attribute should be greater than or equal to the start attribute.";
+    //Rule 5.2.d
+    static String variantStartErrorText = "The start attribute on a variant node should be greater than or equal to the start attribute on the corresponding reference-sequence node.";
+    static String variantEndErrorText = "The end attribute on a variant node should be less than or equal to the end attribute on the corresponding reference-sequence node.";
+    //Rules 5.3.b and 5.3.c
+    static String variantIdErrorText = "The variant nodes under a single consensus-sequence-block must have id attributes that are integers ranging from 0:n-1, where n is the number of variants.";
+
+    ValidationContext context;
+    //false to only check the rules the schematron skips when streamingRules is set
+    boolean allRules;
+    //Like the svrl report, successful reports come before failed asserts in the results.
+    List<ValidationResult> successfulReports = new ArrayList<ValidationResult>();
+    List<ValidationResult> failedAsserts = new ArrayList<ValidationResult>();
+    //The schematron location of a node is an xpath like /hml[1]/sample[1]/typing[1], which the tracker generates the same way.
+    XPathTracker xPathTracker = new XPathTracker();
+    int depth = 0;
+
+    //The attributes that are needed after an element starts, for each open element.  The arrays only grow with the depth of the document.
+    String[] openIds = new String[16];
+    String[] openStarts = new String[16];
+    String[] openEnds = new String[16];
+    String[] openReferenceSequenceIds = new String[16];
+    int[] openVariantIndexes = new int[16];
+
+    //Rule 4.2.7.b state.  The end attribute of the last consensus-sequence-block, by reference-sequence-id and phase-set, 
+    //for the consensus-sequence we are inside of.
+    Map<String, String> previousBlockEnds = new HashMap<String, String>();
+    int blockDepth = -1;
+
+    //Rule 4.2.3.e state.  The depth of the open consensus-sequence-block, and the length of its sequence so far.  
+    //The sequence text itself is never kept.
+    int openBlockDepth = -1;
+    int sequenceDepth = -1;
+    long sequenceLength = 0;
+
+    //Rules 5.3.b and 5.3.c state.  The last element that closed, so the previous sibling of an element is known when it starts.
+    int siblingDepth = -1;
+    String siblingId;
+    int siblingVariantIndex;
+    //The variants under the element at variantGroupDepth - 1.  The indexes of the variants that break the rule are set in badVariants.
+    int variantGroupDepth = -1;
+    int variantCount;
+    boolean variantZeroFound;
+    boolean variantIdNotNumber;
+    BitSet badVariants = new BitSet();
+
+    //Rule 3.2.a state.  The length of the first text node of the open glstring.
+    int glstringDepth = -1;
+    String glstringUri;
+    int glstringTextLength;
+    boolean glstringTextDone;
+
+    //Rules 2.2.1.c, 4.2.3.d and 5.2.d state.  For each reference-sequence id, the lowest start and the highest end found so far.
+    Map<String, double[]> referenceSequenceBounds = new HashMap<String, double[]>();
+    //The reference-sequence-id of every consensus-sequence-block found so far.
+    Set<String> blockReferenceSequenceIds = new HashSet<String>();
+    //Cross references that haven't matched yet.  They are finished at the end of the document.
+    List<PendingReference> pendingReferences = new ArrayList<PendingReference>();
+    //true when the handler checks one partition of a document, and the cross references are finished after the partitions are put together
+    boolean deferReferences = false;
+
+    /**
+     * A cross reference to a reference-sequence, or from one, that hasn't matched a node yet.
+     */
+    static class PendingReference
+    {
+        String xPath;
+        String referenceSequenceId;
+        double start;
+        double end;
+        //The error texts of the checks that haven't passed, null once they pass.
+        String startErrorText;
+        String endErrorText;
+        String errorText;
+    }
+
+    /**
+     * Constructor for a StreamingRuleHandler
+     *
+     * @param context the ValidationContext of the current request
+     * @param allRules true to check every rule in MiringAll.sch, false to only check the rules that the schematron skips when streamingRules is set
+     */
+    StreamingRuleHandler(ValidationContext context, boolean allRules)
+    {
+        this.context = context;
+        this.allRules = allRules;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+    {
+        depth++;
+        xPathTracker.startElement(localName);
+        try
+        {
+            boolean hml = hmlNamespace.equals(uri);
+            if(depth >= openIds.length)
+            {
+                int length = openIds.length * 2;
+                openIds = Arrays.copyOf(openIds, length);
+                openStarts = Arrays.copyOf(openStarts, length);
+                openEnds = Arrays.copyOf(openEnds, length);
+                openReferenceSequenceIds = Arrays.copyOf(openReferenceSequenceIds, length);
+                openVariantIndexes = Arrays.copyOf(openVariantIndexes, length);
+            }
+            String id = attributes.getValue("", "id");
+            String start = attributes.getValue("", "start");
+            String end = attributes.getValue("", "end");
+            String referenceSequenceId = attributes.getValue("", "reference-sequence-id");
+
+            if(depth == glstringDepth + 1)
+            {
+                endGlstringText();
+            }
+
+            openVariantIndexes[depth] = checkVariantSiblings(hml && localName.equals("variant"), id);
+
+            if(hml && localName.equals("consensus-sequence-block"))
+            {
+                checkContinuity(attributes);
+                openBlockDepth = depth;
+                if(allRules)
+                {
+                    checkBlock(attributes, start, end, referenceSequenceId);
+                }
+            }
+            else if(hml && localName.equals("sequence") && depth == openBlockDepth + 1)
+            {
+                sequenceDepth = depth;
+                sequenceLength = 0;
+            }
+            else if(allRules && hml)
+            {
+                if(localName.equals("hmlid"))
+                {
+                    checkHmlId(attributes);
+                }
+                else if(localName.equals("sbt-ngs"))
+                {
+                    checkSbtNgs(attributes);
+                }
+                else if(localName.equals("reference-sequence"))
+                {
+                    checkReferenceSequence(id, start, end);
+                }
+                else if(localName.equals("glstring"))
+                {
+                    glstringDepth = depth;
+                    glstringUri = attributes.getValue("", "uri");
+                    glstringTextLength = 0;
+                    glstringTextDone = false;
+                }
+                else if(localName.equals("sequence-quality"))
+                {
+                    checkSequenceQuality(attributes);
+                }
+                else if(localName.equals("variant"))
+                {
+                    checkVariant(start, end);
+                }
+            }
+
+            openIds[depth] = id;
+            openStarts[depth] = start;
+            openEnds[depth] = end;
+            openReferenceSequenceIds[depth] = referenceSequenceId;
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception in startElement", e);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException
+    {
+        if(sequenceDepth != -1)
+        {
+            //The schematron takes the string-length of the text with the whitespace removed.  
+            //string-length counts characters, so the second half of a surrogate pair doesn't count.
+            for(int i = start; i < start + length; i++)
+            {
+                char c = ch[i];
+                if(c != ' ' && c != '\t' && c != '\n' && c != '\r' && !Character.isLowSurrogate(c))
+                {
+                    sequenceLength++;
+                }
+            }
+        }
+        if(depth == glstringDepth && !glstringTextDone)
+        {
+            for(int i = start; i < start + length; i++)
+            {
+                if(!Character.isLowSurrogate(ch[i]))
+                {
+                    glstringTextLength++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+        if(depth == glstringDepth)
+        {
+            endGlstringText();
+        }
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException
+    {
+        if(depth == glstringDepth)
+        {
+            endGlstringText();
+        }
+    }
+
+    /**
+     * An element, comment or processing instruction in the open glstring ends its first text node, if the text started.
+     * The schematron's text() only sees that first text node.
+     */
+    private void endGlstringText()
+    {
+        if(glstringTextLength > 0)
+        {
+            glstringTextDone = true;
+        }
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) throws SAXException
+    {
+    }
+
+    @Override
+    public void endDTD() throws SAXException
+    {
+    }
+
+    @Override
+    public void startEntity(String name) throws SAXException
+    {
+    }
+
+    @Override
+    public void endEntity(String name) throws SAXException
+    {
+    }
+
+    @Override
+    public void startCDATA() throws SAXException
+    {
+    }
+
+    @Override
+    public void endCDATA() throws SAXException
+    {
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+        try
+        {
+            if(depth == sequenceDepth)
+            {
+                checkSequenceLength();
+                sequenceDepth = -1;
+            }
+            else if(depth == openBlockDepth)
+            {
+                openBlockDepth = -1;
+            }
+            else if(depth == glstringDepth)
+            {
+                checkGlstring();
+                glstringDepth = -1;
+            }
+
+            if(depth == variantGroupDepth - 1)
+            {
+                finishVariantGroup();
+                variantGroupDepth = -1;
+            }
+            siblingDepth = depth;
+            siblingId = openIds[depth];
+            siblingVariantIndex = openVariantIndexes[depth];
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception in endElement", e);
+        }
+
+        if(depth < blockDepth)
+        {
+            //The consensus-sequence is closed, the next one starts over.
+            previousBlockEnds.clear();
+            blockDepth = -1;
+        }
+        depth--;
+        xPathTracker.endElement();
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+        if(deferReferences)
+        {
+            return;
+        }
+        try
+        {
+            finishReferences();
+        }
+        catch(Exception e)
+        {
+            logger.error("Exception in endDocument", e);
+        }
+    }
+
+    /**
+     * Rule 1.1.c.  The hmlid root should look like an OID, and there should be an extension.
+     *
+     * @param attributes the attributes of the hmlid
+     */
+    private void checkHmlId(Attributes attributes)
+    {
+        String root = attributes.getValue("", "root");
+        if(root != null && oidPattern.matcher(root).find() && attributes.getValue("", "extension") != null)
+        {
+            addReport(oidReportText);
+        }
+        else
+        {
+            addAssert(oidErrorText);
+        }
+    }
+
+    /**
+     * Rule 1.3.b.  The test-id on an sbt-ngs should look like a GTR test ID, from the source NCBI-GTR.
+     *
+     * @param attributes the attributes of the sbt-ngs
+     */
+    private void checkSbtNgs(Attributes attributes)
+    {
+        String testId = attributes.getValue("", "test-id");
+        if(testId == null || !gtrPattern.matcher(testId).find())
+        {
+            addAssert(gtrTestIdErrorText);
+        }
+        String testIdSource = attributes.getValue("", "test-id-source");
+        if(testIdSource == null || !testIdSource.contains("NCBI-GTR"))
+        {
+            addAssert(gtrSourceErrorText);
+        }
+    }
+
+    /**
+     * Rule 2.2.c, and the index for the cross reference rules.  A reference-sequence's end should be at least its start.  
+     * Rule 2.2.1.c, that a consensus-sequence-block refers to the reference-sequence, is finished at the end of the document.
+     *
+     * @param id the id attribute of the reference-sequence
+     * @param start the start attribute of the reference-sequence
+     * @param end the end attribute of the reference-sequence
+     */
+    private void checkReferenceSequence(String id, String start, String end)
+    {
+        double startNumber = toDouble(start);
+        double endNumber = toDouble(end);
+        if(start != null && end != null && startNumber > endNumber)
+        {
+            addReport(referenceSequenceRangeErrorText);
+        }
+
+        PendingReference reference = new PendingReference();
+        reference.xPath = xPathTracker.generateXpath();
+        reference.referenceSequenceId = id;
+        reference.errorText = referenceSequenceUnusedErrorText;
+        pendingReferences.add(reference);
+
+        //The schematron's key is on the id.  A reference-sequence without one can't be found.
+        if(id != null)
+        {
+            double[] bounds = referenceSequenceBounds.get(id);
+            if(bounds == null)
+            {
+                bounds = new double[] {Double.NaN, Double.NaN};
+                referenceSequenceBounds.put(id, bounds);
+            }
+            //A start or end that isn't a number never matches, so it is left out.
+            if(!Double.isNaN(startNumber) && !(bounds[0] <= startNumber))
+            {
+                bounds[0] = startNumber;
+            }
+            if(!Double.isNaN(endNumber) && !(bounds[1] >= endNumber))
+            {
+                bounds[1] = endNumber;
+            }
+        }
+    }
+
+    /**
+     * Rule 3.2.a, when the glstring ends.  A glstring should have a uri attribute or text, but not both.  
+     * The schematron looks at the first text node of the glstring.
+     */
+    private void checkGlstring()
+    {
+        int uriLength = (glstringUri == null) ? 0 : glstringUri.codePointCount(0, glstringUri.length());
+        if(uriLength > 1 && glstringTextLength > 1)
+        {
+            addReport(glstringErrorText);
+        }
+        else if(!(uriLength > 1 || glstringTextLength > 1))
+        {
+            addAssert(glstringErrorText);
+        }
+    }
+
+    /**
+     * Rules 4.a and 4.b.  On a sequence-quality, sequence-end should be more than sequence-start, and both should be within
+     * the range of the parent's start and end.
+     *
+     * @param attributes the attributes of the sequence-quality
+     */
+    private void checkSequenceQuality(Attributes attributes)
+    {
+        String sequenceStart = attributes.getValue("", "sequence-start");
+        String sequenceEnd = attributes.getValue("", "sequence-end");
+        if(sequenceStart != null && sequenceEnd != null && toDouble(sequenceStart) >= toDouble(sequenceEnd))
+        {
+            addReport(sequenceQualityOrderErrorText);
+        }
+
+        double range = toDouble(openEnds[depth - 1]) - toDouble(openStarts[depth - 1]);
+        if(!(toDouble(sequenceStart) <= range) || !(toDouble(sequenceEnd) <= range))
+        {
+            addAssert(sequenceQualityRangeErrorText);
+        }
+    }
+
+    /**
+     * Rules 4.2.3.b, 4.2.3.d and 4.2.4.b.  A consensus-sequence-block's end should be at least its start, it should be within the 
+     * reference-sequence it refers to, and it shouldn't have a phasing-group.
+     *
+     * @param attributes the attributes of the consensus-sequence-block
+     * @param start the start attribute of the consensus-sequence-block
+     * @param end the end attribute of the consensus-sequence-block
+     * @param referenceSequenceId the reference-sequence-id attribute of the consensus-sequence-block
+     */
+    private void checkBlock(Attributes attributes, String start, String end, String referenceSequenceId)
+    {
+        if(start != null && end != null && toDouble(start) > toDouble(end))
+        {
+            addReport(blockRangeErrorText);
+        }
+        if(referenceSequenceId != null)
+        {
+            blockReferenceSequenceIds.add(referenceSequenceId);
+        }
+        checkReference(referenceSequenceId, start, end, blockStartErrorText, blockEndErrorText);
+        if(attributes.getValue("", "phasing-group") != null)
+        {
+            addReport(phasingGroupErrorText);
+        }
+    }
+
+    /**
+     * Rules 5.2.b and 5.2.d.  A variant's end should be at least its start, and it should be within the reference-sequence 
+     * that its parent refers to.
+     *
+     * @param start the start attribute of the variant
+     * @param end the end attribute of the variant
+     */
+    private void checkVariant(String start, String end)
+    {
+        if(!(toDouble(end) >= toDouble(start)))
+        {
+            addAssert(variantRangeErrorText);
+        }
+        checkReference(openReferenceSequenceIds[depth - 1], start, end, variantStartErrorText, variantEndErrorText);
+    }
+
+    /**
+     * Rules 4.2.3.d and 5.2.d.  There should be a reference-sequence with the id referenceSequenceId, and a start before start, 
+     * and one with an end after end.  If the reference-sequence hasn't been found yet, the check is finished at the end of the document.
+     *
+     * @param referenceSequenceId the id of the reference-sequence, or null
+     * @param start the start attribute of the current element
+     * @param end the end attribute of the current element
+     * @param startErrorText the error text if there is no reference-sequence with a start before start
+     * @param endErrorText the error text if there is no reference-sequence with an end after end
+     */
+    private void checkReference(String referenceSequenceId, String start, String end, String startErrorText, String endErrorText)
+    {
+        PendingReference reference = new PendingReference();
+        reference.referenceSequenceId = referenceSequenceId;
+        reference.start = toDouble(start);
+        reference.end = toDouble(end);
+        reference.startErrorText = startErrorText;
+        reference.endErrorText = endErrorText;
+        if(!matchReference(reference))
+        {
+            reference.xPath = xPathTracker.generateXpath();
+            pendingReferences.add(reference);
+        }
+    }
+
+    /**
+     * Check a cross reference against the reference-sequence nodes found so far.
+     *
+     * @param reference the cross reference.  The error texts of the checks that pass are cleared.
+     * @return true if every check on the cross reference passed
+     */
+    private boolean matchReference(PendingReference reference)
+    {
+        double[] bounds = (reference.referenceSequenceId == null) ? null : referenceSequenceBounds.get(reference.referenceSequenceId);
+        if(bounds != null)
+        {
+            if(bounds[0] <= reference.start)
+            {
+                reference.startErrorText = null;
+            }
+            if(bounds[1] >= reference.end)
+            {
+                reference.endErrorText = null;
+            }
+        }
+        return reference.startErrorText == null && reference.endErrorText == null;
+    }
+
+    /**
+     * Rules 2.2.1.c, 4.2.3.d and 5.2.d, at the end of the document.  Every node has been found now, 
+     * so the cross references that still don't match are reported, in document order.
+     */
+    void finishReferences()
+    {
+        for(PendingReference reference : pendingReferences)
+        {
+            if(reference.errorText != null)
+            {
+                //A reference-sequence, looking for a consensus-sequence-block
+                if(!blockReferenceSequenceIds.contains(reference.referenceSequenceId))
+                {
+                    addAssert(reference.errorText, reference.xPath);
+                }
+            }
+            else if(!matchReference(reference))
+            {
+                if(reference.startErrorText != null)
+                {
+                    addAssert(reference.startErrorText, reference.xPath);
+                }
+                if(reference.endErrorText != null)
+                {
+                    addAssert(reference.endErrorText, reference.xPath);
+                }
+            }
+        }
+        pendingReferences.clear();
+    }
+
+    /**
+     * Add the reference-sequence nodes and consensus-sequence-block references found by a handler that checked another partition 
+     * of the same document.  The pending cross references of the partition are added separately, see SchemaValidator.
+     *
+     * @param partitionHandler the handler for the other partition
+     */
+    void addReferenceIndexes(StreamingRuleHandler partitionHandler)
+    {
+        for(Map.Entry<String, double[]> entry : partitionHandler.referenceSequenceBounds.entrySet())
+        {
+            double[] partitionBounds = entry.getValue();
+            double[] bounds = referenceSequenceBounds.get(entry.getKey());
+            if(bounds == null)
+            {
+                referenceSequenceBounds.put(entry.getKey(), partitionBounds.clone());
+                continue;
+            }
+            if(!Double.isNaN(partitionBounds[0]) && !(bounds[0] <= partitionBounds[0]))
+            {
+                bounds[0] = partitionBounds[0];
+            }
+            if(!Double.isNaN(partitionBounds[1]) && !(bounds[1] >= partitionBounds[1]))
+            {
+                bounds[1] = partitionBounds[1];
+            }
+        }
+        blockReferenceSequenceIds.addAll(partitionHandler.blockReferenceSequenceIds);
+    }
+
+    /**
+     * Rule 4.2.7.b.  A consensus-sequence-block with continuity=true should start where the previous sibling block with the same 
+     * reference-sequence-id and phase-set ends.  The schematron finds that block with preceding-sibling::*[...][1], 
+     * here we remember the last end for each reference-sequence-id and phase-set as the blocks come by.
+     *
+     * @param attributes the attributes of the consensus-sequence-block
+     */
+    private void checkContinuity(Attributes attributes)
+    {
+        if(blockDepth != depth)
+        {
+            previousBlockEnds.clear();
+            blockDepth = depth;
+        }
+
+        String referenceSequenceId = attributes.getValue("reference-sequence-id");
+        String phaseSet = attributes.getValue("phase-set");
+        if(referenceSequenceId == null || phaseSet == null)
+        {
+            //The schematron can't match a previous block without both of them.
+            return;
+        }
+
+        //The key can't be ambiguous, an attribute value can't contain a '<'.
+        String key = referenceSequenceId + "<" + phaseSet;
+        String start = attributes.getValue("start");
+        String previousEnd = previousBlockEnds.get(key);
+        if("true".equals(attributes.getValue("continuity")) && start != null && previousEnd != null 
+            && !start.equals(previousEnd) && !previousEnd.isEmpty())
+        {
+            addReport(continuityErrorText);
+        }
+        previousBlockEnds.put(key, attributes.getValue("end"));
+    }
+
+    /**
+     * Rules 5.3.b and 5.3.c, for the element that just started.  The variant ids under an element should be 0 to n-1, in order.
+     * 
+     * The schematron compares each variant's id with the ids of preceding-sibling::*[1] and following-sibling::*[1], and looks for 
+     * a variant with id 0 under the parent.  Here each element is compared with the sibling before it as it starts, which covers 
+     * both neighbors, and the search for id 0 is finished when the parent closes.  Nothing is allocated for a variant.
+     *
+     * @param isVariant true if the element is an HML variant
+     * @param id the id attribute of the element, or null if it doesn't have one
+     * @return the index of the variant under its parent, or 0 if the element is not a variant
+     */
+    private int checkVariantSiblings(boolean isVariant, String id)
+    {
+        //The last element that closed at this depth is the previous sibling.  If the parent closed since, it's at a lower depth.
+        boolean hasPreviousSibling = (siblingDepth == depth);
+        int variantIndex = 0;
+        if(isVariant)
+        {
+            if(variantGroupDepth != depth)
+            {
+                variantGroupDepth = depth;
+                variantCount = 0;
+                variantZeroFound = false;
+                variantIdNotNumber = false;
+                badVariants.clear();
+            }
+            variantIndex = ++variantCount;
+            if("0".equals(id))
+            {
+                variantZeroFound = true;
+            }
+
+            //The schematron reports an id that isn't a number.  The ids are compared as numbers, like the schematron's number().
+            double variantId = toDouble(id);
+            if(Double.isNaN(variantId))
+            {
+                badVariants.set(variantIndex);
+                variantIdNotNumber = true;
+            }
+            if(hasPreviousSibling)
+            {
+                double previousId = toDouble(siblingId);
+                if(!Double.isNaN(previousId) && !(previousId == variantId - 1))
+                {
+                    badVariants.set(variantIndex);
+                }
+            }
+        }
+        if(hasPreviousSibling && siblingVariantIndex > 0)
+        {
+            //This element is the following sibling of a variant.
+            double nextId = toDouble(id);
+            if(!Double.isNaN(nextId) && !(nextId == toDouble(siblingId) + 1))
+            {
+                badVariants.set(siblingVariantIndex);
+            }
+        }
+        return variantIndex;
+    }
+
+    /**
+     * Rules 5.3.b and 5.3.c, for the element that is closing.  If none of its variants has id 0, all of them break the rule.
+     * One result is added for the element, with the xpath of each variant that breaks the rule.
+     */
+    private void finishVariantGroup()
+    {
+        if(!variantZeroFound)
+        {
+            badVariants.set(1, variantCount + 1);
+        }
+        if(badVariants.isEmpty())
+        {
+            return;
+        }
+
+        String parentXpath = xPathTracker.generateXpath();
+        List<String> xPaths = new ArrayList<String>();
+        for(int i = badVariants.nextSetBit(0); i >= 0; i = badVariants.nextSetBit(i + 1))
+        {
+            xPaths.add(parentXpath + "/variant[" + i + "]");
+        }
+        //The report sorts the xpaths when it combines similar results, so they are sorted the same way here.
+        Collections.sort(xPaths);
+
+        ValidationResult ve = SchematronValidator.generateValidationError(context, variantIdErrorText, xPaths.get(0));
+        for(int i = 1; i < xPaths.size(); i++)
+        {
+            ve.addXPath(xPaths.get(i));
+        }
+        //An id that isn't a number is a successful report in the schematron, the rest are failed asserts.
+        if(variantIdNotNumber)
+        {
+            successfulReports.add(ve);
+        }
+        else
+        {
+            failedAsserts.add(ve);
+        }
+    }
+
+    /**
+     * Rule 4.2.3.e.  The sequence of a consensus-sequence-block, without whitespace, should be (end - start) characters long.
+     * The characters are counted as they are parsed, instead of building the normalized string like the schematron does.
+     */
+    private void checkSequenceLength()
+    {
+        //The schematron subtracts the attributes as doubles.  A missing attribute makes the test false, and the result is reported.
+        double expectedLength = toDouble(openEnds[depth - 1]) - toDouble(openStarts[depth - 1]);
+        if(!(expectedLength == sequenceLength))
+        {
+            addAssert(sequenceLengthErrorText);
+        }
+    }
+
+    /**
+     * Convert an attribute value to a double, the way XPath casts it.
+     *
+     * @param value the attribute value, or null if it is missing
+     * @return the value as a double, or NaN if it is missing or not a number
+     */
+    static double toDouble(String value)
+    {
+        if(value == null)
+        {
+            return Double.NaN;
+        }
+        String trimmed = value.trim();
+        if(isSmallInteger(trimmed))
+        {
+            //Most numbers in HML are small integers like ids, they don't need the pattern.
+            return Integer.parseInt(trimmed);
+        }
+        if(trimmed.equals("INF"))
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        if(trimmed.equals("-INF"))
+        {
+            return Double.NEGATIVE_INFINITY;
+        }
+        //Double.parseDouble also takes things like "Infinity", "0x1p3" and "1d", which aren't XPath numbers.
+        if(!xpathNumber.matcher(trimmed).matches())
+        {
+            return Double.NaN;
+        }
+        return Double.parseDouble(trimmed);
+    }
+
+    private static boolean isSmallInteger(String value)
+    {
+        int start = (value.startsWith("-") || value.startsWith("+")) ? 1 : 0;
+        if(value.length() == start || value.length() - start > 9)
+        {
+            return false;
+        }
+        for(int i = start; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if(c < '0' || c > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a result for a schematron report on the current element.
+     *
+     * @param errorText the text of the schematron rule
+     */
+    private void addReport(String errorText)
+    {
+        successfulReports.add(SchematronValidator.generateValidationError(context, errorText, xPathTracker.generateXpath()));
+    }
+
+    /**
+     * Add a result for a schematron assert on the current element.
+     *
+     * @param errorText the text of the schematron rule
+     */
+    private void addAssert(String errorText)
+    {
+        addAssert(errorText, xPathTracker.generateXpath());
+    }
+
+    /**
+     * Add a result for a schematron assert.
+     *
+     * @param errorText the text of the schematron rule
+     * @param xPath the location of the node the assert failed on
+     */
+    private void addAssert(String errorText, String xPath)
+    {
+        failedAsserts.add(SchematronValidator.generateValidationError(context, errorText, xPath));
+    }
+
+    /**
+     * Get the results found during the parse, without duplicates.  Successful reports come first, like the SchematronValidator's results.
+     *
+     * @return a ValidationResultCollector holding the results
+     */
+    public ValidationResultCollector getValidationErrors()
+    {
+        ValidationResultCollector validationErrors = new ValidationResultCollector(context.maxResultsPerRule);
+        for(ValidationResult ve : successfulReports)
+        {
+            validationErrors.add(ve);
+        }
+        for(ValidationResult ve : failedAsserts)
+        {
+            validationErrors.add(ve);
+        }
+        return validationErrors;
+    }
+}
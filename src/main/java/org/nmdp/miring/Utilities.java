@@ -247,10 +247,21 @@ public class Utilities
      * @return A String containing the HMLID root
      */
     public static String getHMLIDRoot(String xml)
+    {
+        return getHMLIDRoot(xmlToDocumentObject(xml));
+    }
+    
+    /**
+     * Get the HMLID Root from a parsed Document.  
+     *
+     * @param xmlDocument a Document containing the xml
+     * @return A String containing the HMLID root
+     */
+    public static String getHMLIDRoot(Document xmlDocument)
     {
         try
         {
-            return getHMLIDNode(xml).getAttributes().getNamedItem("root").getNodeValue();
+            return getHMLIDNode(xmlDocument).getAttributes().getNamedItem("root").getNodeValue();
         }
         catch(Exception e)
         {
@@ -267,10 +278,21 @@ public class Utilities
      * @return A String containing the HMLID extension
      */
     public static String getHMLIDExtension(String xml)
+    {
+        return getHMLIDExtension(xmlToDocumentObject(xml));
+    }
+    
+    /**
+     * Get the HMLID Extension from a parsed Document
+     *
+     * @param xmlDocument a Document containing the xml
+     * @return A String containing the HMLID extension
+     */
+    public static String getHMLIDExtension(Document xmlDocument)
     {
         try
         {
-            return getHMLIDNode(xml).getAttributes().getNamedItem("extension").getNodeValue();
+            return getHMLIDNode(xmlDocument).getAttributes().getNamedItem("extension").getNodeValue();
         }
         catch(Exception e)
         {
@@ -284,14 +306,14 @@ public class Utilities
      * both an HML document, and a Validation Results report, so use this method on both
      * types of xml.
      *
-     * @param xml A String containing HML
+     * @param xmlDocument a Document containing HML
      * @return the HML document's HMLID node
      */
     //why is this the only private method
-    private static Node getHMLIDNode(String xml)
+    private static Node getHMLIDNode(Document xmlDocument)
     {
         //hmlid should be a child nodes of the root xml element.
-        NodeList childrenNodes = xmlToRootElement(xml).getChildNodes();
+        NodeList childrenNodes = xmlDocument.getDocumentElement().getChildNodes();
         for(int i = 0; i < childrenNodes.getLength(); i++)
         {
             String childsFullName = childrenNodes.item(i).getNodeName();
@@ -308,6 +330,7 @@ public class Utilities
     
     /**
      * Add a ValidationError to a list of ValidationError objects.  This method disallows duplicates.
+     * The whole list is scanned for each error, so the validators use a ValidationResultCollector instead.
      *
      * @param validationErrors A list of ValidationError objects that you would like to add to.
      * @param ve a ValidationError to add to the list.
@@ -607,18 +630,30 @@ public class Utilities
     /**
      * Find the namespace name of a document.
      * 
-     * Will return null if hml is the root namespace
+     * Will return null if hml is the root namespace, or if there is no hml namespace.
      *
      * @param xml a string containing the xml text.
      * @return the name of the namespace that is used for HML.
      */
     public static String getNamespaceName(String xml)
+    {
+        return getNamespaceName(xmlToDocumentObject(xml));
+    }
+
+    /**
+     * Find the namespace name of a parsed document.
+     * 
+     * Will return null if hml is the root namespace, or if there is no hml namespace.
+     *
+     * @param xmlDocument a Document containing the xml.
+     * @return the name of the namespace that is used for HML.
+     */
+    public static String getNamespaceName(Document xmlDocument)
     {
         logger.debug("gettingNamespaceName");
             
         try
         {
-            Document xmlDocument = xmlToDocumentObject(xml);
             Element rootNode = xmlDocument.getDocumentElement();
             
             String xmlns = rootNode.getAttribute("xmlns");
@@ -654,7 +689,7 @@ public class Utilities
         {
             logger.error("Exception while cleaning namespaces",e);
         }
-        return xml;
+        return null;
     }
     
     
@@ -707,10 +742,21 @@ public class Utilities
      * @return a map of key-value pairs created from the property elements
      */
     public static HashMap<String,String> getPropertiesFromRootHml(String xml)
+    {
+        return getPropertiesFromRootHml(xmlToDocumentObject(xml));
+    }
+    
+    /**
+     * Get the HML Property elements where are immediately underneath the root HML, from a parsed Document.
+     *
+     * @param xmlDocument a Document containing the xml
+     * @return a map of key-value pairs created from the property elements
+     */
+    public static HashMap<String,String> getPropertiesFromRootHml(Document xmlDocument)
     {
         try
         {
-            Element rootElement = xmlToRootElement(xml);
+            Element rootElement = xmlDocument.getDocumentElement();
             NodeList children = rootElement.getChildNodes();
             HashMap<String,String> results = new HashMap<String,String>();
             
@@ -727,7 +773,7 @@ public class Utilities
         }
         catch(Exception e)
         {
-            logger.error("exception in getPropertiesFromRootXml: " + xml ,e);
+            logger.error("exception in getPropertiesFromRootXml" ,e);
             return null;
         }
     }
@@ -0,0 +1,245 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/** 
+ * ValidationContext holds the state of a single MIRING validation request.
+ * 
+ * A new context is created for every document that is validated, and it is passed through
+ * MiringValidator, SchemaValidator, SchematronValidator and ReportGenerator.  Nothing in here is shared between requests,
+ * so several documents can be validated in parallel without overwriting each other's results.
+*/
+public class ValidationContext
+{
+    ValidationResultCollector validationErrors;
+    //Tier 2 results found by the StreamingRuleHandler during the Tier 1 parse, or null if it didn't run.
+    ValidationResultCollector streamingRuleResults;
+    //The engine that checks the Tier 2 rules.
+    SchematronValidator.Tier2Engine tier2Engine = SchematronValidator.Tier2Engine.NATIVE;
+    //true to check the patterns of the Saxon schematron on separate threads
+    boolean parallelPatterns = false;
+    //true to split the samples of the document into partitions that are validated in parallel
+    boolean parallelSamples = false;
+    //true to start the Tier 2 validation before the Tier 1 validation is done
+    boolean speculativeTier2 = false;
+    //true to stop the schema validation at the first fatal result or rejection
+    boolean failFast = false;
+    //The most results kept for one MIRING rule, and the most xpaths on one result in the report.  0 means no limit.
+    int maxResultsPerRule = 0;
+    int maxXPathsPerResult = 0;
+    List<Sample> samples;
+    String schema;
+    String hmlNamespace;
+    //The submitted document, parsed once and shared by every stage.
+    ParsedHml parsedHml;
+    //The index in the report's results where sample level HML checks begin.
+    int hmlResultStart;
+    DateFormat dateFormat;
+
+    public ValidationContext()
+    {
+        this.validationErrors = new ValidationResultCollector(maxResultsPerRule);
+        this.samples = new ArrayList<Sample>();
+        this.schema = null;
+        this.hmlNamespace = null;
+        this.hmlResultStart = 0;
+    }
+
+    /**
+     * Clear the results of a previous schema validation, before starting a new one.
+     *
+     * @param schemaFileName the file name of the schema the next validation is performed against
+     */
+    void startSchemaValidation(String schemaFileName)
+    {
+        this.validationErrors = new ValidationResultCollector(maxResultsPerRule);
+        this.streamingRuleResults = null;
+        this.samples = new ArrayList<Sample>();
+        this.schema = schemaFileName;
+    }
+
+    public ValidationResultCollector getValidationErrors()
+    {
+        return validationErrors;
+    }
+
+    public ValidationResultCollector getStreamingRuleResults()
+    {
+        return streamingRuleResults;
+    }
+
+    public SchematronValidator.Tier2Engine getTier2Engine()
+    {
+        return tier2Engine;
+    }
+
+    /**
+     * Choose the engine that checks the Tier 2 rules.
+     *
+     * @param tier2Engine the Tier2Engine, NATIVE by default
+     */
+    public void setTier2Engine(SchematronValidator.Tier2Engine tier2Engine)
+    {
+        this.tier2Engine = tier2Engine;
+    }
+
+    public boolean isParallelPatterns()
+    {
+        return parallelPatterns;
+    }
+
+    /**
+     * Choose whether the Saxon schematron checks its patterns on separate threads.
+     *
+     * @param parallelPatterns true to check each pattern on its own thread, false to check them one after the other (the default)
+     */
+    public void setParallelPatterns(boolean parallelPatterns)
+    {
+        this.parallelPatterns = parallelPatterns;
+    }
+
+    public boolean isParallelSamples()
+    {
+        return parallelSamples;
+    }
+
+    /**
+     * Choose whether the samples of the document are validated in parallel during the single pass schema validation.
+     *
+     * @param parallelSamples true to validate partitions of the samples on separate threads, false to validate the whole document in one parse (the default)
+     */
+    public void setParallelSamples(boolean parallelSamples)
+    {
+        this.parallelSamples = parallelSamples;
+    }
+
+    public boolean isSpeculativeTier2()
+    {
+        return speculativeTier2;
+    }
+
+    /**
+     * Choose whether the Tier 2 validation runs on another thread at the same time as the Tier 1 validation.
+     *
+     * @param speculativeTier2 true to start Tier 2 with Tier 1 and throw its results away if Tier 1 is fatal, false to start Tier 2 after Tier 1 (the default)
+     */
+    public void setSpeculativeTier2(boolean speculativeTier2)
+    {
+        this.speculativeTier2 = speculativeTier2;
+    }
+
+    public boolean isFailFast()
+    {
+        return failFast;
+    }
+
+    /**
+     * Choose whether the schema validation stops at the first fatal result.
+     *
+     * @param failFast true to stop the parse at the first HMLFATAL, FATAL or reject result, false to report every result (the default)
+     */
+    public void setFailFast(boolean failFast)
+    {
+        this.failFast = failFast;
+    }
+
+    public int getMaxResultsPerRule()
+    {
+        return maxResultsPerRule;
+    }
+
+    /**
+     * Set the most results that are collected for one MIRING rule.  Further occurrences are only counted.
+     *
+     * @param maxResultsPerRule the most results for one rule, severity and sample, or 0 for no limit, which is the default
+     */
+    public void setMaxResultsPerRule(int maxResultsPerRule)
+    {
+        this.maxResultsPerRule = maxResultsPerRule;
+        this.validationErrors.maxResultsPerRule = maxResultsPerRule;
+    }
+
+    public int getMaxXPathsPerResult()
+    {
+        return maxXPathsPerResult;
+    }
+
+    /**
+     * Set the most xpaths that are listed on one result in the report, after similar results are combined.  Further xpaths are only counted.
+     *
+     * @param maxXPathsPerResult the most xpaths for one result, or 0 for no limit, which is the default
+     */
+    public void setMaxXPathsPerResult(int maxXPathsPerResult)
+    {
+        this.maxXPathsPerResult = maxXPathsPerResult;
+    }
+
+    public List<Sample> getSamples()
+    {
+        return samples;
+    }
+
+    public String getSchema()
+    {
+        return schema;
+    }
+
+    public ParsedHml getParsedHml()
+    {
+        return parsedHml;
+    }
+
+    public String getHmlNamespace()
+    {
+        return hmlNamespace;
+    }
+
+    public int getHmlResultStart()
+    {
+        return hmlResultStart;
+    }
+
+    public void setHmlResultStart(int hmlResultStart)
+    {
+        this.hmlResultStart = hmlResultStart;
+    }
+
+    /**
+     * Get the date format used for the report timestamp.  SimpleDateFormat is not thread safe, so every context gets its own.
+     *
+     * @return a DateFormat for this request
+     */
+    public DateFormat getDateFormat()
+    {
+        if(dateFormat == null)
+        {
+            dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
+        }
+        return dateFormat;
+    }
+}
@@ -24,6 +24,7 @@ package org.nmdp.miring;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /** 
  * A simple class for storing a Validation Result.  They are sorted by MIRING Rule ID.
@@ -36,6 +37,8 @@ public class ValidationResult implements Comparable<ValidationResult>
     String sampleID;
     List<String> xPaths;
     Severity severity;
+    //The number of further occurrences of this result that were left out of the report, to keep it a reasonable size.
+    int omittedOccurrences = 0;
 
     public enum Severity
     {
@@ -64,13 +67,21 @@ public class ValidationResult implements Comparable<ValidationResult>
     @Override
     public boolean equals(Object otherObject) 
     {
+        if(this == otherObject)
+        {
+            return true;
+        }
+        if(!(otherObject instanceof ValidationResult))
+        {
+            return false;
+        }
         ValidationResult otherError = (ValidationResult) otherObject;
         if(
-            this.errorText.equals(otherError.errorText)
+            Objects.equals(this.errorText, otherError.errorText)
             && this.severity == otherError.severity
-            && this.solutionText.equals(otherError.solutionText)
-            && this.xPaths.equals(otherError.xPaths)
-            && this.miringRule.equals(otherError.miringRule)
+            && Objects.equals(this.solutionText, otherError.solutionText)
+            && Objects.equals(this.xPaths, otherError.xPaths)
+            && Objects.equals(this.miringRule, otherError.miringRule)
         )
         {
             return true;
@@ -81,6 +92,13 @@ public class ValidationResult implements Comparable<ValidationResult>
         }
     }
     
+    @Override
+    public int hashCode()
+    {
+        //Uses the same fields as equals, so ValidationResults can be kept in a HashSet.
+        return Objects.hash(errorText, severity, solutionText, xPaths, miringRule);
+    }
+    
     @Override
     public int compareTo(ValidationResult o)
     {
@@ -160,4 +178,20 @@ public class ValidationResult implements Comparable<ValidationResult>
         this.sampleID = sampleID;
     }
 
+    public int getOmittedOccurrences()
+    {
+        return omittedOccurrences;
+    }
+
+    /**
+     * Count occurrences of this result that were left out.  They aren't part of equals or hashCode, so this can be called
+     * on a result that has already been collected.
+     *
+     * @param occurrences the number of occurrences that were left out
+     */
+    public void addOmittedOccurrences(int occurrences)
+    {
+        this.omittedOccurrences += occurrences;
+    }
+
 }
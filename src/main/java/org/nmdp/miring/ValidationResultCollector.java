@@ -0,0 +1,180 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * ValidationResultCollector gathers the ValidationResults found during a validation, and drops duplicates as they are added.
+ * 
+ * The results are kept in a LinkedHashSet, so checking for a duplicate doesn't scan every result found so far, 
+ * and the results come back out in the order they were first added.  The report sorts them by MIRING rule ID later.
+ * A ValidationResult should not be changed (for example by adding an xpath) after it is added, because that changes its hashCode.
+ * 
+ * The number of results kept for each MIRING rule can be capped, so a mistake repeated on every node of a large document
+ * doesn't fill the memory and the report.  A result over the cap is counted on a kept result with the same rule, 
+ * as an omitted occurrence, instead of being added.  The cap is applied separately to each severity and each sample 
+ * (the sample step in the first xpath), so every sample with a result keeps at least one, and its compliance 
+ * on the report doesn't depend on the cap.
+ * 
+ * The omitted results are remembered, up to MAX_OMITTED_RESULTS of them, so an omitted result added again isn't counted twice.
+ * Past that, every omitted result is counted, so the count can include repeats.
+*/
+public class ValidationResultCollector implements Iterable<ValidationResult>
+{
+    static Logger logger = LoggerFactory.getLogger(ValidationResultCollector.class);
+    //The most omitted results that are remembered to keep repeats out of the omitted occurrences.
+    static final int MAX_OMITTED_RESULTS = 10000;
+    
+    Set<ValidationResult> results = new LinkedHashSet<ValidationResult>();
+    //The most results kept for one MIRING rule, severity and sample, or 0 to keep every result.
+    int maxResultsPerRule;
+    Map<String, Integer> ruleCounts = new HashMap<String, Integer>();
+    //The last result kept for each rule, severity and sample, and for each of those and error text.  Omitted occurrences are counted on them.
+    Map<String, ValidationResult> lastResults = new HashMap<String, ValidationResult>();
+    //The omitted results, so the same result added again isn't counted twice.
+    Set<ValidationResult> omittedResults = new HashSet<ValidationResult>();
+
+    /**
+     * Constructor for a ValidationResultCollector that keeps every result.
+     */
+    public ValidationResultCollector()
+    {
+        this(0);
+    }
+
+    /**
+     * Constructor for a ValidationResultCollector that keeps a limited number of results for each MIRING rule.
+     *
+     * @param maxResultsPerRule the most results to keep for one rule, or 0 to keep every result
+     */
+    public ValidationResultCollector(int maxResultsPerRule)
+    {
+        this.maxResultsPerRule = maxResultsPerRule;
+    }
+
+    /**
+     * Add a ValidationResult, unless an equal one has already been added, or its rule already has the most results allowed
+     * for its severity and sample.
+     *
+     * @param ve the ValidationResult to add
+     * @return true if the result was added, false if it was a duplicate or it was counted as an omitted occurrence
+     */
+    public boolean add(ValidationResult ve)
+    {
+        if(maxResultsPerRule > 0 && !results.contains(ve))
+        {
+            String rule = ve.getMiringRule() + "\n" + ve.getSeverity() + "\n" + getSampleStep(ve);
+            String ruleText = rule + "\n" + ve.getErrorText();
+            Integer count = ruleCounts.get(rule);
+            if(count != null && count >= maxResultsPerRule)
+            {
+                if(omittedResults.contains(ve))
+                {
+                    return false;
+                }
+                if(omittedResults.size() < MAX_OMITTED_RESULTS)
+                {
+                    omittedResults.add(ve);
+                }
+                //Count it on a result the report combines it with if there is one, otherwise on one with the same rule.
+                ValidationResult keptResult = lastResults.containsKey(ruleText) ? lastResults.get(ruleText) : lastResults.get(rule);
+                keptResult.addOmittedOccurrences(1 + ve.getOmittedOccurrences());
+                return false;
+            }
+            ruleCounts.put(rule, (count == null) ? 1 : count + 1);
+            lastResults.put(rule, ve);
+            lastResults.put(ruleText, ve);
+        }
+
+        //Don't add duplicate errors, they don't help.
+        boolean added = results.add(ve);
+        if(!added)
+        {
+            logger.debug("This validation error is a duplicate, not adding it to the list.");
+        }
+        return added;
+    }
+
+    /**
+     * Get the sample step of the first xpath of a result, such as "/sample[2]".  The report assigns the result to that sample.
+     *
+     * @param ve a ValidationResult
+     * @return the sample step, or an empty String if the result isn't in a sample
+     */
+    static String getSampleStep(ValidationResult ve)
+    {
+        List<String> xPaths = ve.getXPaths();
+        if(xPaths == null || xPaths.isEmpty() || xPaths.get(0) == null)
+        {
+            return "";
+        }
+        String xPath = xPaths.get(0);
+        int sampleStart = xPath.indexOf("/sample[");
+        int sampleEnd = (sampleStart < 0) ? -1 : xPath.indexOf("]", sampleStart);
+        return (sampleEnd < 0) ? "" : xPath.substring(sampleStart, sampleEnd + 1);
+    }
+
+    public int size()
+    {
+        return results.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return results.isEmpty();
+    }
+
+    public void clear()
+    {
+        results.clear();
+        ruleCounts.clear();
+        lastResults.clear();
+        omittedResults.clear();
+    }
+
+    @Override
+    public Iterator<ValidationResult> iterator()
+    {
+        return results.iterator();
+    }
+
+    /**
+     * Get the collected results, in the order they were added.
+     *
+     * @return an array of ValidationResult objects.  Empty, not null, if nothing was found.
+     */
+    public ValidationResult[] toArray()
+    {
+        return results.toArray(new ValidationResult[results.size()]);
+    }
+}
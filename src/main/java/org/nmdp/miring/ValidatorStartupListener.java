@@ -0,0 +1,60 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** 
+ * ValidatorStartupListener prepares the validator when the web application starts, 
+ * so the first validation request doesn't have to wait for the schemas and schematron rules to compile, or the rule templates to load.
+*/
+public class ValidatorStartupListener implements ServletContextListener
+{
+    Logger logger = LoggerFactory.getLogger(ValidatorStartupListener.class);
+
+    @Override
+    public void contextInitialized(ServletContextEvent event)
+    {
+        logger.debug("Loading the bundled schemas");
+        SchemaRegistry.loadBundledSchemas();
+        RuleCatalog.getInstance();
+        try
+        {
+            logger.debug("Compiling the schematron rules");
+            SaxonSchematronEngine.getInstance().getCompiledSchema("/org/nmdp/miring/schematron/MiringAll.sch");
+        }
+        catch(Exception e)
+        {
+            logger.error("Could not compile the schematron rules at startup", e);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event)
+    {
+    }
+}
@@ -0,0 +1,138 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** 
+ * XPathTracker keeps track of where a SAX parse is in the document, so an xpath like /hml[1]/sample[3]/typing[1] can be generated.
+ * 
+ * Only the open elements are kept, as a stack.  Each open element has a map of child element name to how many of those children 
+ * have been started so far, which is all we need to know the index of the next child.  Memory is proportional to the depth 
+ * of the document, not the number of elements in it.
+ * 
+ * The root element is never popped, so errors reported after the document ends still point at the root.
+*/
+public class XPathTracker
+{
+    List<String> nodeNames = new ArrayList<String>();
+    List<Integer> nodeIndexes = new ArrayList<Integer>();
+    //childCounts.get(i) holds the child counts of the element at depth i.  The maps are reused as elements open and close.
+    List<Map<String, Integer>> childCounts = new ArrayList<Map<String, Integer>>();
+    int depth = 0;
+
+    /**
+     * An element has started.  It becomes the current element.
+     *
+     * @param nodeName the local name of the element
+     */
+    public void startElement(String nodeName)
+    {
+        int nodeIndex = 1;
+        if(depth > 0)
+        {
+            nodeIndex = getChildCount(nodeName) + 1;
+            childCounts.get(depth - 1).put(nodeName, nodeIndex);
+        }
+
+        if(depth < nodeNames.size())
+        {
+            nodeNames.set(depth, nodeName);
+            nodeIndexes.set(depth, nodeIndex);
+            childCounts.get(depth).clear();
+        }
+        else
+        {
+            nodeNames.add(nodeName);
+            nodeIndexes.add(nodeIndex);
+            childCounts.add(new HashMap<String, Integer>());
+        }
+        depth++;
+    }
+
+    /**
+     * The current element has ended.  Its parent becomes the current element, unless it is the root element.
+     */
+    public void endElement()
+    {
+        if(depth > 1)
+        {
+            depth--;
+        }
+    }
+
+    /**
+     * Get the number of children with the name childName that the current element has started so far.
+     *
+     * @param childName a child element's name
+     * @return the number of children with that name, 0 if there are none
+     */
+    public int getChildCount(String childName)
+    {
+        if(depth == 0)
+        {
+            return 0;
+        }
+        Integer count = childCounts.get(depth - 1).get(childName);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Get the name of the current element.
+     *
+     * @return the local name of the current element, or an empty String if no element has started yet
+     */
+    public String getCurrentNodeName()
+    {
+        return (depth == 0) ? "" : nodeNames.get(depth - 1);
+    }
+
+    /**
+     * Generate an Xpath for the current element.
+     *
+     * @return an xPath specifying the location of the current element, or an empty String if no element has started yet
+     */
+    public String generateXpath()
+    {
+        StringBuilder xPath = new StringBuilder();
+        for(int i = 0; i < depth; i++)
+        {
+            xPath.append('/').append(nodeNames.get(i)).append('[').append(nodeIndexes.get(i)).append(']');
+        }
+        return xPath.toString();
+    }
+
+    /**
+     * Forget the document, so the tracker can be used for another one.
+     */
+    public void clear()
+    {
+        nodeNames.clear();
+        nodeIndexes.clear();
+        childCounts.clear();
+        depth = 0;
+    }
+}
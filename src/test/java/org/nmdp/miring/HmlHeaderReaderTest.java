@@ -0,0 +1,111 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class HmlHeaderReaderTest
+{
+    Logger logger = LoggerFactory.getLogger(HmlHeaderReaderTest.class);
+
+    @Test
+    public void testReadHeader()
+    {
+        logger.debug("starting testReadHeader");
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        HmlHeader header = HmlHeaderReader.read(new StringReader(demoGoodXML));
+
+        assertEquals("1.0.1", header.getVersion());
+        assertNull(header.getNamespacePrefix());
+        assertEquals("1234", header.getHmlIdRoot());
+        assertEquals("abcd", header.getHmlIdExtension());
+
+        //The header should agree with the DOM based utilities.
+        assertEquals(Utilities.getHMLIDRoot(demoGoodXML), header.getHmlIdRoot());
+        assertEquals(Utilities.getHMLIDExtension(demoGoodXML), header.getHmlIdExtension());
+        assertEquals(Utilities.getPropertiesFromRootHml(demoGoodXML), header.getProperties());
+    }
+
+    @Test
+    public void testCustomNamespace()
+    {
+        String customXML = Utilities.readXmlResource("/org/nmdp/miring/hml/HMLWithCustomNamespace.xml");
+        HmlHeader header = HmlHeaderReader.read(new StringReader(customXML));
+
+        assertEquals("ns2", header.getNamespacePrefix());
+        assertEquals(Utilities.getNamespaceName(customXML), header.getNamespacePrefix());
+        assertEquals("2.16.840", header.getHmlIdRoot());
+        assertEquals("20150220", header.getHmlIdExtension());
+        assertEquals("Property1Value", header.getProperties().get("Property1"));
+        assertEquals("Property2Value", header.getProperties().get("Property2"));
+    }
+
+    @Test
+    public void testStopsAtFirstSample()
+    {
+        //Everything after the first sample is garbage, but the header is still read.
+        String xml = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\" version=\"1.0.2\">"
+            + "<hmlid root=\"1.2.3\" extension=\"ext\"/><sample id=\"1\"><this is not & xml";
+        HmlHeader header = HmlHeaderReader.read(new StringReader(xml));
+
+        assertEquals("1.0.2", header.getVersion());
+        assertEquals("1.2.3", header.getHmlIdRoot());
+        assertEquals("ext", header.getHmlIdExtension());
+        assertNull(header.getProperties());
+    }
+
+    @Test
+    public void testNoVersion()
+    {
+        String xml = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><hmlid root=\"1.2.3\" extension=\"ext\"/><sample id=\"1\"/></hml>";
+        assertNull(HmlHeaderReader.read(new StringReader(xml)).getVersion());
+
+        //Without a version, a document that isn't well formed is 1.0.1, whether it breaks in the header or after the first sample.
+        String brokenHeader = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><hmlid root=\"1.2.3\" extension=\"ext\"><sample id=\"1\"/></hml>";
+        HmlHeader header = HmlHeaderReader.read(new StringReader(brokenHeader));
+        assertEquals("1.0.1", header.getVersion());
+        assertEquals("1.2.3", header.getHmlIdRoot());
+
+        String brokenSample = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><hmlid root=\"1.2.3\" extension=\"ext\"/><sample id=\"1\"><this is not & xml";
+        header = HmlHeaderReader.read(new StringReader(brokenSample));
+        assertEquals("1.0.1", header.getVersion());
+        assertEquals("1.2.3", header.getHmlIdRoot());
+    }
+
+    @Test
+    public void testUnreadableHeader()
+    {
+        String invalidXML = Utilities.readXmlResource("/org/nmdp/miring/hml/invalid.prolog.xml.txt");
+        HmlHeader header = HmlHeaderReader.read(new StringReader(invalidXML));
+
+        assertEquals("1.0.1", header.getVersion());
+        assertNull(header.getHmlIdRoot());
+        assertNull(header.getProperties());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.sun.jersey.spi.CloseableService;
+
+public class MiringValidatorServiceTest
+{
+    Logger logger = LoggerFactory.getLogger(MiringValidatorServiceTest.class);
+
+    @Test
+    public void testTempFileIsOwnerOnly() throws Exception
+    {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        File file = MiringValidatorService.createTempFile();
+        try
+        {
+            assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE), Files.getPosixFilePermissions(file.toPath()));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTempFileDeletedAfterReport() throws Exception
+    {
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        Set<String> before = getTempFiles();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MiringValidatorService().validateMiringXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), false).write(out);
+        assertTrue(out.toString("UTF-8").contains("<miring-report"));
+        assertEquals(before, getTempFiles());
+    }
+
+    @Test
+    public void testTempFileDeletedWhenReportNotWritten() throws Exception
+    {
+        //The request ends without the report being written, for example when the client goes away.
+        final List<Closeable> closeables = new ArrayList<Closeable>();
+        MiringValidatorService service = new MiringValidatorService();
+        service.closeableService = new CloseableService()
+        {
+            @Override
+            public void add(Closeable closeable)
+            {
+                closeables.add(closeable);
+            }
+        };
+
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        Set<String> before = getTempFiles();
+        service.validateMiringXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), false);
+        assertEquals(before.size() + 1, getTempFiles().size());
+
+        assertEquals(1, closeables.size());
+        closeables.get(0).close();
+        assertEquals(before, getTempFiles());
+    }
+
+    private static Set<String> getTempFiles()
+    {
+        Set<String> names = new HashSet<String>();
+        for(File file : new File(System.getProperty("java.io.tmpdir")).listFiles())
+        {
+            if(file.getName().startsWith("miring") && file.getName().endsWith(".xml"))
+            {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -23,8 +23,19 @@
 package org.nmdp.miring;
 
 import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.nmdp.miring.MiringValidator;
 import org.nmdp.miring.Utilities;
+import org.nmdp.miring.ValidationResult.Severity;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,4 +66,184 @@ public class MiringValidatorTest
         assertFalse(Utilities.containsErrorNode(goodValidatorResults, "The node variant is missing a quality-score attribute."));
         assertTrue(Utilities.containsErrorNode(badValidatorResults, "The node variant is missing a quality-score attribute."));
     }
+
+    @Test
+    public void testServiceStreamsReport() throws Exception
+    {
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MiringValidatorService().validateMiring(demoBadXML).write(out);
+        String streamedResults = out.toString("UTF-8");
+
+        assertTrue(Utilities.containsErrorNode(streamedResults, "There is a missing hmlid node underneath the hml node."));
+        assertTrue(Utilities.containsErrorNode(streamedResults, "The node variant is missing a quality-score attribute."));
+
+        out = new ByteArrayOutputStream();
+        new MiringValidatorService().validateMiring("").write(out);
+        assertTrue(Utilities.containsErrorNode(out.toString("UTF-8"), "XML is length 0."));
+    }
+
+    @Test
+    public void testFailFast() throws Exception
+    {
+        File hmlDirectory = new File(MiringValidatorTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+            MiringValidator validator = new MiringValidator(xml);
+            String report = validator.validate();
+            if(countFailFastStops(validator) <= 1)
+            {
+                //Stopping at the only fatal result, or not at all, reports the same thing.
+                MiringValidator failFastValidator = new MiringValidator(xml);
+                failFastValidator.setFailFast(true);
+                assertEquals(hmlFile.getName(), stripTimestamp(report), stripTimestamp(failFastValidator.validate()));
+            }
+        }
+
+        //demogood.xml with unknown nodes in its sample, typing and hml nodes.
+        String badXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml")
+            .replace("</typing>", "<unknown-node/></typing>").replace("</sample>", "<unknown-node/></sample>").replace("</hml>", "<unknown-node/></hml>");
+        MiringValidator validator = new MiringValidator(badXML);
+        String report = validator.validate();
+        assertTrue(countFailFastStops(validator) > 1);
+
+        MiringValidator failFastValidator = new MiringValidator(badXML);
+        failFastValidator.setFailFast(true);
+        String failFastReport = failFastValidator.validate();
+        assertEquals(1, countFailFastStops(failFastValidator));
+        assertTrue(failFastReport.length() < report.length());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MiringValidatorService().validateMiring(badXML, true).write(out);
+        assertEquals(stripTimestamp(failFastReport), stripTimestamp(out.toString("UTF-8")));
+    }
+
+    @Test
+    public void testMaxResultsPerRule() throws Exception
+    {
+        //Every variant of demogood.xml copied 50 times, without its quality-score.
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        int variantStart = xml.indexOf("<variant ");
+        int variantEnd = xml.indexOf("</variant>", variantStart) + "</variant>".length();
+        String variant = xml.substring(variantStart, variantEnd).replaceAll("quality-score=\"[^\"]*\"", "");
+        StringBuilder variants = new StringBuilder();
+        for(int i = 0; i < 50; i++)
+        {
+            variants.append(variant.replaceFirst("id=\"[^\"]*\"", "id=\"" + i + "\"")).append("\n");
+        }
+        xml = xml.substring(0, variantStart) + variants + xml.substring(variantEnd);
+
+        MiringValidator validator = new MiringValidator(xml);
+        validator.setMaxResultsPerRule(0);
+        String report = validator.validate();
+        assertFalse(report.contains("omitted-occurrences"));
+
+        MiringValidator cappedValidator = new MiringValidator(xml);
+        cappedValidator.setMaxResultsPerRule(10);
+        String cappedReport = cappedValidator.validate();
+        assertTrue(cappedReport.contains("omitted-occurrences=\"40\""));
+        assertTrue(cappedReport.length() < report.length());
+
+        //The service sets the caps from its query parameters.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new MiringValidatorService().validateMiring(xml, false, 10, 0).write(out);
+        assertEquals(stripTimestamp(cappedReport), stripTimestamp(out.toString("UTF-8")));
+    }
+
+    @Test
+    public void testMaxResultsPerRuleKeepsSampleCompliance() throws Exception
+    {
+        //demogood.xml's sample copied 6 times with new ids, without the quality-scores of its variants, so every sample fails the same rules.
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml").replaceAll("(<variant [^>]*)quality-score=\"[^\"]*\"", "$1");
+        int sampleStart = xml.indexOf("<sample ");
+        int sampleEnd = xml.indexOf("</sample>") + "</sample>".length();
+        String sample = xml.substring(sampleStart, sampleEnd);
+        StringBuilder samples = new StringBuilder();
+        for(int i = 0; i < 6; i++)
+        {
+            samples.append(sample.replaceFirst("id=\"[^\"]*\"", "id=\"sample" + i + "\"").replace("\"ref1\"", "\"ref" + i + "\"")).append("\n");
+        }
+        xml = xml.substring(0, sampleStart) + samples + xml.substring(sampleEnd);
+
+        MiringValidator validator = new MiringValidator(xml);
+        List<String> sampleElements = getSampleElements(validator.validate());
+        assertEquals(6, sampleElements.size());
+        for(String sampleElement : sampleElements)
+        {
+            assertTrue(sampleElement, sampleElement.contains("miring-compliant=\"false\""));
+        }
+
+        MiringValidator cappedValidator = new MiringValidator(xml);
+        cappedValidator.setMaxResultsPerRule(1);
+        cappedValidator.setMaxXPathsPerResult(1);
+        String cappedReport = cappedValidator.validate();
+        assertTrue(cappedReport.contains("omitted-occurrences"));
+        assertEquals(sampleElements, getSampleElements(cappedReport));
+
+        //The partitions of a parallel validation are capped for each sample, the same way.
+        MiringValidator parallelValidator = new MiringValidator(xml);
+        parallelValidator.setParallelSamples(true);
+        parallelValidator.setMaxResultsPerRule(1);
+        parallelValidator.setMaxXPathsPerResult(1);
+        assertEquals(stripTimestamp(cappedReport), stripTimestamp(parallelValidator.validate()));
+    }
+
+    private static List<String> getSampleElements(String report)
+    {
+        List<String> sampleElements = new ArrayList<String>();
+        Matcher matcher = Pattern.compile("<sample [^>]*>").matcher(report);
+        while(matcher.find())
+        {
+            sampleElements.add(matcher.group());
+        }
+        return sampleElements;
+    }
+
+    @Test
+    public void testXmlBody() throws Exception
+    {
+        //The raw xml body gets the same report as the form parameter.
+        File hmlDirectory = new File(MiringValidatorTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+            ByteArrayOutputStream formOut = new ByteArrayOutputStream();
+            new MiringValidatorService().validateMiring(xml, false).write(formOut);
+            ByteArrayOutputStream bodyOut = new ByteArrayOutputStream();
+            new MiringValidatorService().validateMiringXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), false).write(bodyOut);
+            assertEquals(hmlFile.getName(), stripTimestamp(formOut.toString("UTF-8")), stripTimestamp(bodyOut.toString("UTF-8")));
+        }
+
+        ByteArrayOutputStream formOut = new ByteArrayOutputStream();
+        new MiringValidatorService().validateMiring("", false).write(formOut);
+        ByteArrayOutputStream bodyOut = new ByteArrayOutputStream();
+        new MiringValidatorService().validateMiringXml(new ByteArrayInputStream(new byte[0]), false).write(bodyOut);
+        assertEquals(stripTimestamp(formOut.toString("UTF-8")), stripTimestamp(bodyOut.toString("UTF-8")));
+    }
+
+    private static String stripTimestamp(String report)
+    {
+        return report.replaceAll("timestamp=\"[^\"]*\"", "timestamp=\"\"");
+    }
+
+    /**
+     * Count the HML and Tier 1 results that stop a fail fast validation.
+     */
+    private static int countFailFastStops(MiringValidator validator)
+    {
+        int stops = 0;
+        for(ValidationResult[] results : new ValidationResult[][] {validator.hmlValidationErrors, validator.tier1ValidationErrors})
+        {
+            for(int i = 0; results != null && i < results.length; i++)
+            {
+                Severity severity = results[i].getSeverity();
+                if(severity == Severity.FATAL || severity == Severity.HMLFATAL || "reject".equals(results[i].getMiringRule()))
+                {
+                    stops++;
+                }
+            }
+        }
+        return stops;
+    }
 }
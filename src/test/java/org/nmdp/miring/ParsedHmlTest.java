@@ -0,0 +1,157 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class ParsedHmlTest
+{
+    Logger logger = LoggerFactory.getLogger(ParsedHmlTest.class);
+
+    @Test
+    public void testDocumentIsParsedOnce()
+    {
+        logger.debug("starting testDocumentIsParsedOnce");
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        ParsedHml hml = new ParsedHml(demoGoodXML);
+
+        assertEquals(0, hml.getParseCount());
+        assertNotNull(hml.getDocument());
+        assertSame(hml.getDocument(), hml.getDocument());
+        assertEquals(1, hml.getParseCount());
+        assertEquals(hml.getLength(), hml.getBytesParsed());
+    }
+
+    @Test
+    public void testValidationParseCount()
+    {
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        MiringValidator validator = new MiringValidator(demoGoodXML);
+        validator.setSinglePassSchemaValidation(false);
+        validator.validate();
+
+        //The header, the separate HML and Tier 1 schema passes, and the schematron validation.  The header stops at the first sample.
+        ParsedHml hml = validator.getParsedHml();
+        assertEquals(4, hml.getParseCount());
+        assertTrue(hml.getBytesParsed() > 3 * hml.getLength());
+        assertTrue(hml.getBytesParsed() <= 4 * hml.getLength());
+    }
+
+    @Test
+    public void testFileBackedDocument() throws Exception
+    {
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        File file = File.createTempFile("miring", ".xml");
+        try
+        {
+            Files.write(file.toPath(), demoGoodXML.getBytes(StandardCharsets.UTF_8));
+            ParsedHml stringHml = new ParsedHml(demoGoodXML);
+            ParsedHml fileHml = new ParsedHml(file);
+
+            assertFalse(fileHml.isEmpty());
+            assertNull(fileHml.getXml());
+            assertEquals(stringHml.getLength(), fileHml.getLength());
+            assertEquals(stringHml.getHeader().getVersion(), fileHml.getHeader().getVersion());
+            assertEquals(stringHml.getHeader().getHmlIdRoot(), fileHml.getHeader().getHmlIdRoot());
+            assertEquals(stringHml.getHeader().getHmlIdExtension(), fileHml.getHeader().getHmlIdExtension());
+            assertEquals(stringHml.getHeader().getProperties(), fileHml.getHeader().getProperties());
+            assertEquals(1, fileHml.getParseCount());
+            assertTrue(fileHml.getBytesParsed() > 0);
+
+            Files.write(file.toPath(), new byte[0]);
+            assertTrue(new ParsedHml(file).isEmpty());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLengthIsUtf8Bytes()
+    {
+        //One, two, three and four byte characters.
+        String text = "a\u00e9\u20ac\ud83d\ude00";
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, ParsedHml.utf8Length(text));
+
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml").replace("</hml>", "<!-- " + text + " --></hml>");
+        ParsedHml hml = new ParsedHml(demoGoodXML);
+        assertEquals(demoGoodXML.getBytes(StandardCharsets.UTF_8).length, hml.getLength());
+        hml.getHeader();
+        assertTrue(hml.getBytesParsed() > 0);
+        assertTrue(hml.getBytesParsed() <= hml.getLength());
+    }
+
+    @Test
+    public void testEarlyStopCountsBytesRead()
+    {
+        //demogood.xml with an unknown node at the start of its sample, followed by 50 more copies of the sample.
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        int sampleStart = xml.indexOf("<sample ");
+        int sampleEnd = xml.indexOf("</sample>") + "</sample>".length();
+        String sample = xml.substring(sampleStart, sampleEnd);
+        StringBuilder samples = new StringBuilder(sample.replaceFirst("<typing", "<unknown-node/><typing"));
+        for(int i = 0; i < 50; i++)
+        {
+            samples.append("\n").append(sample.replaceFirst("id=\"[^\"]*\"", "id=\"sample" + i + "\"").replace("\"ref1\"", "\"ref" + i + "\""));
+        }
+        xml = xml.substring(0, sampleStart) + samples + xml.substring(sampleEnd);
+
+        MiringValidator validator = new MiringValidator(xml);
+        validator.validate();
+        ParsedHml hml = validator.getParsedHml();
+
+        MiringValidator failFastValidator = new MiringValidator(xml);
+        failFastValidator.setFailFast(true);
+        failFastValidator.validate();
+        ParsedHml failFastHml = failFastValidator.getParsedHml();
+
+        //The same parses, but the fail fast schema pass stops near the top of the document.
+        assertEquals(hml.getParseCount(), failFastHml.getParseCount());
+        assertTrue(hml.getBytesParsed() > hml.getLength());
+        assertTrue(failFastHml.getBytesParsed() < hml.getLength() / 2);
+
+        //A document that isn't well formed stops where the error is.
+        ParsedHml badHml = new ParsedHml("<hml><unclosed>" + xml);
+        assertNull(badHml.getDocument());
+        assertEquals(1, badHml.getParseCount());
+        assertTrue(badHml.getBytesParsed() < badHml.getLength());
+    }
+
+    @Test
+    public void testBadXml()
+    {
+        ParsedHml hml = new ParsedHml("This is not xml");
+        assertNull(hml.getDocument());
+        assertNull(Utilities.getHMLIDRoot(hml.getDocument()));
+        assertNull(Utilities.getPropertiesFromRootHml(hml.getDocument()));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.Templates;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class ProbatronEngineTest
+{
+    Logger logger = LoggerFactory.getLogger(ProbatronEngineTest.class);
+    static String schemaFileName = "/org/nmdp/miring/schematron/MiringAll.sch";
+
+    @Test
+    public void testSchemaIsCompiledOnce() throws Exception
+    {
+        logger.debug("starting testSchemaIsCompiledOnce");
+        ProbatronEngine engine = ProbatronEngine.getInstance();
+        assertSame(engine, ProbatronEngine.getInstance());
+
+        Templates compiledSchema = engine.getCompiledSchema(schemaFileName);
+        assertNotNull(compiledSchema);
+        assertSame(compiledSchema, engine.getCompiledSchema(schemaFileName));
+    }
+
+    @Test
+    public void testValidate() throws Exception
+    {
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        ProbatronEngine engine = ProbatronEngine.getInstance();
+
+        Object report = engine.validate(schemaFileName, new ByteArrayInputStream(demoBadXML.getBytes(StandardCharsets.UTF_8)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        engine.streamOut(report, out);
+        String svrl = out.toString();
+
+        assertTrue(svrl.contains("schematron-output"));
+        assertTrue(svrl.contains("svrl:failed-assert"));
+        assertArrayEquals(out.toByteArray(), engine.reportAsBytes(report));
+    }
+}
@@ -24,6 +24,7 @@ package org.nmdp.miring;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.util.HashMap;
 
 import org.nmdp.miring.ReportGenerator;
@@ -120,4 +121,67 @@ public class ReportGeneratorTest
                 && properties.get("MessageReceived").toString().length() > 1); 
     }
     */
+
+    @Test
+    public void testWriteReport() throws Exception
+    {
+        logger.debug("starting testWriteReport");
+
+        ValidationResult miringError = new ValidationResult("This is a big problem 1.", Severity.MIRING);
+        miringError.setMiringRule("1.1.c");
+        miringError.addXPath("/hml[1]/sample[1]");
+        ValidationResult hmlWarning = new ValidationResult("This is an <hml> & warning.", Severity.HMLWARNING);
+        HashMap<String,String> properties = new HashMap<String,String>();
+        properties.put("Color", "Blue");
+        Sample[] samples = new Sample[]{new Sample("123456789", "567")};
+
+        ByteArrayOutputStream indented = new ByteArrayOutputStream();
+        ReportGenerator.writeReport(new ValidationContext(), new ValidationResult[]{miringError, hmlWarning}, "testRoot", "1.2.3.4", properties, samples, 0, indented, true);
+        ByteArrayOutputStream unindented = new ByteArrayOutputStream();
+        ReportGenerator.writeReport(new ValidationContext(), new ValidationResult[]{miringError, hmlWarning}, "testRoot", "1.2.3.4", properties, samples, 0, unindented, false);
+
+        String indentedReport = indented.toString("UTF-8");
+        String unindentedReport = unindented.toString("UTF-8");
+        assertTrue(indentedReport.contains("\n   <hml-compliant>"));
+        assertFalse(unindentedReport.contains("\n"));
+        assertEquals(indentedReport.replaceAll(">\\s+<", "><").replaceAll("timestamp=\"[^\"]*\"", "").trim(), 
+            unindentedReport.replaceAll("timestamp=\"[^\"]*\"", ""));
+
+        assertTrue(Utilities.containsErrorNode(unindentedReport, "This is a big problem 1."));
+        assertTrue(Utilities.containsErrorNode(unindentedReport, "This is an <hml> & warning."));
+        assertEquals("testRoot", Utilities.getHMLIDRoot(unindentedReport));
+        assertEquals("Blue", Utilities.getPropertiesFromRootHml(unindentedReport).get("Color"));
+    }
+
+    @Test
+    public void testOmittedOccurrences() throws Exception
+    {
+        logger.debug("starting testOmittedOccurrences");
+
+        ValidationContext context = new ValidationContext();
+        context.setMaxXPathsPerResult(5);
+        ValidationResult[] results = new ValidationResult[20];
+        for(int i = 0; i < results.length; i++)
+        {
+            results[i] = new ValidationResult("The node variant is missing a quality-score attribute.", Severity.MIRING);
+            results[i].setMiringRule("5.2.b");
+            results[i].addXPath("/hml[1]/sample[1]/typing[1]/variant[" + (i + 1) + "]");
+        }
+        results[19].addOmittedOccurrences(100);
+        Sample[] samples = new Sample[]{new Sample("123456789", "567")};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReportGenerator.writeReport(context, results, "testRoot", "1.2.3.4", null, samples, 0, out, true);
+        Element rootElement = Utilities.xmlToRootElement(out.toString("UTF-8"));
+        NodeList list = rootElement.getElementsByTagName("miring-result");
+        assertEquals(1, list.getLength());
+        Element result = (Element) list.item(0);
+        assertEquals(5, result.getElementsByTagName("xpath").getLength());
+        assertEquals("115", result.getAttribute("omitted-occurrences"));
+
+        //A result with no omitted occurrences doesn't get the attribute.
+        out = new ByteArrayOutputStream();
+        ReportGenerator.writeReport(new ValidationContext(), new ValidationResult[]{new ValidationResult("A problem.", Severity.MIRING)}, "testRoot", "1.2.3.4", null, null, 0, out, true);
+        assertFalse(out.toString("UTF-8").contains("omitted-occurrences"));
+    }
 }
@@ -0,0 +1,82 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class RuleCatalogTest
+{
+    Logger logger = LoggerFactory.getLogger(RuleCatalogTest.class);
+
+    @Test
+    public void testMissingNodeRules()
+    {
+        logger.debug("starting testMissingNodeRules");
+        RuleCatalog catalog = RuleCatalog.getInstance();
+        assertSame(catalog, RuleCatalog.getInstance());
+
+        RuleCatalog.Rule rule = catalog.getMissingNodeRule("hmlid");
+        assertEquals("1.1.a", rule.getMiringRuleId());
+        assertEquals("miring", rule.getSeverity());
+
+        assertEquals("hml", catalog.getHmlMissingNodeRule("reporting-center").getSeverity());
+        assertNull(catalog.getMissingNodeRule("not-a-node"));
+        assertNull(catalog.getMissingNodeRule(null));
+    }
+
+    @Test
+    public void testMissingAttributeRules()
+    {
+        RuleCatalog catalog = RuleCatalog.getInstance();
+
+        RuleCatalog.Rule rule = catalog.getMissingAttributeRule("variant", "reference-bases");
+        assertEquals("5.4.a", rule.getMiringRuleId());
+        assertEquals("variant", rule.getNodeName());
+        assertEquals("reference-bases", rule.getAttributeName());
+
+        //HML rules use an "attribute" attribute instead of "attribute-name"
+        assertEquals("warning", catalog.getHmlMissingAttributeRule("sample", "center-code-id").getSeverity());
+        assertNull(catalog.getMissingAttributeRule("sample", "center-code-id"));
+        assertNull(catalog.getMissingAttributeRule("variant", "not-an-attribute"));
+    }
+
+    @Test
+    public void testSchematronRules()
+    {
+        RuleCatalog catalog = RuleCatalog.getInstance();
+
+        //Schematron text has whitespace around it.
+        RuleCatalog.Rule rule = catalog.getSchematronRule("\n            The hmlid root is not formatted like an OID.\n        ");
+        assertEquals("1.1.c", rule.getMiringRuleId());
+        assertEquals("info", rule.getSeverity());
+        assertSame(rule, catalog.getSchematronRule("\n            The hmlid root is not formatted like an OID.\n        "));
+        assertSame(rule, catalog.getSchematronRuleByErrorText("The hmlid root is not formatted like an OID."));
+
+        assertNotSame(rule, catalog.getSchematronRule("The hmlid root is formatted like an OID."));
+        assertNull(catalog.getSchematronRule("This message isn't in any rule template."));
+    }
+}
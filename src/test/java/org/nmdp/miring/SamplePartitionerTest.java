@@ -0,0 +1,105 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SamplePartitionerTest
+{
+    static final String XML = "<?xml version=\"1.0\"?>\n<!-- <sample id=\"comment\"/> -->\n<hml version=\"1.0.1\">\n  <property name=\"a\" value=\"<sample>\"/>\n"
+        + "  <sample id=\"1\">\n    <typing/>\n  </sample>\n  <sample id=\"2\"><![CDATA[</sample>]]></sample>\n  <sample id=\"3\"/>\n</hml>\n";
+
+    @Test
+    public void testFindSamples()
+    {
+        List<int[]> samples = SamplePartitioner.findSamples(XML);
+        assertEquals(3, samples.size());
+        assertTrue(XML.substring(samples.get(0)[0], samples.get(0)[1]).startsWith("<sample id=\"1\">"));
+        assertTrue(XML.substring(samples.get(0)[0], samples.get(0)[1]).endsWith("</sample>"));
+        assertEquals("<sample id=\"2\"><![CDATA[</sample>]]></sample>", XML.substring(samples.get(1)[0], samples.get(1)[1]));
+        assertEquals("<sample id=\"3\"/>", XML.substring(samples.get(2)[0], samples.get(2)[1]));
+
+        assertNull(SamplePartitioner.findSamples(null));
+        assertNull(SamplePartitioner.findSamples("<hml><sample id=\"1\"></hml>"));
+    }
+
+    @Test
+    public void testPartitionKeepsLines()
+    {
+        List<SamplePartitioner.Partition> partitions = SamplePartitioner.partition(XML, 3);
+        assertEquals(3, partitions.size());
+        assertTrue(partitions.get(0).first);
+        assertTrue(partitions.get(2).last);
+        assertFalse(partitions.get(1).first || partitions.get(1).last);
+
+        String[] lines = XML.split("\n", -1);
+        for(int p = 0; p < partitions.size(); p++)
+        {
+            SamplePartitioner.Partition partition = partitions.get(p);
+            assertEquals(p + 1, partition.firstSampleIndex);
+            assertEquals(1, partition.sampleCount);
+
+            //Every line is still there, the text that was left out is blank, and the rest is in the same column.
+            String[] partitionLines = partition.xml.split("\n", -1);
+            assertEquals(lines.length, partitionLines.length);
+            for(int i = 0; i < lines.length; i++)
+            {
+                assertTrue(partitionLines[i].trim().isEmpty() || lines[i].endsWith(partitionLines[i].trim()));
+                assertTrue(partitionLines[i].length() <= lines[i].length());
+            }
+            assertTrue(partition.xml.contains("<sample id=\"" + (p + 1) + "\""));
+        }
+
+        assertNull(SamplePartitioner.partition(XML, 1));
+        assertNull(SamplePartitioner.partition("<hml><sample id=\"1\"/></hml>", 4));
+    }
+
+    @Test
+    public void testKeep()
+    {
+        SamplePartitioner.Partition partition = new SamplePartitioner.Partition();
+        partition.firstSampleIndex = 3;
+        partition.sampleCount = 2;
+
+        List<String> xPaths = new ArrayList<String>(Arrays.asList("/hml[1]/sample[2]/typing[1]"));
+        assertTrue(partition.keep(0, 1, 2, xPaths));
+        assertEquals("/hml[1]/sample[4]/typing[1]", xPaths.get(0));
+
+        //Results outside of the samples come from the first and last partitions.
+        assertFalse(partition.keep(0, 1, 2, new ArrayList<String>(Arrays.asList("/hml[1]/property[1]"))));
+        assertFalse(partition.keep(2, 1, 2, new ArrayList<String>(Arrays.asList("/hml[1]"))));
+        assertTrue(partition.keep(1, 1, 2, new ArrayList<String>(Arrays.asList("/hml[1]"))));
+        partition.first = true;
+        assertTrue(partition.keep(0, 1, 2, new ArrayList<String>(Arrays.asList("/hml[1]/property[1]"))));
+
+        assertEquals("/hml[1]/property[1]", partition.rebase("/hml[1]/property[1]"));
+        assertEquals("/hml[1]/sample[12]", partition.rebase("/hml[1]/sample[10]"));
+        assertEquals(-1, SamplePartitioner.getSampleStepStart("/hml[1]/property[1]/sample[1]"));
+    }
+}
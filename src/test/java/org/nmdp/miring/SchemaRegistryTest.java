@@ -0,0 +1,88 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.validation.Schema;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class SchemaRegistryTest
+{
+    Logger logger = LoggerFactory.getLogger(SchemaRegistryTest.class);
+
+    @Test
+    public void testSchemasAreCompiledOnce() throws Exception
+    {
+        logger.debug("starting testSchemasAreCompiledOnce");
+        for(String version : SchemaRegistry.HML_VERSIONS)
+        {
+            Schema hmlSchema = SchemaRegistry.getSchema(SchemaRegistry.getHmlSchemaFileName(version));
+            assertNotNull(hmlSchema);
+            assertSame(hmlSchema, SchemaRegistry.getSchema(SchemaRegistry.getHmlSchemaFileName(version)));
+
+            Schema miringSchema = SchemaRegistry.getSchema(SchemaRegistry.getMiringSchemaFileName(version));
+            assertNotNull(miringSchema);
+            assertSame(miringSchema, SchemaRegistry.getSchema(SchemaRegistry.getMiringSchemaFileName(version)));
+        }
+    }
+
+    @Test
+    public void testParsersArePerThread() throws Exception
+    {
+        final String schemaFileName = SchemaRegistry.getMiringSchemaFileName("1.0.1");
+        SAXParser parser = SchemaRegistry.getParser(schemaFileName);
+        assertSame(parser, SchemaRegistry.getParser(schemaFileName));
+
+        final SAXParser[] otherParser = new SAXParser[1];
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    otherParser[0] = SchemaRegistry.getParser(schemaFileName);
+                }
+                catch(SAXException e)
+                {
+                    logger.error("Could not get a parser", e);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotNull(otherParser[0]);
+        assertNotSame(parser, otherParser[0]);
+    }
+
+    @Test(expected = SAXException.class)
+    public void testUnknownSchema() throws Exception
+    {
+        SchemaRegistry.getSchema(SchemaRegistry.getHmlSchemaFileName("9.9.9"));
+    }
+}
@@ -0,0 +1,201 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.saxon.s9api.SAXDestination;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+public class SchematronValidatorTest
+{
+    Logger logger = LoggerFactory.getLogger(SchematronValidatorTest.class);
+    static String schemaFileName = "/org/nmdp/miring/schematron/MiringAll.sch";
+
+    @Test
+    public void testStreamedReportMatchesSerializedReport() throws Exception
+    {
+        logger.debug("starting testStreamedReportMatchesSerializedReport");
+        String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        ProbatronEngine engine = ProbatronEngine.getInstance();
+
+        //Streamed straight from the transform
+        SchematronValidator.SvrlContentHandler streamed = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+        engine.validate(schemaFileName, new ParsedHml(demoBadXML).newSource(), streamed);
+
+        //Serialized by probatron, then parsed again
+        Object report = engine.validate(schemaFileName, new ByteArrayInputStream(demoBadXML.getBytes(StandardCharsets.UTF_8)));
+        SchematronValidator.SvrlContentHandler parsed = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+        parse(new String(engine.reportAsBytes(report), StandardCharsets.UTF_8), parsed);
+
+        ValidationResult[] streamedResults = streamed.getValidationResults();
+        assertTrue(streamedResults.length > 0);
+        assertArrayEquals(parsed.getValidationResults(), streamedResults);
+    }
+
+    @Test
+    public void testSaxonEngineMatchesProbatron() throws Exception
+    {
+        logger.debug("starting testSaxonEngineMatchesProbatron");
+        SaxonSchematronEngine saxonEngine = SaxonSchematronEngine.getInstance();
+        assertSame(saxonEngine, SaxonSchematronEngine.getInstance());
+        assertSame(saxonEngine.getCompiledSchema(schemaFileName), saxonEngine.getCompiledSchema(schemaFileName));
+        ProbatronEngine probatronEngine = ProbatronEngine.getInstance();
+
+        File hmlDirectory = new File(SchematronValidatorTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            ParsedHml hml = new ParsedHml(Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName()));
+            if(hml.getDocument() == null)
+            {
+                //Not well formed, schematron never sees it.
+                continue;
+            }
+
+            SchematronValidator.SvrlContentHandler saxon = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+            saxonEngine.validate(schemaFileName, hml.newSource(), saxon);
+            SchematronValidator.SvrlContentHandler probatron = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+            probatronEngine.validate(schemaFileName, hml.newSource(), probatron);
+
+            assertArrayEquals(hmlFile.getName(), probatron.getValidationResults(), saxon.getValidationResults());
+        }
+    }
+
+    @Test
+    public void testParallelPatternsMatchSequential() throws Exception
+    {
+        logger.debug("starting testParallelPatternsMatchSequential");
+        SaxonSchematronEngine engine = SaxonSchematronEngine.getInstance();
+        //MiringAll.sch includes the patterns of MiringElement1.incl to MiringElement8.incl.
+        assertEquals(8, engine.getPatternModes(schemaFileName).size());
+        assertSame(engine.getPatternModes(schemaFileName), engine.getPatternModes(schemaFileName));
+
+        File hmlDirectory = new File(SchematronValidatorTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            ParsedHml hml = new ParsedHml(Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName()));
+            if(hml.getDocument() == null)
+            {
+                continue;
+            }
+
+            SchematronValidator.SvrlContentHandler sequential = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+            engine.validate(schemaFileName, hml.newSource(), sequential);
+            ValidationResult[] parallel = SchematronValidator.validatePatterns(new ValidationContext(), schemaFileName, engine.buildDocument(hml.newSource()), null);
+
+            assertArrayEquals(hmlFile.getName(), sequential.getValidationResults(), parallel);
+        }
+    }
+
+    @Test
+    public void testSpeculativeValidation() throws Exception
+    {
+        logger.debug("starting testSpeculativeValidation");
+        String[] schemaFileNames = new String[] {schemaFileName};
+        ParsedHml hml = new ParsedHml(Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml"));
+        ValidationContext context = new ValidationContext();
+        context.setTier2Engine(SchematronValidator.Tier2Engine.SAXON);
+
+        ValidationResult[] sequential = SchematronValidator.validate(context, hml, schemaFileNames);
+        SchematronValidator.SchematronRun run = SchematronValidator.startSpeculativeValidation(context, hml, schemaFileNames, false);
+        assertArrayEquals(sequential, SchematronValidator.validate(context, hml, schemaFileNames, run));
+
+        //The run expected the Tier 1 parse to check the streaming rules, but there are no streaming results, so it is validated again.
+        run = SchematronValidator.startSpeculativeValidation(context, hml, schemaFileNames, true);
+        assertArrayEquals(sequential, SchematronValidator.validate(context, hml, schemaFileNames, run));
+        assertTrue(run.cancelled);
+
+        //A run that is cancelled before it starts doesn't check any schemas.
+        run = new SchematronValidator.SchematronRun(context, hml, schemaFileNames, false);
+        run.cancel();
+        run.call();
+        assertEquals(0, run.results.length);
+    }
+
+    @Test
+    public void testPrecompiledSchemaMatchesSchematron() throws Exception
+    {
+        //The build writes MiringAll.xsl next to MiringAll.sch.
+        assertEquals("/org/nmdp/miring/schematron/MiringAll.xsl", SaxonSchematronEngine.getPrecompiledName(schemaFileName));
+        assertNotNull(SchematronValidatorTest.class.getResource(SaxonSchematronEngine.getPrecompiledName(schemaFileName)));
+
+        SaxonSchematronEngine engine = new SaxonSchematronEngine();
+        ParsedHml hml = new ParsedHml(Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml"));
+        SchematronValidator.SvrlContentHandler precompiled = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+        transform(engine.compileSchema(schemaFileName), hml, precompiled);
+        SchematronValidator.SvrlContentHandler schematron = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+        transform(engine.compileSchematron(schemaFileName), hml, schematron);
+
+        assertTrue(precompiled.getValidationResults().length > 0);
+        assertArrayEquals(schematron.getValidationResults(), precompiled.getValidationResults());
+    }
+
+    @Test
+    public void testReportsComeBeforeAsserts() throws Exception
+    {
+        String hml = "/{http://schemas.nmdp.org/spec/hml/1.0.1}hml[1]";
+        String svrl = "<svrl:schematron-output xmlns:svrl=\"http://purl.oclc.org/dsdl/svrl\">"
+            + "<svrl:failed-assert test=\"x\" location=\"" + hml + "/{http://schemas.nmdp.org/spec/hml/1.0.1}sample[1]\">"
+            + "<svrl:text>The hmlid root is not formatted like an OID.</svrl:text></svrl:failed-assert>"
+            + "<svrl:successful-report test=\"y\" location=\"" + hml + "/{http://schemas.nmdp.org/spec/hml/1.0.1}hmlid[1]\">"
+            + "<svrl:text>The hmlid root is formatted like an OID.</svrl:text><svrl:text>ignored</svrl:text></svrl:successful-report>"
+            + "</svrl:schematron-output>";
+
+        SchematronValidator.SvrlContentHandler handler = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+        parse(svrl, handler);
+        ValidationResult[] results = handler.getValidationResults();
+
+        assertEquals(2, results.length);
+        assertEquals("The hmlid root is formatted like an OID.", results[0].getErrorText());
+        assertEquals("/hml[1]/hmlid[1]", results[0].getXPaths().get(0));
+        assertEquals("The hmlid root is not formatted like an OID.", results[1].getErrorText());
+    }
+
+    private static void parse(String svrl, SchematronValidator.SvrlContentHandler handler) throws Exception
+    {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.newSAXParser().parse(new InputSource(new StringReader(svrl)), handler);
+    }
+
+    private static void transform(XsltExecutable compiledSchema, ParsedHml hml, SchematronValidator.SvrlContentHandler handler) throws Exception
+    {
+        XsltTransformer transformer = compiledSchema.load();
+        transformer.setSource(hml.newSource());
+        transformer.setDestination(new SAXDestination(handler));
+        transformer.transform();
+    }
+}
@@ -0,0 +1,315 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class SinglePassValidationTest
+{
+    Logger logger = LoggerFactory.getLogger(SinglePassValidationTest.class);
+
+    @Test
+    public void testSinglePassMatchesTwoPasses() throws Exception
+    {
+        logger.debug("starting testSinglePassMatchesTwoPasses");
+        File hmlDirectory = new File(SinglePassValidationTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        File[] hmlFiles = hmlDirectory.listFiles();
+        assertTrue(hmlFiles.length > 0);
+
+        for(File hmlFile : hmlFiles)
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+
+            MiringValidator twoPassValidator = new MiringValidator(xml);
+            twoPassValidator.setSinglePassSchemaValidation(false);
+            MiringValidator singlePassValidator = new MiringValidator(xml);
+            assertTrue(singlePassValidator.isSinglePassSchemaValidation());
+
+            assertEquals(hmlFile.getName(), stripTimestamp(twoPassValidator.validate()), stripTimestamp(singlePassValidator.validate()));
+        }
+    }
+
+    @Test
+    public void testUnsupportedVersion()
+    {
+        String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/MinimalMIRING.xml");
+        for(String version : new String[] {"2.0", ""})
+        {
+            String versionXml = xml.replace("version=\"1.0.1\">", "version=\"" + version + "\">");
+
+            MiringValidator twoPassValidator = new MiringValidator(versionXml);
+            twoPassValidator.setSinglePassSchemaValidation(false);
+            String twoPassReport = twoPassValidator.validate();
+            assertTrue(twoPassReport.contains("<hml-compliant>reject</hml-compliant>"));
+            assertTrue(twoPassReport.contains("HML version " + version + " is not supported."));
+
+            MiringValidator singlePassValidator = new MiringValidator(versionXml);
+            assertEquals(version, stripTimestamp(twoPassReport), stripTimestamp(singlePassValidator.validate()));
+
+            MiringValidator parallelValidator = new MiringValidator(versionXml);
+            parallelValidator.setParallelSamples(true);
+            assertEquals(version, stripTimestamp(twoPassReport), stripTimestamp(parallelValidator.validate()));
+        }
+    }
+
+    @Test
+    public void testSinglePassParseCount()
+    {
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        MiringValidator validator = new MiringValidator(demoGoodXML);
+        validator.validate();
+
+        //The header, and one schema pass for HML, Tier 1 and the native Tier 2 rules.
+        assertEquals(2, validator.getParsedHml().getParseCount());
+
+        validator = new MiringValidator(demoGoodXML);
+        validator.setTier2Engine(SchematronValidator.Tier2Engine.SAXON);
+        validator.validate();
+
+        //The header, one schema pass for HML and Tier 1, and the schematron validation.
+        assertEquals(3, validator.getParsedHml().getParseCount());
+
+        validator = new MiringValidator(demoGoodXML);
+        validator.setTier2Engine(SchematronValidator.Tier2Engine.SAXON);
+        validator.setSpeculativeTier2(true);
+        validator.validate();
+
+        //The same parses, with the schematron validation started before the schema pass.
+        assertEquals(3, validator.getParsedHml().getParseCount());
+    }
+
+    @Test
+    public void testTier2EnginesMatch() throws Exception
+    {
+        logger.debug("starting testTier2EnginesMatch");
+        File hmlDirectory = new File(SinglePassValidationTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+
+            MiringValidator nativeValidator = new MiringValidator(xml);
+            assertEquals(SchematronValidator.Tier2Engine.NATIVE, nativeValidator.getTier2Engine());
+            String nativeReport = stripTimestamp(nativeValidator.validate());
+            for(SchematronValidator.Tier2Engine engine : new SchematronValidator.Tier2Engine[] {SchematronValidator.Tier2Engine.SAXON, SchematronValidator.Tier2Engine.PROBATRON})
+            {
+                MiringValidator validator = new MiringValidator(xml);
+                validator.setTier2Engine(engine);
+                assertEquals(hmlFile.getName() + " " + engine, nativeReport, stripTimestamp(validator.validate()));
+
+                MiringValidator speculativeValidator = new MiringValidator(xml);
+                speculativeValidator.setTier2Engine(engine);
+                speculativeValidator.setSpeculativeTier2(true);
+                assertEquals(hmlFile.getName() + " speculative " + engine, nativeReport, stripTimestamp(speculativeValidator.validate()));
+            }
+
+            //Without the single pass, the native rules don't run during Tier 1, so Tier 2 can start with it.
+            MiringValidator twoPassValidator = new MiringValidator(xml);
+            twoPassValidator.setSinglePassSchemaValidation(false);
+            twoPassValidator.setSpeculativeTier2(true);
+            assertEquals(hmlFile.getName() + " speculative two passes", nativeReport, stripTimestamp(twoPassValidator.validate()));
+
+            MiringValidator parallelValidator = new MiringValidator(xml);
+            parallelValidator.setTier2Engine(SchematronValidator.Tier2Engine.SAXON);
+            parallelValidator.setParallelPatterns(true);
+            assertEquals(hmlFile.getName() + " parallel", nativeReport, stripTimestamp(parallelValidator.validate()));
+        }
+    }
+
+    @Test
+    public void testParallelSamplesMatchSinglePass() throws Exception
+    {
+        logger.debug("starting testParallelSamplesMatchSinglePass");
+        File hmlDirectory = new File(SinglePassValidationTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+            assertParallelSamplesMatch(hmlFile.getName(), xml);
+            ParsedHml repeated = assertParallelSamplesMatch(hmlFile.getName() + " repeated", repeatSamples(xml, 4));
+            if(repeated != null && !hmlFile.getName().startsWith("invalid"))
+            {
+                //The header, and one parse of the partitions, without falling back to the whole document.  
+                //The invalid documents aren't well formed, so they are validated as a whole.
+                assertEquals(hmlFile.getName(), 2, repeated.getParseCount());
+            }
+
+            MiringValidator validator = new MiringValidator(xml);
+            MiringValidator parallelValidator = new MiringValidator(xml);
+            parallelValidator.setParallelSamples(true);
+            assertEquals(hmlFile.getName(), stripTimestamp(validator.validate()), stripTimestamp(parallelValidator.validate()));
+        }
+
+        //demobad's sample followed by demogood's, so only some of the partitions have results.
+        String demoBad = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        String demoGood = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        List<int[]> goodSamples = SamplePartitioner.findSamples(demoGood);
+        int badEnd = SamplePartitioner.findSamples(demoBad).get(0)[1];
+        String mixed = demoBad.substring(0, badEnd) + "\n" + demoGood.substring(goodSamples.get(0)[0], goodSamples.get(0)[1]) + demoBad.substring(badEnd);
+        assertParallelSamplesMatch("mixed", repeatSamples(mixed, 3));
+
+        //An HML schema error on the start tag of each sample, after the errors for the missing nodes before the samples.
+        String noReportingCenter = demoGood.replaceFirst("<(\\w+:)?reporting-center[^>]*/>", "");
+        String unknownAttribute = repeatSamples(noReportingCenter, 4).replace("<sample ", "<sample unknown=\"1\" ");
+        assertEquals(2, assertParallelSamplesMatch("sample attribute", unknownAttribute).getParseCount());
+    }
+
+    @Test
+    public void testParallelSamplesInFile() throws Exception
+    {
+        logger.debug("starting testParallelSamplesInFile");
+        //demobad's sample followed by demogood's, with a non-ASCII character and an unknown node on the line where each sample starts.
+        //The columns of the left out samples are counted in characters, not bytes.
+        String demoBad = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+        String demoGood = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        List<int[]> goodSamples = SamplePartitioner.findSamples(demoGood);
+        int badEnd = SamplePartitioner.findSamples(demoBad).get(0)[1];
+        String goodSample = demoGood.substring(goodSamples.get(0)[0], goodSamples.get(0)[1]).replace("\"ref1\"", "\"good1\"");
+        String mixed = demoBad.substring(0, badEnd) + "\n" + goodSample + demoBad.substring(badEnd);
+        String xml = repeatSamples(mixed, 3).replace("</sample>\n<sample", "<!-- \u00e9 --></sample> <sample")
+            .replace("<sample center-code=\"321\" id=\"123456789\">", "<sample center-code=\"321\" id=\"123456789\"><unknown/>");
+
+        File file = File.createTempFile("miring", ".xml");
+        try
+        {
+            Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+            ParsedHml parallelHml = assertParallelSamplesMatch("file", xml, file);
+            //The header, and one parse of the partitions read from the file, without falling back to the whole document.
+            assertEquals(2, parallelHml.getParseCount());
+
+            MiringValidator validator = new MiringValidator(new ParsedHml(file), new ValidationContext());
+            MiringValidator parallelValidator = new MiringValidator(new ParsedHml(file), new ValidationContext());
+            parallelValidator.setParallelSamples(true);
+            assertEquals(stripTimestamp(validator.validate()), stripTimestamp(parallelValidator.validate()));
+
+            //A UTF-16 file isn't split.
+            Files.write(file.toPath(), xml.replaceFirst("encoding=\"[^\"]*\"", "encoding=\"UTF-16\"").getBytes(StandardCharsets.UTF_16));
+            assertNull(SamplePartitioner.partition(new ParsedHml(file), 100));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static ParsedHml assertParallelSamplesMatch(String name, String xml)
+    {
+        return assertParallelSamplesMatch(name, xml, null);
+    }
+
+    /**
+     * Check that the partitions of a document get the same results as the whole document.
+     * If a file is given, it holds the document, and both validations read it from the file.
+     */
+    private static ParsedHml assertParallelSamplesMatch(String name, String xml, File file)
+    {
+        ParsedHml hml = (file == null) ? new ParsedHml(xml) : new ParsedHml(file);
+        String version = hml.getHeader().getVersion();
+        if(version == null)
+        {
+            return null;
+        }
+        String hmlSchema = SchemaRegistry.getHmlSchemaFileName(version);
+        String miringSchema = SchemaRegistry.getMiringSchemaFileName(version);
+
+        ValidationContext context = new ValidationContext();
+        ValidationResult[] hmlResults = SchemaValidator.validate(context, hml, hmlSchema, miringSchema);
+
+        //A partition for each sample.
+        ValidationContext parallelContext = new ValidationContext();
+        ParsedHml parallelHml = (file == null) ? new ParsedHml(xml) : new ParsedHml(file);
+        parallelHml.getHeader();
+        ValidationResult[] parallelHmlResults = SchemaValidator.validateSamplesInParallel(parallelContext, parallelHml, hmlSchema, miringSchema, 100);
+
+        assertArrayEquals(name, hmlResults, parallelHmlResults);
+        assertArrayEquals(name, context.getValidationErrors().toArray(), parallelContext.getValidationErrors().toArray());
+        assertEquals(name, getSampleIds(context), getSampleIds(parallelContext));
+        if(context.streamingRuleResults == null)
+        {
+            assertNull(name, parallelContext.streamingRuleResults);
+        }
+        else
+        {
+            assertArrayEquals(name, context.streamingRuleResults.toArray(), parallelContext.streamingRuleResults.toArray());
+        }
+        return parallelHml;
+    }
+
+    private static List<String> getSampleIds(ValidationContext context)
+    {
+        List<String> ids = new ArrayList<String>();
+        for(Sample sample : context.getSamples())
+        {
+            ids.add(sample.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Repeat every sample of a document, so the document can be split.  The reference-sequence ids of each copy are 
+     * changed, so they are still unique in the document.
+     */
+    private static String repeatSamples(String xml, int times)
+    {
+        List<int[]> samples = SamplePartitioner.findSamples(xml);
+        if(samples == null || samples.isEmpty())
+        {
+            return xml;
+        }
+        int start = samples.get(0)[0];
+        int end = samples.get(samples.size() - 1)[1];
+        StringBuilder text = new StringBuilder(xml.substring(0, end));
+        for(int i = 1; i < times; i++)
+        {
+            String copy = xml.substring(start, end)
+                .replaceAll("(<(?:\\w+:)?reference-sequence\\b[^>]*?\\bid=\")([^\"]*)\"", "$1$2-" + i + "\"")
+                .replaceAll("(reference-sequence-id=\")([^\"]*)\"", "$1$2-" + i + "\"");
+            text.append("\n").append(copy);
+        }
+        return text.append(xml.substring(end)).toString();
+    }
+
+    @Test
+    public void testTier1DiscardedWhenHmlIsBad()
+    {
+        String invalidXML = Utilities.readXmlResource("/org/nmdp/miring/hml/invalid.prolog.xml.txt");
+        MiringValidator validator = new MiringValidator(invalidXML);
+        validator.validate();
+
+        assertTrue(validator.getContext().getValidationErrors().isEmpty());
+        assertTrue(validator.getContext().getSamples().isEmpty());
+    }
+
+    private static String stripTimestamp(String report)
+    {
+        return report.replaceAll("timestamp=\"[^\"]*\"", "timestamp=\"\"");
+    }
+}
@@ -0,0 +1,254 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+public class StreamingRuleHandlerTest
+{
+    Logger logger = LoggerFactory.getLogger(StreamingRuleHandlerTest.class);
+    static String schemaFileName = "/org/nmdp/miring/schematron/MiringAll.sch";
+
+    @Test
+    public void testStreamingRulesMatchSchematron() throws Exception
+    {
+        logger.debug("starting testStreamingRulesMatchSchematron");
+        SaxonSchematronEngine engine = SaxonSchematronEngine.getInstance();
+        Map<String, Boolean> streamingRules = new HashMap<String, Boolean>();
+        streamingRules.put("streamingRules", true);
+        int streamingResultCount = 0;
+
+        File hmlDirectory = new File(StreamingRuleHandlerTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+            ParsedHml hml = new ParsedHml(xml);
+            if(hml.getDocument() == null)
+            {
+                //Not well formed, schematron never sees it.
+                continue;
+            }
+
+            //Every rule checked by the schematron
+            SchematronValidator.SvrlContentHandler schematron = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+            engine.validate(schemaFileName, hml.newSource(), schematron);
+
+            //The streaming rules checked during a parse, and the rest by the schematron
+            StreamingRuleHandler handler = parse(xml, false);
+            SchematronValidator.SvrlContentHandler skipped = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+            engine.validate(schemaFileName, hml.newSource(), skipped, streamingRules);
+            Map<String, Set<String>> combined = getXPathsByError(skipped.getValidationResults());
+            combined.putAll(getXPathsByError(handler.getValidationErrors().toArray()));
+            streamingResultCount += handler.getValidationErrors().size();
+
+            //The variant id rule is reported once for each consensus-sequence-block, instead of for each variant.
+            assertEquals(hmlFile.getName(), getXPathsByError(schematron.getValidationResults()), combined);
+        }
+        assertTrue(streamingResultCount > 0);
+    }
+
+    @Test
+    public void testNativeRulesMatchSchematron() throws Exception
+    {
+        logger.debug("starting testNativeRulesMatchSchematron");
+        SaxonSchematronEngine engine = SaxonSchematronEngine.getInstance();
+        Set<String> rules = new TreeSet<String>();
+
+        File hmlDirectory = new File(StreamingRuleHandlerTest.class.getResource("/org/nmdp/miring/hml").toURI());
+        for(File hmlFile : hmlDirectory.listFiles())
+        {
+            String xml = Utilities.readXmlResource("/org/nmdp/miring/hml/" + hmlFile.getName());
+            ParsedHml hml = new ParsedHml(xml);
+            if(hml.getDocument() == null)
+            {
+                continue;
+            }
+
+            SchematronValidator.SvrlContentHandler schematron = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+            engine.validate(schemaFileName, hml.newSource(), schematron);
+            ValidationResult[] results = parse(xml, true).getValidationErrors().toArray();
+            for(ValidationResult result : results)
+            {
+                rules.add(result.getMiringRule());
+            }
+
+            assertEquals(hmlFile.getName(), getXPathsByError(schematron.getValidationResults()), getXPathsByError(results));
+        }
+        //The test documents break most of the rules.
+        assertTrue(rules.toString(), rules.size() > 10);
+    }
+
+    @Test
+    public void testCrossReferences() throws Exception
+    {
+        String block = "/hml[1]/sample[1]/typing[1]/consensus-sequence[1]/consensus-sequence-block";
+        String xml = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><sample><typing><consensus-sequence>"
+            + "<consensus-sequence-block reference-sequence-id=\"ref1\" start=\"5\" end=\"6\"><sequence>A</sequence></consensus-sequence-block>"
+            + "<consensus-sequence-block reference-sequence-id=\"ref2\" start=\"5\" end=\"6\"><sequence>A</sequence></consensus-sequence-block>"
+            + "</consensus-sequence><reference-database><reference-sequence id=\"ref1\" start=\"0\" end=\"10\"/>"
+            + "<reference-sequence id=\"ref3\" start=\"0\" end=\"10\"/></reference-database></typing></sample></hml>";
+
+        ValidationResult[] results = parse(xml, true).getValidationErrors().toArray();
+
+        //The first block refers to a reference-sequence that comes after it.  The second refers to one that doesn't exist, 
+        //and nothing refers to ref3.
+        assertEquals(3, results.length);
+        assertEquals("4.2.3.d", results[0].getMiringRule());
+        assertEquals(block + "[2]", results[0].getXPaths().get(0));
+        assertEquals("4.2.3.d", results[1].getMiringRule());
+        assertEquals("2.2.1.c", results[2].getMiringRule());
+        assertEquals("/hml[1]/sample[1]/typing[1]/reference-database[1]/reference-sequence[2]", results[2].getXPaths().get(0));
+    }
+
+    @Test
+    public void testContinuity() throws Exception
+    {
+        String xml = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><sample><typing><consensus-sequence>"
+            + "<consensus-sequence-block reference-sequence-id=\"ref1\" phase-set=\"1\" start=\"0\" end=\"3\"/>"
+            + "<consensus-sequence-block reference-sequence-id=\"ref1\" phase-set=\"2\" start=\"10\" end=\"20\"/>"
+            + "<consensus-sequence-block reference-sequence-id=\"ref1\" phase-set=\"1\" start=\"3\" end=\"5\" continuity=\"true\"/>"
+            + "<consensus-sequence-block reference-sequence-id=\"ref1\" phase-set=\"2\" start=\"21\" end=\"25\" continuity=\"true\"/>"
+            + "</consensus-sequence><consensus-sequence>"
+            + "<consensus-sequence-block reference-sequence-id=\"ref1\" phase-set=\"1\" start=\"7\" end=\"9\" continuity=\"true\"/>"
+            + "</consensus-sequence></typing></sample></hml>";
+
+        ValidationResult[] results = parse(xml, false).getValidationErrors().toArray();
+
+        //Only the fourth block is not continuous.  The block in the second consensus-sequence has no previous sibling.
+        assertEquals(1, results.length);
+        assertEquals("4.2.7.b", results[0].getMiringRule());
+        assertEquals("/hml[1]/sample[1]/typing[1]/consensus-sequence[1]/consensus-sequence-block[4]", results[0].getXPaths().get(0));
+    }
+
+    @Test
+    public void testSequenceLength() throws Exception
+    {
+        String xml = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><sample><typing><consensus-sequence>"
+            + "<consensus-sequence-block start=\"0\" end=\"8\"><sequence>\n    ACGT\n    ACGT\n  </sequence></consensus-sequence-block>"
+            + "<consensus-sequence-block start=\"0\" end=\"8\"><sequence>ACGT ACG</sequence></consensus-sequence-block>"
+            + "<consensus-sequence-block start=\"0\"><sequence>ACGT</sequence></consensus-sequence-block>"
+            + "<consensus-sequence-block start=\"2\" end=\"6\"><sequence>\tACGT\t</sequence></consensus-sequence-block>"
+            + "</consensus-sequence><sequence>A</sequence></typing></sample></hml>";
+
+        ValidationResult[] results = parse(xml, false).getValidationErrors().toArray();
+
+        //The second block is one short, and the third has no end.  The sequence outside of a block isn't checked.
+        assertEquals(2, results.length);
+        assertEquals("4.2.3.e", results[0].getMiringRule());
+        assertEquals("/hml[1]/sample[1]/typing[1]/consensus-sequence[1]/consensus-sequence-block[2]/sequence[1]", results[0].getXPaths().get(0));
+        assertEquals("/hml[1]/sample[1]/typing[1]/consensus-sequence[1]/consensus-sequence-block[3]/sequence[1]", results[1].getXPaths().get(0));
+    }
+
+    @Test
+    public void testVariantIds() throws Exception
+    {
+        String block = "/hml[1]/sample[1]/typing[1]/consensus-sequence[1]/consensus-sequence-block";
+        String xml = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><sample><typing><consensus-sequence>"
+            + "<consensus-sequence-block start=\"0\" end=\"1\"><sequence>A</sequence><variant id=\"0\"/><variant id=\"1\"/><variant id=\"2\"/></consensus-sequence-block>"
+            + "<consensus-sequence-block><variant id=\"0\"/><variant id=\"2\"/><variant id=\"x\"/><variant id=\"3\"/></consensus-sequence-block>"
+            + "<consensus-sequence-block><variant id=\"1\"/><variant id=\"2\"/></consensus-sequence-block>"
+            + "</consensus-sequence></typing></sample></hml>";
+
+        ValidationResult[] results = parse(xml, false).getValidationErrors().toArray();
+
+        //One result for each block that breaks the rule.  In the second, 0 and 2 aren't neighbors, and x isn't a number.  
+        //The third has no id 0.
+        assertEquals(2, results.length);
+        assertEquals(Arrays.asList(block + "[2]/variant[1]", block + "[2]/variant[2]", block + "[2]/variant[3]"), results[0].getXPaths());
+        assertEquals(Arrays.asList(block + "[3]/variant[1]", block + "[3]/variant[2]"), results[1].getXPaths());
+    }
+
+    @Test
+    public void testGlstringTextEndsAtComment() throws Exception
+    {
+        String glstring = "/hml[1]/sample[1]/typing[1]/allele-assignment[1]/glstring";
+        String xml = "<hml xmlns=\"http://schemas.nmdp.org/spec/hml/1.0.1\"><sample><typing><allele-assignment>"
+            + "<glstring>a<!--c-->bcd</glstring><glstring><!--c-->abcd</glstring><glstring>a<?pi x?>bcd</glstring><glstring>abcd</glstring>"
+            + "</allele-assignment></typing></sample></hml>";
+
+        //The schematron only looks at the first text node, so the comment and the processing instruction end the text.
+        ValidationResult[] results = parse(xml, true).getValidationErrors().toArray();
+        Set<String> glstringXPaths = new TreeSet<String>();
+        for(ValidationResult result : results)
+        {
+            if("3.2.a".equals(result.getMiringRule()))
+            {
+                glstringXPaths.addAll(result.getXPaths());
+            }
+        }
+        assertEquals(new TreeSet<String>(Arrays.asList(glstring + "[1]", glstring + "[3]")), glstringXPaths);
+
+        ParsedHml hml = new ParsedHml(xml);
+        SchematronValidator.SvrlContentHandler saxon = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+        SaxonSchematronEngine.getInstance().validate(schemaFileName, hml.newSource(), saxon);
+        assertEquals(getXPathsByError(saxon.getValidationResults()), getXPathsByError(results));
+        SchematronValidator.SvrlContentHandler probatron = new SchematronValidator.SvrlContentHandler(new ValidationContext());
+        ProbatronEngine.getInstance().validate(schemaFileName, hml.newSource(), probatron);
+        assertEquals(getXPathsByError(probatron.getValidationResults()), getXPathsByError(results));
+    }
+
+    /**
+     * Group the xpaths of results by their error text, the way the report combines similar results.
+     */
+    private static Map<String, Set<String>> getXPathsByError(ValidationResult[] results)
+    {
+        Map<String, Set<String>> xPathsByError = new HashMap<String, Set<String>>();
+        for(ValidationResult result : results)
+        {
+            String key = result.getMiringRule() + " " + result.getSeverity() + " " + result.getErrorText();
+            if(!xPathsByError.containsKey(key))
+            {
+                xPathsByError.put(key, new TreeSet<String>());
+            }
+            xPathsByError.get(key).addAll(result.getXPaths());
+        }
+        return xPathsByError;
+    }
+
+    private static StreamingRuleHandler parse(String xml, boolean allRules) throws Exception
+    {
+        StreamingRuleHandler handler = new StreamingRuleHandler(new ValidationContext(), allRules);
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        SAXParser parser = factory.newSAXParser();
+        parser.setProperty(SchemaValidator.LEXICAL_HANDLER, handler);
+        parser.parse(new InputSource(new StringReader(xml)), handler);
+        return handler;
+    }
+}
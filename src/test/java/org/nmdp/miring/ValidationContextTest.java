@@ -0,0 +1,106 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class ValidationContextTest
+{
+    Logger logger = LoggerFactory.getLogger(ValidationContextTest.class);
+
+    @Test
+    public void testConcurrentValidation() throws Exception
+    {
+        logger.debug("starting testConcurrentValidation");
+
+        final String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        final String demoBadXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demobad.xml");
+
+        String goodReport = stripTimestamp(new MiringValidator(demoGoodXML).validate());
+        String badReport = stripTimestamp(new MiringValidator(demoBadXML).validate());
+
+        //Validate both documents at the same time, over and over.  Every report should match the sequential one.
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<String>> goodResults = new ArrayList<Future<String>>();
+            List<Future<String>> badResults = new ArrayList<Future<String>>();
+            for(int i = 0; i < 8; i++)
+            {
+                goodResults.add(executor.submit(new Callable<String>()
+                {
+                    public String call()
+                    {
+                        return new MiringValidator(demoGoodXML).validate();
+                    }
+                }));
+                badResults.add(executor.submit(new Callable<String>()
+                {
+                    public String call()
+                    {
+                        return new MiringValidator(demoBadXML).validate();
+                    }
+                }));
+            }
+            for(Future<String> result : goodResults)
+            {
+                assertEquals(goodReport, stripTimestamp(result.get()));
+            }
+            for(Future<String> result : badResults)
+            {
+                assertEquals(badReport, stripTimestamp(result.get()));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testContextHoldsSamples()
+    {
+        String demoGoodXML = Utilities.readXmlResource("/org/nmdp/miring/hml/demogood.xml");
+        ValidationContext context = new ValidationContext();
+        new MiringValidator(demoGoodXML, context).validate();
+
+        assertFalse(context.getSamples().isEmpty());
+        assertEquals("/org/nmdp/miring/schema/MiringTier1.xsd", context.getSchema());
+    }
+
+    private static String stripTimestamp(String report)
+    {
+        return report.replaceAll("timestamp=\"[^\"]*\"", "timestamp=\"\"");
+    }
+}
@@ -71,4 +71,120 @@ public class ValidationErrorTest
         assertFalse(thirdError.compareTo(firstError) < 0);
     }
 
+    @Test
+    public void testHashCodeMatchesEquals()
+    {
+        ValidationResult firstError = new ValidationResult("There is a problem with the HML",Severity.MIRING);
+        firstError.addXPath("/hml[1]/sample[1]");
+        ValidationResult secondError = new ValidationResult("There is a problem with the HML",Severity.MIRING);
+        secondError.addXPath("/hml[1]/sample[1]");
+        
+        assertTrue(firstError.equals(secondError));
+        assertEquals(firstError.hashCode(), secondError.hashCode());
+        
+        //A different xpath makes a different result.
+        secondError.addXPath("/hml[1]/sample[2]");
+        assertFalse(firstError.equals(secondError));
+        
+        //Null fields and other types don't throw.
+        ValidationResult nullTextError = new ValidationResult(null,Severity.FATAL);
+        assertFalse(nullTextError.equals(firstError));
+        assertFalse(firstError.equals(nullTextError));
+        assertTrue(nullTextError.equals(new ValidationResult(null,Severity.FATAL)));
+        assertFalse(firstError.equals("There is a problem with the HML"));
+        assertFalse(firstError.equals(null));
+    }
+
+    @Test
+    public void testCollectorDropsDuplicatesInOrder()
+    {
+        ValidationResultCollector collector = new ValidationResultCollector();
+        
+        int count = 10000;
+        for(int i = 0; i < count; i++)
+        {
+            ValidationResult ve = new ValidationResult("Attribute 'alleles' must appear on element 'variant'.",Severity.HML);
+            ve.addXPath("/hml[1]/sample[1]/typing[1]/variant[" + (i % (count / 2) + 1) + "]");
+            collector.add(ve);
+        }
+        
+        ValidationResult[] results = collector.toArray();
+        assertEquals(count / 2, results.length);
+        for(int i = 0; i < results.length; i++)
+        {
+            assertEquals("/hml[1]/sample[1]/typing[1]/variant[" + (i + 1) + "]", results[i].getXPaths().get(0));
+        }
+        
+        collector.clear();
+        assertTrue(collector.isEmpty());
+    }
+
+    @Test
+    public void testCollectorCapsResultsPerRule()
+    {
+        ValidationResultCollector collector = new ValidationResultCollector(3);
+        for(int i = 0; i < 10; i++)
+        {
+            ValidationResult ve = new ValidationResult("The node variant is missing a quality-score attribute.",Severity.MIRING);
+            ve.setMiringRule("5.2.b");
+            ve.addXPath("/hml[1]/sample[1]/typing[1]/variant[" + (i + 1) + "]");
+            collector.add(ve);
+            //Duplicates aren't occurrences.
+            collector.add(ve);
+        }
+        ValidationResult other = new ValidationResult("Another rule.",Severity.MIRING);
+        other.setMiringRule("1.1.c");
+        assertTrue(collector.add(other));
+
+        ValidationResult[] results = collector.toArray();
+        assertEquals(4, results.length);
+        assertEquals(0, results[0].getOmittedOccurrences());
+        assertEquals("/hml[1]/sample[1]/typing[1]/variant[3]", results[2].getXPaths().get(0));
+        assertEquals(7, results[2].getOmittedOccurrences());
+        assertEquals(0, results[3].getOmittedOccurrences());
+
+        //The cap is kept separately for each sample and severity.
+        ValidationResult otherSample = new ValidationResult("The node variant is missing a quality-score attribute.",Severity.MIRING);
+        otherSample.setMiringRule("5.2.b");
+        otherSample.addXPath("/hml[1]/sample[2]/typing[1]/variant[1]");
+        assertTrue(collector.add(otherSample));
+        ValidationResult otherSeverity = new ValidationResult("The node variant is missing a quality-score attribute.",Severity.FATAL);
+        otherSeverity.setMiringRule("5.2.b");
+        otherSeverity.addXPath("/hml[1]/sample[1]/typing[1]/variant[11]");
+        assertTrue(collector.add(otherSeverity));
+
+        //Results that only share a hash code are both counted.
+        ValidationResult first = new ValidationResult("Aa",Severity.MIRING);
+        first.setMiringRule("5.2.b");
+        first.addXPath("/hml[1]/sample[1]/typing[1]/variant[12]");
+        ValidationResult second = new ValidationResult("BB",Severity.MIRING);
+        second.setMiringRule("5.2.b");
+        second.addXPath("/hml[1]/sample[1]/typing[1]/variant[12]");
+        assertEquals(first.hashCode(), second.hashCode());
+        assertFalse(collector.add(first));
+        assertFalse(collector.add(second));
+        assertEquals(9, results[2].getOmittedOccurrences());
+
+        //Repeats of omitted results are not counted, even when they don't follow each other.
+        ValidationResultCollector interleaved = new ValidationResultCollector(1);
+        ValidationResult[] variants = new ValidationResult[3];
+        for(int i = 0; i < variants.length; i++)
+        {
+            variants[i] = new ValidationResult("The node variant is missing a quality-score attribute.",Severity.MIRING);
+            variants[i].setMiringRule("5.2.b");
+            variants[i].addXPath("/hml[1]/sample[1]/typing[1]/variant[" + (i + 1) + "]");
+        }
+        assertTrue(interleaved.add(variants[0]));
+        assertFalse(interleaved.add(variants[1]));
+        assertFalse(interleaved.add(variants[2]));
+        assertFalse(interleaved.add(variants[1]));
+        assertFalse(interleaved.add(variants[2]));
+        assertEquals(1, interleaved.size());
+        assertEquals(2, interleaved.toArray()[0].getOmittedOccurrences());
+
+        collector.clear();
+        ValidationResult ve = new ValidationResult("The node variant is missing a quality-score attribute.",Severity.MIRING);
+        ve.setMiringRule("5.2.b");
+        assertTrue(collector.add(ve));
+    }
 }
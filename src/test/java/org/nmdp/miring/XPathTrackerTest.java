@@ -0,0 +1,94 @@
+/*
+
+    MiringValidator  Semantic Validator for MIRING compliant HML
+    Copyright (c) 2015 National Marrow Donor Program (NMDP)
+
+    This library is free software; you can redistribute it and/or modify it
+    under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation; either version 3 of the License, or (at
+    your option) any later version.
+
+    This library is distributed in the hope that it will be useful, but WITHOUT
+    ANY WARRANTY; with out even the implied warranty of MERCHANTABILITY or
+    FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public
+    License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this library;  if not, write to the Free Software Foundation,
+    Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307  USA.
+
+    > http://www.gnu.org/licenses/lgpl.html
+
+*/
+package org.nmdp.miring;
+
+import static org.junit.Assert.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.junit.Test;
+
+public class XPathTrackerTest
+{
+    Logger logger = LoggerFactory.getLogger(XPathTrackerTest.class);
+
+    @Test
+    public void testGenerateXpath()
+    {
+        logger.debug("starting testGenerateXpath");
+        XPathTracker tracker = new XPathTracker();
+        assertEquals("", tracker.generateXpath());
+        assertEquals("", tracker.getCurrentNodeName());
+
+        tracker.startElement("hml");
+        tracker.startElement("hmlid");
+        tracker.endElement();
+        for(int i = 0; i < 3; i++)
+        {
+            tracker.startElement("sample");
+            tracker.startElement("typing");
+            tracker.endElement();
+            if(i < 2)
+            {
+                tracker.endElement();
+            }
+        }
+        tracker.startElement("typing");
+        assertEquals("/hml[1]/sample[3]/typing[2]", tracker.generateXpath());
+        tracker.endElement();
+        assertEquals("/hml[1]/sample[3]", tracker.generateXpath());
+        assertEquals("sample", tracker.getCurrentNodeName());
+        assertEquals(2, tracker.getChildCount("typing"));
+        assertEquals(0, tracker.getChildCount("consensus-sequence"));
+
+        //Closing the root leaves the tracker on the root.
+        tracker.endElement();
+        tracker.endElement();
+        tracker.endElement();
+        assertEquals("/hml[1]", tracker.generateXpath());
+        assertEquals(3, tracker.getChildCount("sample"));
+
+        tracker.clear();
+        assertEquals("", tracker.generateXpath());
+        tracker.startElement("hml");
+        assertEquals("/hml[1]", tracker.generateXpath());
+        assertEquals(0, tracker.getChildCount("sample"));
+    }
+
+    @Test
+    public void testManySiblings()
+    {
+        XPathTracker tracker = new XPathTracker();
+        tracker.startElement("hml");
+        tracker.startElement("sample");
+        tracker.startElement("consensus-sequence");
+        int count = 100000;
+        for(int i = 0; i < count; i++)
+        {
+            tracker.startElement("variant");
+            tracker.endElement();
+        }
+        tracker.startElement("variant");
+        assertEquals("/hml[1]/sample[1]/consensus-sequence[1]/variant[" + (count + 1) + "]", tracker.generateXpath());
+    }
+}